@@ -0,0 +1,25 @@
+package org.shvetsov.filestorage.configurations;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.util.List;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "storage.archive")
+public class ArchiveProperties {
+    // Сколько следующих объектов загружается параллельно с записью текущего
+    private int lookahead = 4;
+    // Объекты до этого размера загружаются заранее в память, крупные — потоком по очереди
+    private DataSize prefetchMaxSize = DataSize.ofMegabytes(16);
+    // Общий для всех архивов объём предзагруженных в память тел; сверх него объекты идут потоком
+    private DataSize prefetchMemoryBudget = DataSize.ofMegabytes(128);
+    private int maxEntries = 1000;
+    // Уже сжатые форматы пишутся в архив без компрессии
+    private List<String> storedContentTypes = List.of("image/jpeg", "image/png", "image/webp", "image/gif", "image/avif");
+}
@@ -0,0 +1,16 @@
+package org.shvetsov.filestorage.configurations;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "storage.batch")
+public class BatchProperties {
+    // Сколько stat выполняется одновременно для одного пакетного запроса
+    private int parallelism = 16;
+    private int maxPaths = 500;
+}
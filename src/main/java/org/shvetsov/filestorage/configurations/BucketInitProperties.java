@@ -0,0 +1,18 @@
+package org.shvetsov.filestorage.configurations;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "storage.bucket-init")
+public class BucketInitProperties {
+    // Пауза между попытками проверить бакеты, удваивается до max-retry-backoff
+    private Duration retryBackoff = Duration.ofSeconds(1);
+    private Duration maxRetryBackoff = Duration.ofSeconds(30);
+}
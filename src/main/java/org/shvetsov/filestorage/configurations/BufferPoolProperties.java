@@ -0,0 +1,18 @@
+package org.shvetsov.filestorage.configurations;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "storage.buffers")
+public class BufferPoolProperties {
+    // Буфер копирования тела ответа; один на запрос на всё время передачи
+    private DataSize bufferSize = DataSize.ofKilobytes(64);
+    // Сверх этого числа буферы выделяются на запрос и не удерживаются
+    private int maxPooled = 256;
+}
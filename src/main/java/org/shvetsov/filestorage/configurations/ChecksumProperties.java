@@ -0,0 +1,22 @@
+package org.shvetsov.filestorage.configurations;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "storage.checksum")
+public class ChecksumProperties {
+    // SHA-256 считается в том же проходе, что и загрузка, и сохраняется в user metadata объекта
+    private boolean enabled = true;
+    // Фоновая сверка хранимых объектов с их контрольными суммами
+    private boolean scrubEnabled = false;
+    private Duration scrubInterval = Duration.ofHours(24);
+    private DataSize scrubBandwidth = DataSize.ofMegabytes(8);
+}
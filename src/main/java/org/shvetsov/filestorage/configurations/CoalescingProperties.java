@@ -0,0 +1,19 @@
+package org.shvetsov.filestorage.configurations;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "storage.coalescing")
+public class CoalescingProperties {
+    private boolean enabled = true;
+    // Тела до этого размера читаются в память и раздаются всем ожидающим
+    private DataSize inMemoryMaxSize = DataSize.ofMegabytes(1);
+    // Крупные тела пишутся во временный файл, который читают все ожидающие
+    private String spoolDirectory = System.getProperty("java.io.tmpdir") + "/filestorage-spool";
+}
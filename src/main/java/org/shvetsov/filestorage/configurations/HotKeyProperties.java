@@ -0,0 +1,32 @@
+package org.shvetsov.filestorage.configurations;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "storage.hot-keys")
+public class HotKeyProperties {
+    // Учёт частоты чтений по путям в count-min sketch
+    private boolean enabled = true;
+    private int width = 2048;
+    private int depth = 4;
+    // Счётчики делятся пополам с этим периодом, чтобы остывшие ключи уходили из топа
+    private Duration decayInterval = Duration.ofMinutes(10);
+    // Сколько самых горячих путей отслеживается поимённо
+    private int capacity = 200;
+    // Горячий набор сохраняется в бакет и прогревается новым экземпляром до readiness
+    private boolean prewarmEnabled = true;
+    // Каждый экземпляр пишет свой объект {hot-set-prefix}{id экземпляра}; при прогреве наборы сливаются
+    private String hotSetPrefix = "system/hot-keys/";
+    private Duration publishInterval = Duration.ofMinutes(5);
+    // Наборы старше этого не читаются и удаляются: их экземпляры давно остановлены
+    private Duration hotSetMaxAge = Duration.ofHours(1);
+    private int prewarmParallelism = 8;
+    private Duration prewarmTimeout = Duration.ofSeconds(30);
+}
@@ -0,0 +1,19 @@
+package org.shvetsov.filestorage.configurations;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "storage.index-snapshot")
+public class IndexSnapshotProperties {
+    // Снимок индекса фото на локальном диске, чтобы не ждать полного листинга после рестарта
+    private boolean enabled = false;
+    private String path = "./data/photo-index.snapshot";
+    private Duration interval = Duration.ofMinutes(5);
+}
@@ -0,0 +1,27 @@
+package org.shvetsov.filestorage.configurations;
+
+import org.shvetsov.filestorage.services.InvalidationBus;
+import org.shvetsov.filestorage.services.InvalidationListener;
+import org.shvetsov.filestorage.services.InvalidationTransport;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.List;
+
+@Configuration
+public class InvalidationConfig {
+
+    // Транспорт подключается отдельным бином; включённая шина без него ничего никому не доставит
+    @Bean
+    public InvalidationBus invalidationBus(InvalidationProperties properties,
+                                           ObjectProvider<InvalidationTransport> transports,
+                                           List<InvalidationListener> listeners) {
+        InvalidationTransport transport = transports.getIfUnique();
+        if (properties.isEnabled() && transport == null) {
+            throw new IllegalStateException(
+                    "storage.invalidation.enabled requires an InvalidationTransport bean shared between instances");
+        }
+        return new InvalidationBus(properties, transport, listeners);
+    }
+}
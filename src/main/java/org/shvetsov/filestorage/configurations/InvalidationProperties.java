@@ -0,0 +1,22 @@
+package org.shvetsov.filestorage.configurations;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "storage.invalidation")
+public class InvalidationProperties {
+    // Рассылка записей и удалений другим экземплярам сервиса. Нужен бин InvalidationTransport между
+    // хостами; в сервисе его нет, поэтому без своего транспорта шина выключена
+    private boolean enabled = false;
+    // События копятся и схлопываются по ключу не дольше этого интервала
+    private Duration flushInterval = Duration.ofMillis(50);
+    // Пачка уходит сразу, как только в ней столько разных ключей
+    private int maxBatch = 256;
+}
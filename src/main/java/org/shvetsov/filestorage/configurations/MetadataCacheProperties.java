@@ -0,0 +1,21 @@
+package org.shvetsov.filestorage.configurations;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "storage.metadata-cache")
+public class MetadataCacheProperties {
+    private boolean enabled = true;
+    private Duration ttl = Duration.ofSeconds(10);
+    // Записи прогрева (CachePrewarmer) живут дольше, иначе истекли бы до первых запросов. Запись и удаление
+    // через этот экземпляр сбрасывают их сразу, изменения на других экземплярах видны через это время
+    private Duration prewarmedTtl = Duration.ofMinutes(5);
+    private int maxEntries = 50_000;
+}
@@ -1,70 +1,121 @@
 package org.shvetsov.filestorage.configurations;
 
-import io.minio.BucketExistsArgs;
-import io.minio.MakeBucketArgs;
+import io.minio.MinioAsyncClient;
 import io.minio.MinioClient;
-import jakarta.annotation.PostConstruct;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import okhttp3.OkHttpClient;
+import org.shvetsov.filestorage.services.MultipartClient;
+import org.shvetsov.filestorage.services.ReplicaRouter;
+import org.shvetsov.filestorage.services.ShardRouter;
+import org.shvetsov.filestorage.services.StorageShard;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 @Configuration
-@RequiredArgsConstructor
 @Slf4j
 public class MinioConfig {
     private final StorageProperties storageProperties;
+    // Общий пул соединений и диспетчер для всех клиентов MinIO
+    private final OkHttpClient httpClient;
 
+    public MinioConfig(StorageProperties storageProperties) {
+        this.storageProperties = storageProperties;
+        this.httpClient = buildHttpClient();
+    }
+
+    // Клиент создаётся без сетевых вызовов; бакеты проверяет BucketInitializer после старта.
+    // При шардировании это клиент первого шарда, а не верхнеуровневого эндпоинта
     @Bean
     public MinioClient minioClient() {
-        try {
-            // Создаем HTTP клиент с таймаутами
-            OkHttpClient httpClient = new OkHttpClient.Builder()
-                    .connectTimeout(storageProperties.getConnectTimeout(), TimeUnit.MILLISECONDS)
-                    .writeTimeout(storageProperties.getWriteTimeout(), TimeUnit.MILLISECONDS)
-                    .readTimeout(storageProperties.getReadTimeout(), TimeUnit.MILLISECONDS)
-                    .build();
-
-            // Создаем MinIO клиент
-            MinioClient client = MinioClient.builder()
-                    .endpoint(storageProperties.getEndpoint())
-                    .credentials(
-                            storageProperties.getAccessKey(),
-                            storageProperties.getSecretKey())
-                    .httpClient(httpClient)
-                    .build();
+        if (!storageProperties.getShards().isEmpty()) {
+            StorageProperties.Shard first = storageProperties.getShards().get(0);
+            return buildClient(first.getEndpoint(), accessKey(first), secretKey(first));
+        }
+        return buildClient(
+                storageProperties.getEndpoint(),
+                storageProperties.getAccessKey(),
+                storageProperties.getSecretKey());
+    }
 
-            // Проверяем и создаем бакет если нужно
-            initializeBucket(client);
+    @Bean
+    public ShardRouter shardRouter(MinioClient minioClient) {
+        List<StorageShard> shards = new ArrayList<>();
 
-            return client;
-        } catch (Exception e) {
-            log.error("Failed to initialize MinIO client", e);
-            throw new RuntimeException("MinIO initialization failed", e);
+        if (storageProperties.getShards().isEmpty()) {
+            shards.add(new StorageShard("default", storageProperties.getBucket(), minioClient,
+                    buildReadRouter(storageProperties.getEndpoint(), minioClient, storageProperties.getReplicas(),
+                            storageProperties.getAccessKey(), storageProperties.getSecretKey()),
+                    buildMultipartClient(storageProperties.getEndpoint(),
+                            storageProperties.getAccessKey(), storageProperties.getSecretKey())));
+        } else {
+            for (StorageProperties.Shard shard : storageProperties.getShards()) {
+                try {
+                    String accessKey = accessKey(shard);
+                    String secretKey = secretKey(shard);
+                    // Первый шард обслуживает тот же клиент, что и бин minioClient
+                    MinioClient client = shards.isEmpty() ? minioClient : buildClient(shard.getEndpoint(), accessKey, secretKey);
+                    shards.add(new StorageShard(shard.getName(), shard.getBucket(), client,
+                            buildReadRouter(shard.getEndpoint(), client, shard.getReplicas(), accessKey, secretKey),
+                            buildMultipartClient(shard.getEndpoint(), accessKey, secretKey)));
+                } catch (Exception e) {
+                    log.error("Failed to initialize storage shard: {}", shard.getName(), e);
+                    throw new RuntimeException("Storage shard initialization failed: " + shard.getName(), e);
+                }
+            }
+            log.info("Configured {} storage shards", shards.size());
         }
+
+        return new ShardRouter(shards, storageProperties.getVirtualNodes(), storageProperties.isShardFallbackLookup());
     }
 
-    private void initializeBucket(MinioClient client) {
-        try {
-            boolean bucketExists = client.bucketExists(BucketExistsArgs.builder()
-                    .bucket(storageProperties.getBucket())
-                    .build());
+    private String accessKey(StorageProperties.Shard shard) {
+        return shard.getAccessKey() != null ? shard.getAccessKey() : storageProperties.getAccessKey();
+    }
 
-            if (!bucketExists) {
-                log.warn("Bucket {} does not exist. Creating...", storageProperties.getBucket());
-                client.makeBucket(MakeBucketArgs.builder()
-                        .bucket(storageProperties.getBucket())
-                        .build());
-                log.info("Bucket {} created successfully", storageProperties.getBucket());
-            } else {
-                log.info("Bucket {} already exists", storageProperties.getBucket());
-            }
-        } catch (Exception e) {
-            log.error("Failed to initialize bucket: {}", storageProperties.getBucket(), e);
-            throw new RuntimeException("Bucket initialization failed", e);
+    private String secretKey(StorageProperties.Shard shard) {
+        return shard.getSecretKey() != null ? shard.getSecretKey() : storageProperties.getSecretKey();
+    }
+
+    // Основной эндпоинт и реплики с теми же учётными данными (site replication)
+    private ReplicaRouter buildReadRouter(String endpoint, MinioClient client, List<String> replicas,
+                                          String accessKey, String secretKey) {
+        List<ReplicaRouter.Endpoint> replicaEndpoints = new ArrayList<>();
+        for (String replica : replicas) {
+            replicaEndpoints.add(new ReplicaRouter.Endpoint(replica, buildClient(replica, accessKey, secretKey)));
+        }
+        if (!replicaEndpoints.isEmpty()) {
+            log.info("Reads for {} are balanced across {} replicas", endpoint, replicaEndpoints.size());
         }
+        return new ReplicaRouter(new ReplicaRouter.Endpoint(endpoint, client), replicaEndpoints,
+                storageProperties.getReplicaEwmaAlpha(), storageProperties.getReplicaFailureCooldown());
+    }
+
+    private MinioClient buildClient(String endpoint, String accessKey, String secretKey) {
+        return MinioClient.builder()
+                .endpoint(endpoint)
+                .credentials(accessKey, secretKey)
+                .httpClient(httpClient.newBuilder().build())
+                .build();
+    }
+
+    private MultipartClient buildMultipartClient(String endpoint, String accessKey, String secretKey) {
+        return new MultipartClient(MinioAsyncClient.builder()
+                .endpoint(endpoint)
+                .credentials(accessKey, secretKey)
+                .httpClient(httpClient.newBuilder().build())
+                .build());
+    }
+
+    // Создаем HTTP клиент с таймаутами
+    private OkHttpClient buildHttpClient() {
+        return new OkHttpClient.Builder()
+                .connectTimeout(storageProperties.getConnectTimeout(), TimeUnit.MILLISECONDS)
+                .writeTimeout(storageProperties.getWriteTimeout(), TimeUnit.MILLISECONDS)
+                .readTimeout(storageProperties.getReadTimeout(), TimeUnit.MILLISECONDS)
+                .build();
     }
 }
@@ -0,0 +1,24 @@
+package org.shvetsov.filestorage.configurations;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "storage.negative-cache")
+public class NegativeCacheProperties {
+    private boolean enabled = true;
+    private Duration ttl = Duration.ofSeconds(30);
+    private int maxEntries = 100_000;
+
+    // Bloom-фильтры по префиксу продукта, перестраиваются из listObjects
+    private boolean bloomEnabled = false;
+    private Duration bloomTtl = Duration.ofMinutes(5);
+    private int bloomExpectedInsertions = 64;
+    private double bloomFpp = 0.01;
+}
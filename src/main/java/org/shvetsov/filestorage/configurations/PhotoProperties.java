@@ -0,0 +1,28 @@
+package org.shvetsov.filestorage.configurations;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "api.photos")
+public class PhotoProperties {
+    private int maxPerProduct = 10;
+    private int maxFileSizeMb = 5;
+    // Размеры читаются из заголовка изображения во время загрузки
+    private int maxWidth = 10000;
+    private int maxHeight = 10000;
+    // Заглушки (размеры, цвет, blurhash) считаются при загрузке и хранятся в метаданных
+    private boolean placeholders = true;
+    private List<String> allowedContentTypes = new ArrayList<>(List.of("image/jpeg", "image/png", "image/webp"));
+
+    public long getMaxFileSizeBytes() {
+        return maxFileSizeMb * 1024L * 1024L;
+    }
+}
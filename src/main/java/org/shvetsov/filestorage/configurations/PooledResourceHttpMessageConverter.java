@@ -0,0 +1,38 @@
+package org.shvetsov.filestorage.configurations;
+
+import org.shvetsov.filestorage.services.BufferPool;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.ResourceHttpMessageConverter;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Выдача {@link Resource} через буферы из {@link BufferPool} вместо нового буфера на каждый ответ.
+ */
+public class PooledResourceHttpMessageConverter extends ResourceHttpMessageConverter {
+    private final BufferPool bufferPool;
+
+    public PooledResourceHttpMessageConverter(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    @Override
+    protected void writeContent(Resource resource, HttpOutputMessage outputMessage) throws IOException {
+        // Как и в базовом конвертере, отсутствующий ресурс даёт пустое тело
+        InputStream in;
+        try {
+            in = resource.getInputStream();
+        } catch (FileNotFoundException e) {
+            return;
+        }
+        try (in) {
+            OutputStream out = outputMessage.getBody();
+            bufferPool.copy(in, out);
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package org.shvetsov.filestorage.configurations;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "storage.resumable")
+public class ResumableUploadProperties {
+    // Куски копятся в локальном файле, пока не наберётся часть multipart-загрузки (S3 требует от 5MB);
+    // каталог у каждого экземпляра свой, запросы одной загрузки должны попадать на один экземпляр
+    private String directory = "./data/uploads";
+    private DataSize partSize = DataSize.ofMegabytes(8);
+    // Сессия без активности дольше expiry удаляется вместе с незавершённой multipart-загрузкой
+    private Duration expiry = Duration.ofHours(24);
+    private Duration cleanupInterval = Duration.ofMinutes(10);
+}
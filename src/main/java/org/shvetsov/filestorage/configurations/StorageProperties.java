@@ -5,6 +5,10 @@ import lombok.Setter;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
 @Getter
 @Setter
 @Component
@@ -17,4 +21,26 @@ public class StorageProperties {
     private int connectTimeout = 30_000; // 30 seconds
     private int writeTimeout = 30_000;   // 30 seconds
     private int readTimeout = 30_000;    // 30 seconds
+
+    // Шарды; если список пуст, единственный шард — endpoint/bucket выше
+    private List<Shard> shards = new ArrayList<>();
+    private int virtualNodes = 128;
+    private boolean shardFallbackLookup = false;
+
+    // Read-only реплики (site replication) для единственного шарда; у шардов — свои
+    private List<String> replicas = new ArrayList<>();
+    private double replicaEwmaAlpha = 0.3;
+    private Duration replicaFailureCooldown = Duration.ofSeconds(30);
+
+    @Getter
+    @Setter
+    public static class Shard {
+        private String name;
+        private String endpoint;
+        private String bucket;
+        // Если не заданы, используются accessKey/secretKey верхнего уровня
+        private String accessKey;
+        private String secretKey;
+        private List<String> replicas = new ArrayList<>();
+    }
 }
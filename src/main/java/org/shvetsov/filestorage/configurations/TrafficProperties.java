@@ -0,0 +1,54 @@
+package org.shvetsov.filestorage.configurations;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "storage.traffic")
+public class TrafficProperties {
+    // Выключен — передачи идут без очереди и лимитов
+    private boolean enabled = false;
+    // Одновременные передачи в MinIO на все классы; свободные слоты делятся по весам.
+    // Слот чтения держится до конца отдачи тела, поэтому запас нужен и на медленных клиентов
+    private int maxConcurrent = 1024;
+    // Сколько передача может ждать слота, прежде чем получить 503
+    private Duration queueTimeout = Duration.ofSeconds(30);
+    // Клиент определяется по этому заголовку, без него — по адресу
+    private String clientHeader = "X-Api-Key";
+    // Лимит полосы на одного клиента в секунду; 0 — без лимита
+    private DataSize clientBandwidth = DataSize.ofBytes(0);
+    // Веса клиентов внутри класса; по умолчанию 1
+    private Map<String, Double> clientWeights = new HashMap<>();
+    // Чтения для просмотра и скачивания
+    private ClassLimits interactive = new ClassLimits(4, 1024, DataSize.ofBytes(0));
+    // Загрузки
+    private ClassLimits bulk = new ClassLimits(1, 256, DataSize.ofMegabytes(64));
+
+    @Getter
+    @Setter
+    public static class ClassLimits {
+        private double weight;
+        private int maxConcurrent;
+        // Полоса на весь класс в секунду; 0 — без лимита
+        private DataSize bandwidth;
+
+        public ClassLimits() {
+            this(1, 16, DataSize.ofBytes(0));
+        }
+
+        public ClassLimits(double weight, int maxConcurrent, DataSize bandwidth) {
+            this.weight = weight;
+            this.maxConcurrent = maxConcurrent;
+            this.bandwidth = bandwidth;
+        }
+    }
+}
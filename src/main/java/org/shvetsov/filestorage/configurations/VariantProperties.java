@@ -0,0 +1,27 @@
+package org.shvetsov.filestorage.configurations;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "storage.variants")
+public class VariantProperties {
+    // Перекодирование фото под Accept клиента; варианты хранятся в бакете рядом с оригиналами
+    private boolean enabled = false;
+    // От самого компактного к наименее компактному. В JDK есть кодировщики только JPEG и PNG:
+    // для AVIF и WebP нужен ImageIO-плагин в classpath, иначе сервис не стартует
+    private List<String> formats = new ArrayList<>(List.of("image/avif", "image/webp", "image/jpeg", "image/png"));
+    private float jpegQuality = 0.82f;
+    // Больше не декодируем: изображение целиком держится в памяти
+    private long maxPixels = 24_000_000;
+    private int parallelism = 2;
+    // Сверх этого ожидающие перекодирования отбрасываются и будут запрошены снова
+    private int queueCapacity = 256;
+}
@@ -0,0 +1,33 @@
+package org.shvetsov.filestorage.configurations;
+
+import org.shvetsov.filestorage.services.BufferPool;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.ResourceHttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.List;
+
+@Configuration
+public class WebConfig implements WebMvcConfigurer {
+    private final ObjectProvider<BufferPool> bufferPool;
+
+    public WebConfig(ObjectProvider<BufferPool> bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    // Стандартный конвертер Resource заменяется на копирующий через пул буферов
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        BufferPool pool = bufferPool.getIfAvailable();
+        if (pool == null) {
+            return;
+        }
+        for (int i = 0; i < converters.size(); i++) {
+            if (converters.get(i).getClass() == ResourceHttpMessageConverter.class) {
+                converters.set(i, new PooledResourceHttpMessageConverter(pool));
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package org.shvetsov.filestorage.configurations;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "storage.write-behind")
+public class WriteBehindProperties {
+    // Загрузка подтверждается после fsync в локальный журнал, в MinIO уходит в фоне
+    private boolean enabled = false;
+    private String directory = "./data/write-behind";
+    private Duration flushInterval = Duration.ofMillis(200);
+    private int batchSize = 16;
+    private Duration retryBackoff = Duration.ofSeconds(1);
+    private Duration maxRetryBackoff = Duration.ofMinutes(1);
+    // Журнал сжимается, когда он больше порога, а невыгруженные записи занимают не больше его половины
+    private DataSize compactThreshold = DataSize.ofMegabytes(256);
+}
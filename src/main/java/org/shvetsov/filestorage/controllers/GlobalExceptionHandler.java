@@ -1,7 +1,11 @@
 package org.shvetsov.filestorage.controllers;
 
+import jakarta.validation.ValidationException;
 import lombok.extern.slf4j.Slf4j;
+import org.shvetsov.filestorage.services.ResumableUploadService;
+import org.shvetsov.filestorage.services.TransferScheduler;
 import org.shvetsov.storage.StorageException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
@@ -19,6 +23,28 @@ public class GlobalExceptionHandler {
         return ResponseEntity.status(HttpStatus.NOT_FOUND).body(ex.getMessage());
     }
 
+    @ExceptionHandler(ValidationException.class)
+    public ResponseEntity<String> handleValidationException(ValidationException ex) {
+        log.warn("Validation failed: {}", ex.getMessage());
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(ex.getMessage());
+    }
+
+    @ExceptionHandler(ResumableUploadService.OffsetConflictException.class)
+    public ResponseEntity<String> handleOffsetConflict(ResumableUploadService.OffsetConflictException ex) {
+        log.warn("Upload offset conflict: {}", ex.getMessage());
+        return ResponseEntity.status(HttpStatus.CONFLICT)
+                .header(ResumableUploadController.UPLOAD_OFFSET, String.valueOf(ex.getOffset()))
+                .body(ex.getMessage());
+    }
+
+    @ExceptionHandler(TransferScheduler.BusyException.class)
+    public ResponseEntity<String> handleBusy(TransferScheduler.BusyException ex) {
+        log.warn("Transfer rejected: {}", ex.getMessage());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body(ex.getMessage());
+    }
+
     @ExceptionHandler(StorageException.class)
     public ResponseEntity<String> handleStorageException(StorageException ex) {
         log.error("Storage error: {}", ex.getMessage(), ex);
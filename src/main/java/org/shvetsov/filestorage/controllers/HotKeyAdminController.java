@@ -0,0 +1,29 @@
+package org.shvetsov.filestorage.controllers;
+
+import jakarta.validation.ValidationException;
+import lombok.RequiredArgsConstructor;
+import org.shvetsov.filestorage.dto.HotKey;
+import org.shvetsov.filestorage.services.HotKeyTracker;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("admin/hot-keys")
+@RequiredArgsConstructor
+public class HotKeyAdminController {
+    private static final int MAX_LIMIT = 1000;
+
+    private final HotKeyTracker hotKeyTracker;
+
+    // Самые читаемые пути этого экземпляра с оценкой числа чтений и отданных байт
+    @GetMapping
+    public ResponseEntity<List<HotKey>> getHotKeys(
+            @RequestParam(value = "limit", defaultValue = "20") int limit) {
+        if (limit < 1 || limit > MAX_LIMIT) {
+            throw new ValidationException("limit must be between 1 and " + MAX_LIMIT);
+        }
+        return ResponseEntity.ok(hotKeyTracker.top(limit));
+    }
+}
@@ -0,0 +1,53 @@
+package org.shvetsov.filestorage.controllers;
+
+import lombok.RequiredArgsConstructor;
+import org.shvetsov.filestorage.services.ArchiveService;
+import org.shvetsov.filestorage.services.TransferScheduler;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("files")
+@RequiredArgsConstructor
+public class ProductArchiveController {
+    private static final MediaType APPLICATION_ZIP = MediaType.parseMediaType("application/zip");
+
+    private final ArchiveService archiveService;
+    private final TransferScheduler transferScheduler;
+
+    // ZIP всех файлов по префиксу (например, всех фото продукта)
+    @GetMapping("/archive")
+    public ResponseEntity<StreamingResponseBody> downloadArchive(@RequestParam("prefix") String prefix) {
+        List<String> paths = archiveService.resolvePrefix(prefix);
+        return archiveResponse(paths, archiveName(prefix));
+    }
+
+    // ZIP по явному списку путей
+    @PostMapping(value = "/archive", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> downloadArchive(@RequestBody List<String> paths) {
+        return archiveResponse(archiveService.resolvePaths(paths), "files.zip");
+    }
+
+    private ResponseEntity<StreamingResponseBody> archiveResponse(List<String> paths, String fileName) {
+        // Тело пишется в другом потоке, где запроса уже нет: клиента запоминаем здесь
+        String client = transferScheduler.currentClient();
+        StreamingResponseBody body = outputStream -> archiveService.writeArchive(paths, client, outputStream);
+
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        "attachment; filename=\"" + fileName + "\"")
+                .contentType(APPLICATION_ZIP)
+                .body(body);
+    }
+
+    private String archiveName(String prefix) {
+        String name = prefix.replaceAll("/+$", "");
+        name = name.substring(name.lastIndexOf('/') + 1);
+        return (name.isEmpty() ? "files" : name) + ".zip";
+    }
+}
@@ -2,7 +2,13 @@ package org.shvetsov.filestorage.controllers;
 
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
+import org.shvetsov.filestorage.dto.FileInfoBatchItem;
+import org.shvetsov.filestorage.dto.ImagePlaceholder;
+import org.shvetsov.filestorage.dto.PhotoSummary;
+import org.shvetsov.filestorage.dto.PhotoUpload;
+import org.shvetsov.filestorage.dto.PhotoVariant;
 import org.shvetsov.filestorage.services.FileService;
+import org.shvetsov.filestorage.services.ImageVariantService;
 import org.shvetsov.requestApi.ProductPhotoRQ;
 import org.shvetsov.requestApi.ProductPhotoRS;
 import org.shvetsov.requestApi.UploadFileRQ;
@@ -10,9 +16,12 @@ import org.shvetsov.responseApi.FileInfoResponse;
 import org.shvetsov.responseApi.FileResponse;
 import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.FileNotFoundException;
@@ -24,11 +33,21 @@ import java.util.UUID;
 @RequestMapping("files")
 @RequiredArgsConstructor
 public class ProductFileController {
+    static final String IMAGE_WIDTH = "Image-Width";
+    static final String IMAGE_HEIGHT = "Image-Height";
+    static final String IMAGE_DOMINANT_COLOR = "Image-Dominant-Color";
+    static final String IMAGE_BLURHASH = "Image-Blurhash";
+
     private final FileService fileService;
 
     @PostMapping(value = "/upload", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-    public ProductPhotoRS uploadFile(@RequestParam UUID productId, @RequestParam UUID fileId, @RequestPart MultipartFile file) {
-        return fileService.uploadProductPhoto(productId, fileId, file);
+    public ResponseEntity<ProductPhotoRS> uploadFile(@RequestParam UUID productId, @RequestParam UUID fileId, @RequestPart MultipartFile file) {
+        PhotoUpload upload = fileService.storeProductPhoto(productId, fileId, file);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (upload.sha256() != null) {
+            response.eTag(upload.sha256());
+        }
+        return response.body(upload.photo());
     }
 
     @DeleteMapping("/delete")
@@ -36,12 +55,24 @@ public class ProductFileController {
         fileService.deleteProductPhoto(path);
     }
 
-    // 2. Просмотр файла
+    // 2. Просмотр файла; формат выбирается по Accept из оригинала и его перекодированных вариантов
     @GetMapping("/view")
-    public ResponseEntity<Resource> viewFile(@RequestParam("path") String path) throws FileNotFoundException {
-        FileResponse response = fileService.getFile(path);
+    public ResponseEntity<Resource> viewFile(@RequestParam("path") String path, WebRequest request) throws FileNotFoundException {
+        PhotoVariant variant = fileService.resolveVariant(path, acceptedTypes(request));
+        String format = variant != null ? variant.format() : null;
+        String checksum = fileService.getChecksum(path);
+        String tag = representationTag(checksum, format);
+        if (tag != null && request.checkNotModified(tag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(tag).varyBy(HttpHeaders.ACCEPT).build();
+        }
+        FileResponse response = fileService.getFile(path, variant);
+        if (format != null && !format.equals(response.getContentType())) {
+            // Вариант пропал между запросами — отдан оригинал
+            tag = checksum;
+        }
 
-        return ResponseEntity.ok()
+        return withETag(ResponseEntity.ok(), tag)
+                .varyBy(HttpHeaders.ACCEPT)
                 .header(HttpHeaders.CONTENT_DISPOSITION,
                         "inline; filename=\"" + response.getFileName() + "\"")
                 .header(HttpHeaders.CONTENT_TYPE, response.getContentType())
@@ -51,10 +82,14 @@ public class ProductFileController {
 
     // 3. Скачивание файла
     @GetMapping("/download")
-    public ResponseEntity<Resource> downloadFile(@RequestParam("path") String path) throws FileNotFoundException {
+    public ResponseEntity<Resource> downloadFile(@RequestParam("path") String path, WebRequest request) throws FileNotFoundException {
+        String checksum = fileService.getChecksum(path);
+        if (checksum != null && request.checkNotModified(checksum)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(checksum).build();
+        }
         FileResponse response = fileService.downloadFile(path);
 
-        return ResponseEntity.ok()
+        return withETag(ResponseEntity.ok(), checksum)
                 .header(HttpHeaders.CONTENT_DISPOSITION,
                         "attachment; filename=\"" + response.getFileName() + "\"")
                 .header(HttpHeaders.CONTENT_TYPE, response.getContentType())
@@ -66,7 +101,20 @@ public class ProductFileController {
     @GetMapping("/info")
     public ResponseEntity<FileInfoResponse> getFileInfo(@RequestParam("path") String path) throws FileNotFoundException {
         FileInfoResponse response = fileService.getFileInfo(path);
-        return ResponseEntity.ok(response);
+        ResponseEntity.BodyBuilder builder = withETag(ResponseEntity.ok(), fileService.getChecksum(path));
+        return withPlaceholder(builder, fileService.getPlaceholder(path)).body(response);
+    }
+
+    // 4.1. Информация о нескольких файлах одним запросом
+    @PostMapping(value = "/info/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<List<FileInfoBatchItem>> getFileInfoBatch(@RequestBody List<String> paths) {
+        return ResponseEntity.ok(fileService.getFileInfoBatch(paths));
+    }
+
+    // 4.2. Фото продукта
+    @GetMapping("/products/{productId}")
+    public ResponseEntity<List<PhotoSummary>> listProductPhotos(@PathVariable UUID productId) {
+        return ResponseEntity.ok(fileService.listProductPhotos(productId));
     }
 
 /*    // 5. Список файлов в директории
@@ -92,4 +140,41 @@ public class ProductFileController {
         boolean exists = fileService.fileExists(path);
         return ResponseEntity.ok(Map.of("exists", exists));
     }
+
+    // FileInfoResponse из общего контракта, поэтому заглушка передаётся заголовками
+    private static ResponseEntity.BodyBuilder withPlaceholder(ResponseEntity.BodyBuilder builder, ImagePlaceholder placeholder) {
+        if (placeholder == null) {
+            return builder;
+        }
+        return builder
+                .header(IMAGE_WIDTH, String.valueOf(placeholder.width()))
+                .header(IMAGE_HEIGHT, String.valueOf(placeholder.height()))
+                .header(IMAGE_DOMINANT_COLOR, placeholder.dominantColor())
+                .header(IMAGE_BLURHASH, placeholder.blurhash());
+    }
+
+    private static List<MediaType> acceptedTypes(WebRequest request) {
+        String accept = request.getHeader(HttpHeaders.ACCEPT);
+        if (accept == null || accept.isBlank()) {
+            return List.of();
+        }
+        try {
+            return MediaType.parseMediaTypes(accept);
+        } catch (InvalidMediaTypeException e) {
+            return List.of();
+        }
+    }
+
+    // У каждого представления свой сильный ETag: сумма оригинала плюс формат варианта
+    private static String representationTag(String checksum, String format) {
+        if (checksum == null || format == null) {
+            return checksum;
+        }
+        return checksum + "." + ImageVariantService.extensionOf(format);
+    }
+
+    // SHA-256 содержимого как сильный ETag
+    private static ResponseEntity.BodyBuilder withETag(ResponseEntity.BodyBuilder builder, String checksum) {
+        return checksum != null ? builder.eTag(checksum) : builder;
+    }
 }
@@ -0,0 +1,73 @@
+package org.shvetsov.filestorage.controllers;
+
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import org.shvetsov.filestorage.dto.PhotoUpload;
+import org.shvetsov.filestorage.dto.ResumableUpload;
+import org.shvetsov.filestorage.services.FileService;
+import org.shvetsov.filestorage.services.ResumableUploadService;
+import org.shvetsov.requestApi.ProductPhotoRS;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.FileNotFoundException;
+import java.net.URI;
+import java.util.UUID;
+
+// Возобновляемая загрузка: POST создаёт сессию, HEAD возвращает смещение, PATCH дописывает кусок
+@RestController
+@RequestMapping("files/uploads")
+@RequiredArgsConstructor
+public class ResumableUploadController {
+    static final String UPLOAD_OFFSET = "Upload-Offset";
+    static final String UPLOAD_LENGTH = "Upload-Length";
+    private static final String OFFSET_OCTET_STREAM = "application/offset+octet-stream";
+
+    private final FileService fileService;
+    private final ResumableUploadService resumableUploadService;
+
+    @PostMapping
+    public ResponseEntity<ResumableUpload> create(@RequestParam UUID productId,
+                                                  @RequestParam UUID fileId,
+                                                  @RequestParam String fileName,
+                                                  @RequestParam String contentType,
+                                                  @RequestHeader(UPLOAD_LENGTH) long length) {
+        ResumableUpload upload = fileService.startResumableUpload(productId, fileId, fileName, contentType, length);
+        return ResponseEntity.created(URI.create("/files/uploads/" + upload.id()))
+                .header(UPLOAD_OFFSET, String.valueOf(upload.offset()))
+                .body(upload);
+    }
+
+    @RequestMapping(value = "/{id}", method = RequestMethod.HEAD)
+    public ResponseEntity<Void> offset(@PathVariable String id) throws FileNotFoundException {
+        ResumableUpload upload = resumableUploadService.get(id);
+        return ResponseEntity.ok()
+                .header(UPLOAD_OFFSET, String.valueOf(upload.offset()))
+                .header(UPLOAD_LENGTH, String.valueOf(upload.length()))
+                .header(HttpHeaders.CACHE_CONTROL, "no-store")
+                .build();
+    }
+
+    @PatchMapping(value = "/{id}", consumes = OFFSET_OCTET_STREAM)
+    public ResponseEntity<Void> append(@PathVariable String id,
+                                       @RequestHeader(UPLOAD_OFFSET) long offset,
+                                       HttpServletRequest request) throws Exception {
+        ResumableUpload upload = resumableUploadService.append(id, offset, request.getInputStream());
+        return ResponseEntity.noContent()
+                .header(UPLOAD_OFFSET, String.valueOf(upload.offset()))
+                .build();
+    }
+
+    @PostMapping("/{id}/complete")
+    public ResponseEntity<ProductPhotoRS> complete(@PathVariable String id) throws FileNotFoundException {
+        PhotoUpload upload = fileService.completeResumableUpload(id);
+        return ResponseEntity.ok(upload.photo());
+    }
+
+    @DeleteMapping("/{id}")
+    public ResponseEntity<Void> abort(@PathVariable String id) throws Exception {
+        resumableUploadService.abort(id);
+        return ResponseEntity.noContent().build();
+    }
+}
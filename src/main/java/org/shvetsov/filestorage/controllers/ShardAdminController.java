@@ -0,0 +1,38 @@
+package org.shvetsov.filestorage.controllers;
+
+import lombok.RequiredArgsConstructor;
+import org.shvetsov.filestorage.dto.RebalanceReport;
+import org.shvetsov.filestorage.services.ShardRebalancer;
+import org.shvetsov.filestorage.services.ShardRouter;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("admin/shards")
+@RequiredArgsConstructor
+public class ShardAdminController {
+    private final ShardRouter shardRouter;
+    private final ShardRebalancer shardRebalancer;
+
+    @GetMapping
+    public ResponseEntity<List<Map<String, String>>> listShards() {
+        return ResponseEntity.ok(shardRouter.shards().stream()
+                .map(shard -> Map.of("name", shard.name(), "bucket", shard.bucket()))
+                .toList());
+    }
+
+    @PostMapping("/rebalance")
+    public ResponseEntity<RebalanceReport> startRebalance(
+            @RequestParam(value = "dryRun", defaultValue = "true") boolean dryRun) {
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(shardRebalancer.start(dryRun));
+    }
+
+    @GetMapping("/rebalance")
+    public ResponseEntity<RebalanceReport> getRebalanceStatus() {
+        return ResponseEntity.ok(shardRebalancer.report());
+    }
+}
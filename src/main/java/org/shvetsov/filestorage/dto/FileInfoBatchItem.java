@@ -0,0 +1,21 @@
+package org.shvetsov.filestorage.dto;
+
+import org.shvetsov.responseApi.FileInfoResponse;
+
+/**
+ * Результат пакетного запроса информации для одного пути; {@code info} пуст, если файла нет.
+ */
+public record FileInfoBatchItem(String path, boolean found, FileInfoResponse info, ImagePlaceholder placeholder) {
+
+    public static FileInfoBatchItem found(FileInfoResponse info) {
+        return found(info, null);
+    }
+
+    public static FileInfoBatchItem found(FileInfoResponse info, ImagePlaceholder placeholder) {
+        return new FileInfoBatchItem(info.getPath(), true, info, placeholder);
+    }
+
+    public static FileInfoBatchItem notFound(String path) {
+        return new FileInfoBatchItem(path, false, null, null);
+    }
+}
@@ -0,0 +1,8 @@
+package org.shvetsov.filestorage.dto;
+
+/**
+ * Горячий путь по оценке count-min sketch: число чтений и отданных байт с учётом затухания.
+ * Оценки могут быть завышены, но не занижены.
+ */
+public record HotKey(String path, long hits, long bytes) {
+}
@@ -0,0 +1,8 @@
+package org.shvetsov.filestorage.dto;
+
+/**
+ * Данные для отрисовки места под фото до загрузки самого изображения:
+ * размеры в пикселях, преобладающий цвет ({@code #rrggbb}) и blurhash.
+ */
+public record ImagePlaceholder(int width, int height, String dominantColor, String blurhash) {
+}
@@ -0,0 +1,12 @@
+package org.shvetsov.filestorage.dto;
+
+/**
+ * Краткие сведения о фото продукта из индекса, без обращения к хранилищу.
+ * {@code placeholder} пуст для фото, загруженных до появления заглушек, и для форматов без декодера.
+ */
+public record PhotoSummary(String path, long size, String contentType, String etag, ImagePlaceholder placeholder) {
+
+    public PhotoSummary(String path, long size, String contentType, String etag) {
+        this(path, size, contentType, etag, null);
+    }
+}
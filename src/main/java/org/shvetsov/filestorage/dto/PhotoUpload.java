@@ -0,0 +1,9 @@
+package org.shvetsov.filestorage.dto;
+
+import org.shvetsov.requestApi.ProductPhotoRS;
+
+/**
+ * Загруженное фото вместе с SHA-256 его содержимого, которое отдаётся клиенту как ETag.
+ */
+public record PhotoUpload(ProductPhotoRS photo, String sha256) {
+}
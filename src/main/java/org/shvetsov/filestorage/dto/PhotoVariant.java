@@ -0,0 +1,7 @@
+package org.shvetsov.filestorage.dto;
+
+/**
+ * Выбранный по Accept вариант фото: формат и ключ готового объекта в бакете.
+ */
+public record PhotoVariant(String format, String key) {
+}
@@ -0,0 +1,19 @@
+package org.shvetsov.filestorage.dto;
+
+import java.time.Instant;
+
+/**
+ * Состояние ребалансировки шардов: сколько объектов просмотрено, сколько лежит не в своём шарде и перенесено.
+ * {@code skipped} — объекты, которые удалили или изменили во время переноса; они остались в исходном шарде.
+ */
+public record RebalanceReport(
+        boolean running,
+        boolean dryRun,
+        long scanned,
+        long misplaced,
+        long moved,
+        long skipped,
+        long failed,
+        Instant startedAt,
+        Instant finishedAt) {
+}
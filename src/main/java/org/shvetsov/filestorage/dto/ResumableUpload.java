@@ -0,0 +1,9 @@
+package org.shvetsov.filestorage.dto;
+
+import java.time.Instant;
+
+/**
+ * Состояние возобновляемой загрузки: сколько байт уже принято и до какого момента сессия живёт.
+ */
+public record ResumableUpload(String id, String path, long length, long offset, Instant expiresAt) {
+}
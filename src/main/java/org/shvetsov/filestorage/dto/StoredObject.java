@@ -0,0 +1,7 @@
+package org.shvetsov.filestorage.dto;
+
+/**
+ * Результат записи объекта: etag хранилища и SHA-256 тела (null, если контрольные суммы выключены).
+ */
+public record StoredObject(String objectName, String etag, String sha256) {
+}
@@ -0,0 +1,284 @@
+package org.shvetsov.filestorage.services;
+
+import io.minio.StatObjectResponse;
+import jakarta.annotation.PreDestroy;
+import jakarta.validation.ValidationException;
+import lombok.extern.slf4j.Slf4j;
+import org.shvetsov.filestorage.configurations.ArchiveProperties;
+import org.shvetsov.storage.StorageException;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Потоковая сборка ZIP-архива из объектов хранилища прямо в выходной поток ответа.
+ * <p>
+ * Следующие {@code lookahead} объектов загружаются параллельно, пока пишется текущий.
+ * Уже сжатые изображения пишутся как STORED-записи; объекты крупнее {@code prefetchMaxSize}
+ * не буферизуются и копируются потоком по очереди.
+ * <p>
+ * Все чтения идут классом BULK от имени клиента, запросившего архив. Предзагруженные тела всех
+ * архивов вместе занимают не больше {@code prefetch-memory-budget}: объект, которому не хватило
+ * бюджета, копируется потоком, как крупный. Пути, которых не оказалось в хранилище, перечисляются
+ * в последней записи архива {@value #MISSING_ENTRY}.
+ */
+@Slf4j
+@Service
+public class ArchiveService {
+    public static final String MISSING_ENTRY = "MISSING.txt";
+    private static final int BUDGET_UNIT = 1024;
+
+    private final StorageService storageService;
+    private final ArchiveProperties properties;
+    private final ExecutorService prefetchExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    // Общий бюджет памяти предзагрузки в килобайтах
+    private final Semaphore prefetchBudget;
+
+    public ArchiveService(StorageService storageService, ArchiveProperties properties) {
+        this.storageService = storageService;
+        this.properties = properties;
+        this.prefetchBudget = new Semaphore((int) Math.min(Integer.MAX_VALUE,
+                properties.getPrefetchMemoryBudget().toBytes() / BUDGET_UNIT));
+    }
+
+    // Пути всех файлов продукта (или произвольной «папки»)
+    public List<String> resolvePrefix(String prefix) {
+        String directory = prefix.endsWith("/") ? prefix : prefix + "/";
+        try {
+            List<String> paths = new ArrayList<>();
+            for (String path : storageService.listFiles(directory)) {
+                if (!path.endsWith("/")) {
+                    paths.add(path);
+                }
+            }
+            return checkLimit(paths);
+        } catch (ValidationException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("Failed to list files for archive: {}", prefix, e);
+            throw new StorageException("Failed to list files for archive");
+        }
+    }
+
+    public List<String> resolvePaths(Collection<String> paths) {
+        return checkLimit(new ArrayList<>(new LinkedHashSet<>(paths)));
+    }
+
+    /**
+     * @param client клиент, запросивший архив; запись идёт вне потока запроса, поэтому он передаётся явно
+     */
+    public void writeArchive(List<String> paths, String client, OutputStream outputStream) throws IOException {
+        Deque<Future<PrefetchedEntry>> window = new ArrayDeque<>();
+        List<String> missing = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        try (ZipOutputStream zip = new ZipOutputStream(outputStream); Reservation reservation = new Reservation()) {
+            Iterator<String> pending = paths.iterator();
+            int lookahead = Math.max(1, properties.getLookahead());
+
+            while (window.size() < lookahead && pending.hasNext()) {
+                window.add(prefetch(pending.next(), client, reservation));
+            }
+            try {
+                while (!window.isEmpty()) {
+                    PrefetchedEntry entry = await(window.poll());
+                    if (pending.hasNext()) {
+                        window.add(prefetch(pending.next(), client, reservation));
+                    }
+                    if (entry.missing()) {
+                        missing.add(entry.path());
+                        continue;
+                    }
+                    try {
+                        writeEntry(zip, entry, uniqueName(entry.path(), names), client);
+                    } finally {
+                        reservation.release(entry.reserved());
+                    }
+                }
+            } finally {
+                // Отменённые задачи могли успеть занять бюджет — его вернёт закрытие reservation
+                window.forEach(future -> future.cancel(true));
+            }
+            if (!missing.isEmpty()) {
+                writeMissing(zip, missing, names);
+            }
+            zip.finish();
+        } catch (IOException e) {
+            log.warn("Archive streaming aborted: {}", e.getMessage());
+            throw e;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        prefetchExecutor.shutdownNow();
+    }
+
+    private Future<PrefetchedEntry> prefetch(String path, String client, Reservation reservation) {
+        return prefetchExecutor.submit(() -> {
+            if (!storageService.fileExists(path)) {
+                log.warn("Missing file in archive: {}", path);
+                return PrefetchedEntry.missing(path);
+            }
+            StatObjectResponse metadata = storageService.getFileMetadata(path);
+            boolean stored = isAlreadyCompressed(metadata.contentType());
+            int units = (int) ((metadata.size() + BUDGET_UNIT - 1) / BUDGET_UNIT);
+            if (metadata.size() > properties.getPrefetchMaxSize().toBytes() || !reservation.tryReserve(units)) {
+                return new PrefetchedEntry(path, metadata.size(), stored, null, 0, 0, false);
+            }
+
+            try {
+                byte[] content = storageService.getFileBytes(path, TrafficClass.BULK, client);
+                CRC32 crc = new CRC32();
+                crc.update(content);
+                return new PrefetchedEntry(path, content.length, stored, content, crc.getValue(), units, false);
+            } catch (Exception e) {
+                reservation.release(units);
+                throw e;
+            }
+        });
+    }
+
+    private void writeEntry(ZipOutputStream zip, PrefetchedEntry entry, String name, String client) throws IOException {
+        ZipEntry zipEntry = new ZipEntry(name);
+
+        if (entry.content() != null) {
+            if (entry.stored()) {
+                zipEntry.setMethod(ZipEntry.STORED);
+                zipEntry.setSize(entry.size());
+                zipEntry.setCompressedSize(entry.size());
+                zipEntry.setCrc(entry.crc());
+            }
+            zip.putNextEntry(zipEntry);
+            zip.write(entry.content());
+            zip.closeEntry();
+            return;
+        }
+
+        // STORED требует CRC заранее, поэтому крупные объекты идут DEFLATED без сжатия
+        zip.setLevel(entry.stored() ? Deflater.NO_COMPRESSION : Deflater.DEFAULT_COMPRESSION);
+        zip.putNextEntry(zipEntry);
+        try (InputStream stream = storageService.getFileAsStream(entry.path(), TrafficClass.BULK, client)) {
+            stream.transferTo(zip);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Failed to read " + entry.path(), e);
+        }
+        zip.closeEntry();
+        zip.setLevel(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    private void writeMissing(ZipOutputStream zip, List<String> missing, Set<String> names) throws IOException {
+        StringBuilder content = new StringBuilder();
+        missing.forEach(path -> content.append(path).append('\n'));
+        zip.putNextEntry(new ZipEntry(uniqueName(MISSING_ENTRY, names)));
+        zip.write(content.toString().getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+    }
+
+    // Имя записи без абсолютного пути и выходов за пределы архива; совпавшие имена получают суффикс
+    private static String entryName(String path) {
+        StringJoiner name = new StringJoiner("/");
+        for (String segment : path.replace('\\', '/').split("/")) {
+            if (!segment.isEmpty() && !segment.equals(".") && !segment.equals("..")) {
+                name.add(segment);
+            }
+        }
+        return name.length() == 0 ? "file" : name.toString();
+    }
+
+    private static String uniqueName(String path, Set<String> names) {
+        String name = entryName(path);
+        String candidate = name;
+        for (int i = 1; !names.add(candidate); i++) {
+            candidate = name + "." + i;
+        }
+        return candidate;
+    }
+
+    private PrefetchedEntry await(Future<PrefetchedEntry> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Archive streaming interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to fetch archive entry", e.getCause());
+        }
+    }
+
+    private boolean isAlreadyCompressed(String contentType) {
+        return contentType != null && properties.getStoredContentTypes().contains(contentType);
+    }
+
+    private List<String> checkLimit(List<String> paths) {
+        if (paths.size() > properties.getMaxEntries()) {
+            throw new ValidationException("Too many files for one archive: " + paths.size());
+        }
+        return paths;
+    }
+
+    private record PrefetchedEntry(String path, long size, boolean stored, byte[] content, long crc,
+                                   int reserved, boolean missing) {
+        static PrefetchedEntry missing(String path) {
+            return new PrefetchedEntry(path, 0, false, null, 0, 0, true);
+        }
+    }
+
+    // Доля общего бюджета, занятая одним архивом; закрытие возвращает всё, что осталось занятым
+    private final class Reservation implements AutoCloseable {
+        private final AtomicInteger held = new AtomicInteger();
+        private volatile boolean closed;
+
+        boolean tryReserve(int units) {
+            if (closed || !prefetchBudget.tryAcquire(units)) {
+                return false;
+            }
+            held.addAndGet(units);
+            if (closed) {
+                // Архив уже закрыт: отменённая задача не должна унести бюджет с собой
+                release(units);
+                return false;
+            }
+            return true;
+        }
+
+        // Возвращает не больше, чем занято: задача, отменённая после close, не вернёт бюджет дважды
+        void release(int units) {
+            int previous = held.getAndUpdate(current -> current - Math.min(current, units));
+            int released = Math.min(previous, units);
+            if (released > 0) {
+                prefetchBudget.release(released);
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            release(Integer.MAX_VALUE);
+        }
+    }
+}
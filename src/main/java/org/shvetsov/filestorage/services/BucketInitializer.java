@@ -0,0 +1,117 @@
+package org.shvetsov.filestorage.services;
+
+import io.minio.BucketExistsArgs;
+import io.minio.MakeBucketArgs;
+import lombok.extern.slf4j.Slf4j;
+import org.shvetsov.filestorage.configurations.BucketInitProperties;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Проверка и создание бакетов шардов вне критического пути старта.
+ * <p>
+ * Клиенты MinIO создаются без сетевых вызовов, а бакеты проверяются в фоне после старта
+ * с повторами и растущей паузой. Пока хотя бы один бакет не проверен, индикатор {@code buckets}
+ * отвечает OUT_OF_SERVICE, и readiness-проба не пускает трафик; liveness от MinIO не зависит.
+ */
+@Slf4j
+@Component("buckets")
+public class BucketInitializer implements HealthIndicator {
+    private final ShardRouter shardRouter;
+    private final BucketInitProperties properties;
+    private final ApplicationEventPublisher events;
+    // Шарды с непроверенным бакетом и последняя ошибка по каждому
+    private final Map<String, String> pending = new ConcurrentHashMap<>();
+    private volatile boolean ready;
+
+    public BucketInitializer(ShardRouter shardRouter, BucketInitProperties properties, ApplicationEventPublisher events) {
+        this.shardRouter = shardRouter;
+        this.properties = properties;
+        this.events = events;
+        for (StorageShard shard : shardRouter.shards()) {
+            pending.put(shard.name(), "not checked yet");
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void initializeOnStartup() {
+        Thread.ofVirtual().name("bucket-init").start(() -> {
+            try {
+                initialize();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    // Повторяет проверку, пока все бакеты не будут на месте
+    public void initialize() throws InterruptedException {
+        long startedAt = System.nanoTime();
+        Duration backoff = properties.getRetryBackoff();
+        while (!tryInitialize()) {
+            log.warn("Buckets not ready yet: {}; retrying in {} ms", pending, backoff.toMillis());
+            Thread.sleep(backoff.toMillis());
+            backoff = backoff.multipliedBy(2);
+            if (backoff.compareTo(properties.getMaxRetryBackoff()) > 0) {
+                backoff = properties.getMaxRetryBackoff();
+            }
+        }
+        long elapsedMillis = (System.nanoTime() - startedAt) / 1_000_000;
+        ready = true;
+        log.info("Buckets ready: {} checked in {} ms", shardRouter.shards().size(), elapsedMillis);
+        events.publishEvent(new BucketsReadyEvent(shardRouter.shards().size(), elapsedMillis));
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    @Override
+    public Health health() {
+        if (ready) {
+            return Health.up().withDetail("buckets", shardRouter.shards().size()).build();
+        }
+        return Health.outOfService().withDetail("pending", new LinkedHashMap<>(pending)).build();
+    }
+
+    // Один проход по непроверенным шардам; true, если непроверенных не осталось
+    private boolean tryInitialize() {
+        for (StorageShard shard : shardRouter.shards()) {
+            if (!pending.containsKey(shard.name())) {
+                continue;
+            }
+            try {
+                ensureBucket(shard);
+                pending.remove(shard.name());
+            } catch (Exception e) {
+                pending.put(shard.name(), shard.bucket() + ": " + e.getClass().getSimpleName() + ": " + e.getMessage());
+            }
+        }
+        return pending.isEmpty();
+    }
+
+    private void ensureBucket(StorageShard shard) throws Exception {
+        boolean bucketExists = shard.client().bucketExists(BucketExistsArgs.builder()
+                .bucket(shard.bucket())
+                .build());
+
+        if (!bucketExists) {
+            log.warn("Bucket {} does not exist. Creating...", shard.bucket());
+            shard.client().makeBucket(MakeBucketArgs.builder()
+                    .bucket(shard.bucket())
+                    .build());
+            log.info("Bucket {} created successfully", shard.bucket());
+        } else {
+            log.info("Bucket {} already exists", shard.bucket());
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package org.shvetsov.filestorage.services;
+
+/**
+ * Бакеты всех шардов проверены или созданы; публикуется {@link BucketInitializer} один раз.
+ */
+public record BucketsReadyEvent(int buckets, long elapsedMillis) {
+}
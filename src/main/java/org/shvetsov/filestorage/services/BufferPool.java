@@ -0,0 +1,79 @@
+package org.shvetsov.filestorage.services;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.shvetsov.filestorage.configurations.BufferPoolProperties;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Пул буферов копирования для потоковой выдачи объектов.
+ * <p>
+ * Буферы создаются по мере надобности и возвращаются в пул, так что после прогрева
+ * копирование тела ответа ничего не выделяет, а память пула ограничена
+ * {@code max-pooled × buffer-size}. Если все буферы заняты, запрос получает временный буфер.
+ * Буферы кучевые: оба конца копирования — потоки java.io (тело ответа MinIO и выход сервлета),
+ * и direct-буфер добавил бы лишнее копирование.
+ */
+@Component
+public class BufferPool implements MeterBinder {
+    private final int bufferSize;
+    private final ArrayBlockingQueue<byte[]> free;
+    private final AtomicLong allocated = new AtomicLong();
+
+    public BufferPool(BufferPoolProperties properties) {
+        this.bufferSize = (int) properties.getBufferSize().toBytes();
+        this.free = new ArrayBlockingQueue<>(Math.max(1, properties.getMaxPooled()));
+    }
+
+    public byte[] acquire() {
+        byte[] buffer = free.poll();
+        if (buffer == null) {
+            allocated.incrementAndGet();
+            buffer = new byte[bufferSize];
+        }
+        return buffer;
+    }
+
+    public void release(byte[] buffer) {
+        if (buffer.length == bufferSize) {
+            free.offer(buffer);
+        }
+    }
+
+    public long copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = acquire();
+        try {
+            long total = 0;
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+                total += read;
+            }
+            return total;
+        } finally {
+            release(buffer);
+        }
+    }
+
+    public int available() {
+        return free.size();
+    }
+
+    public long allocatedCount() {
+        return allocated.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("storage.buffers.available", free, ArrayBlockingQueue::size).register(registry);
+        FunctionCounter.builder("storage.buffers.allocated", allocated, AtomicLong::get).register(registry);
+    }
+}
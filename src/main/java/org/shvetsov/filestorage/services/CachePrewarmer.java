@@ -0,0 +1,247 @@
+package org.shvetsov.filestorage.services;
+
+import io.minio.GetObjectArgs;
+import io.minio.GetObjectResponse;
+import io.minio.ListObjectsArgs;
+import io.minio.PutObjectArgs;
+import io.minio.RemoveObjectArgs;
+import io.minio.Result;
+import io.minio.messages.Item;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.shvetsov.filestorage.configurations.HotKeyProperties;
+import org.shvetsov.filestorage.dto.HotKey;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Прогрев локальных кэшей горячим набором путей до того, как экземпляр начнёт принимать трафик.
+ * <p>
+ * Каждый экземпляр раз в {@code publish-interval} сохраняет свой топ {@link HotKeyTracker} в бакет
+ * отдельным объектом {@code {hot-set-prefix}{id экземпляра}} (путь на строку), поэтому реплики не
+ * затирают наборы друг друга. Объект пишется прямо в шард, мимо {@link StorageService}: это не фото,
+ * и ни контрольные суммы, ни инвалидации, ни индекс ему не нужны. Публикация идёт, даже если
+ * прогрев выключен.
+ * <p>
+ * Новый экземпляр после проверки бакетов сливает наборы не старше {@code hot-set-max-age}
+ * (по очереди берёт следующий путь из каждого) и заполняет кэш метаданных (и кэш промахов для
+ * исчезнувших путей); до окончания прогрева или {@code prewarm-timeout} индикатор {@code prewarm}
+ * держит readiness в OUT_OF_SERVICE. Устаревшие наборы при этом удаляются. Прогретые метаданные
+ * живут {@code storage.metadata-cache.prewarmed-ttl}: обычный TTL короче, чем проходит от прогрева
+ * до первых запросов.
+ */
+@Slf4j
+@Component("prewarm")
+public class CachePrewarmer implements HealthIndicator {
+    private static final String CONTENT_TYPE = "text/plain";
+
+    private final HotKeyProperties properties;
+    private final HotKeyTracker hotKeyTracker;
+    private final StorageService storageService;
+    private final ShardRouter shardRouter;
+    private final String hotSetObject;
+    private ScheduledExecutorService publisher;
+    private volatile boolean done;
+    private volatile int warmed;
+
+    public CachePrewarmer(HotKeyProperties properties, HotKeyTracker hotKeyTracker, StorageService storageService,
+                          ShardRouter shardRouter) {
+        this.properties = properties;
+        this.hotKeyTracker = hotKeyTracker;
+        this.storageService = storageService;
+        this.shardRouter = shardRouter;
+        this.hotSetObject = properties.getHotSetPrefix() + UUID.randomUUID();
+        this.done = !properties.isEnabled() || !properties.isPrewarmEnabled();
+    }
+
+    @EventListener(BucketsReadyEvent.class)
+    public void prewarmOnStartup() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        if (done) {
+            startPublishing();
+            return;
+        }
+        Thread.ofVirtual().name("cache-prewarm").start(() -> {
+            try {
+                prewarm();
+            } catch (Exception e) {
+                log.warn("Cache prewarm failed, starting cold: {}", e.getMessage());
+            } finally {
+                done = true;
+            }
+            startPublishing();
+        });
+    }
+
+    // Загружает сохранённые горячие наборы в кэши; возвращает число прогретых путей
+    public int prewarm() throws Exception {
+        long startedAt = System.nanoTime();
+        List<String> paths = readHotSets();
+        Semaphore permits = new Semaphore(Math.max(1, properties.getPrewarmParallelism()));
+        List<Future<Boolean>> futures = new ArrayList<>(paths.size());
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (String path : paths) {
+                futures.add(executor.submit(() -> {
+                    permits.acquire();
+                    try {
+                        return storageService.prewarm(path);
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+            long deadline = System.nanoTime() + properties.getPrewarmTimeout().toNanos();
+            int count = 0;
+            for (Future<Boolean> future : futures) {
+                try {
+                    if (future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                        count++;
+                    }
+                } catch (TimeoutException e) {
+                    log.warn("Cache prewarm timed out after {} of {} paths", count, paths.size());
+                    futures.forEach(pending -> pending.cancel(true));
+                    break;
+                } catch (Exception e) {
+                    log.debug("Failed to prewarm a hot path: {}", e.getMessage());
+                }
+            }
+            warmed = count;
+            log.info("Cache prewarmed with {} of {} hot paths in {} ms", count, paths.size(),
+                    (System.nanoTime() - startedAt) / 1_000_000);
+            return count;
+        }
+    }
+
+    // Сохраняет текущий топ в объект этого экземпляра; пустой топ прошлый набор не затирает
+    public void publishHotSet() throws Exception {
+        List<HotKey> top = hotKeyTracker.top(properties.getCapacity());
+        if (top.isEmpty()) {
+            return;
+        }
+        StringBuilder content = new StringBuilder();
+        top.forEach(key -> content.append(key.path()).append('\n'));
+        byte[] bytes = content.toString().getBytes(StandardCharsets.UTF_8);
+        StorageShard shard = shardRouter.route(hotSetObject);
+        shard.client().putObject(
+                PutObjectArgs.builder()
+                        .bucket(shard.bucket())
+                        .object(hotSetObject)
+                        .stream(new ByteArrayInputStream(bytes), bytes.length, -1)
+                        .contentType(CONTENT_TYPE)
+                        .build());
+    }
+
+    @Override
+    public Health health() {
+        if (!done) {
+            return Health.outOfService().build();
+        }
+        return Health.up().withDetail("warmed", warmed).build();
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (publisher != null) {
+            publisher.shutdownNow();
+        }
+    }
+
+    // Сливает наборы всех экземпляров: по одному пути из каждого по очереди, без повторов
+    private List<String> readHotSets() throws Exception {
+        String prefix = properties.getHotSetPrefix();
+        ZonedDateTime oldest = ZonedDateTime.now().minus(properties.getHotSetMaxAge());
+        List<List<String>> sets = new ArrayList<>();
+        for (StorageShard shard : shardRouter.shardsForPrefix(prefix)) {
+            Iterable<Result<Item>> results = shard.client().listObjects(
+                    ListObjectsArgs.builder()
+                            .bucket(shard.bucket())
+                            .prefix(prefix)
+                            .build());
+            for (Result<Item> result : results) {
+                Item item = result.get();
+                if (item.isDir()) {
+                    continue;
+                }
+                if (item.lastModified() != null && item.lastModified().isBefore(oldest)) {
+                    removeStale(shard, item.objectName());
+                    continue;
+                }
+                try (GetObjectResponse stream = shard.client().getObject(
+                        GetObjectArgs.builder()
+                                .bucket(shard.bucket())
+                                .object(item.objectName())
+                                .build())) {
+                    sets.add(new String(stream.readAllBytes(), StandardCharsets.UTF_8).lines()
+                            .filter(line -> !line.isBlank() && !line.startsWith(prefix))
+                            .toList());
+                }
+            }
+        }
+
+        Set<String> merged = new LinkedHashSet<>();
+        for (int rank = 0; merged.size() < properties.getCapacity(); rank++) {
+            boolean more = false;
+            for (List<String> set : sets) {
+                if (rank < set.size()) {
+                    more = true;
+                    merged.add(set.get(rank));
+                    if (merged.size() >= properties.getCapacity()) {
+                        break;
+                    }
+                }
+            }
+            if (!more) {
+                break;
+            }
+        }
+        return List.copyOf(merged);
+    }
+
+    private void removeStale(StorageShard shard, String objectName) {
+        try {
+            shard.client().removeObject(
+                    RemoveObjectArgs.builder()
+                            .bucket(shard.bucket())
+                            .object(objectName)
+                            .build());
+        } catch (Exception e) {
+            log.debug("Failed to remove stale hot set {}: {}", objectName, e.getMessage());
+        }
+    }
+
+    private void startPublishing() {
+        publisher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "hot-set-publisher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = properties.getPublishInterval().toMillis();
+        publisher.scheduleWithFixedDelay(() -> {
+            try {
+                publishHotSet();
+            } catch (Exception e) {
+                log.warn("Failed to publish hot set: {}", e.getMessage());
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+}
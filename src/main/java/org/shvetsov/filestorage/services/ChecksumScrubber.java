@@ -0,0 +1,145 @@
+package org.shvetsov.filestorage.services;
+
+import com.google.common.util.concurrent.RateLimiter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.minio.GetObjectArgs;
+import io.minio.ListObjectsArgs;
+import io.minio.Result;
+import io.minio.errors.ErrorResponseException;
+import io.minio.messages.Item;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.shvetsov.filestorage.configurations.ChecksumProperties;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Фоновая сверка объектов с SHA-256, записанной при загрузке.
+ * <p>
+ * Проходит по всем шардам с паузой {@code scrub-interval} между проходами и читает тела
+ * не быстрее {@code scrub-bandwidth} в секунду, чтобы не конкурировать с пользовательским трафиком.
+ * Объекты без суммы (загруженные до её появления) пропускаются.
+ */
+@Slf4j
+@Component
+public class ChecksumScrubber implements MeterBinder {
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final ChecksumProperties properties;
+    private final ShardRouter shardRouter;
+    private final ObjectChecksums objectChecksums;
+    private final AtomicLong verified = new AtomicLong();
+    private final AtomicLong mismatches = new AtomicLong();
+    private volatile Thread worker;
+
+    public ChecksumScrubber(ChecksumProperties properties, ShardRouter shardRouter, ObjectChecksums objectChecksums) {
+        this.properties = properties;
+        this.shardRouter = shardRouter;
+        this.objectChecksums = objectChecksums;
+    }
+
+    @EventListener(BucketsReadyEvent.class)
+    public void start() {
+        if (!properties.isScrubEnabled()) {
+            return;
+        }
+        worker = Thread.ofVirtual().name("checksum-scrubber").start(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    scrub();
+                    Thread.sleep(properties.getScrubInterval());
+                } catch (InterruptedException e) {
+                    return;
+                } catch (Exception e) {
+                    log.error("Checksum scrub pass failed", e);
+                    try {
+                        Thread.sleep(properties.getScrubInterval());
+                    } catch (InterruptedException interrupted) {
+                        return;
+                    }
+                }
+            }
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (worker != null) {
+            worker.interrupt();
+        }
+    }
+
+    // Один проход по всем шардам
+    public void scrub() throws Exception {
+        RateLimiter bandwidth = RateLimiter.create(Math.max(1, properties.getScrubBandwidth().toBytes()));
+        long startedAt = System.nanoTime();
+        long passMismatches = mismatches.get();
+        for (StorageShard shard : shardRouter.shards()) {
+            Iterable<Result<Item>> results = shard.client().listObjects(
+                    ListObjectsArgs.builder()
+                            .bucket(shard.bucket())
+                            .recursive(true)
+                            .includeUserMetadata(true)
+                            .build());
+            for (Result<Item> result : results) {
+                Item item = result.get();
+                String expected = ObjectChecksums.checksumOf(item.userMetadata());
+                if (item.isDir() || expected == null) {
+                    continue;
+                }
+                verify(shard, item.objectName(), expected, bandwidth);
+            }
+        }
+        log.info("Checksum scrub pass finished in {} s, {} mismatches",
+                (System.nanoTime() - startedAt) / 1_000_000_000, mismatches.get() - passMismatches);
+    }
+
+    public long verifiedCount() {
+        return verified.get();
+    }
+
+    public long mismatchCount() {
+        return mismatches.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("storage.scrub.verified", verified, AtomicLong::get).register(registry);
+        FunctionCounter.builder("storage.scrub.mismatches", mismatches, AtomicLong::get).register(registry);
+    }
+
+    private void verify(StorageShard shard, String objectName, String expected, RateLimiter bandwidth) throws Exception {
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        try (InputStream object = shard.client().getObject(
+                GetObjectArgs.builder()
+                        .bucket(shard.bucket())
+                        .object(objectName)
+                        .build());
+             DigestInputStream digest = objectChecksums.wrap(object)) {
+            int read;
+            while ((read = digest.read(buffer)) >= 0) {
+                if (read > 0) {
+                    bandwidth.acquire(read);
+                }
+            }
+            String actual = ObjectChecksums.hex(digest);
+            if (actual.equals(expected)) {
+                verified.incrementAndGet();
+            } else {
+                mismatches.incrementAndGet();
+                log.error("Checksum mismatch for {} on shard {}: expected {}, got {}", objectName, shard.name(), expected, actual);
+            }
+        } catch (ErrorResponseException e) {
+            // Объект могли удалить после листинга
+            if (e.errorResponse() == null || !"NoSuchKey".equals(e.errorResponse().code())) {
+                throw e;
+            }
+        }
+    }
+}
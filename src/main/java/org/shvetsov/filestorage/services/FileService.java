@@ -6,7 +6,16 @@ import jakarta.validation.ValidationException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.compress.utils.FileNameUtils;
+import org.shvetsov.filestorage.configurations.BatchProperties;
+import org.shvetsov.filestorage.configurations.PhotoProperties;
 import org.shvetsov.filestorage.configurations.StorageProperties;
+import org.shvetsov.filestorage.dto.FileInfoBatchItem;
+import org.shvetsov.filestorage.dto.ImagePlaceholder;
+import org.shvetsov.filestorage.dto.PhotoSummary;
+import org.shvetsov.filestorage.dto.PhotoUpload;
+import org.shvetsov.filestorage.dto.PhotoVariant;
+import org.shvetsov.filestorage.dto.ResumableUpload;
+import org.shvetsov.filestorage.dto.StoredObject;
 import org.shvetsov.requestApi.ProductPhotoRQ;
 import org.shvetsov.requestApi.ProductPhotoRS;
 import org.shvetsov.requestApi.UploadFileRQ;
@@ -15,16 +24,24 @@ import org.shvetsov.responseApi.FileResponse;
 import org.shvetsov.storage.StorageException;
 import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.stream.Collectors;
 
 @Service
@@ -34,32 +51,116 @@ public class FileService {
     private final StorageService storageService;
     private final MinioClient minioClient;
     private final StorageProperties properties;
+    private final BatchProperties batchProperties;
+    private final PhotoProperties photoProperties;
+    private final PhotoIndex photoIndex;
+    private final ResumableUploadService resumableUploadService;
+    private final ImageVariantService imageVariantService;
+    private final HotKeyTracker hotKeyTracker;
+    private final ExecutorService batchExecutor = Executors.newVirtualThreadPerTaskExecutor();
 
     public ProductPhotoRS uploadProductPhoto(UUID productId, UUID fileId, MultipartFile file) {
-        if (!file.getContentType().startsWith("image/")) throw new ValidationException("Only images allowed");
+        return storeProductPhoto(productId, fileId, file).photo();
+    }
+
+    // Загрузка фото вместе с SHA-256 содержимого
+    public PhotoUpload storeProductPhoto(UUID productId, UUID fileId, MultipartFile file) {
+        // 1. Проверка типа и размера
+        if (file.getContentType() == null || !photoProperties.getAllowedContentTypes().contains(file.getContentType())) {
+            throw new ValidationException("Only images allowed: " + photoProperties.getAllowedContentTypes());
+        }
+        if (file.getSize() > photoProperties.getMaxFileSizeBytes()) {
+            throw new ValidationException("File is larger than " + photoProperties.getMaxFileSizeMb() + " MB");
+        }
         // 2. Генерация уникального имени файла
         String objectName = storageService.generateObjectName(productId, fileId, file.getOriginalFilename());
+        try (PhotoIndex.Reservation slot = reservePhotoSlot(productId, objectName)) {
+            return storePhoto(productId, objectName, file);
+        }
+    }
 
-        try {
-            // 3. Загрузка в хранилище
-            storageService.uploadFile(file, objectName);
+    private PhotoUpload storePhoto(UUID productId, String objectName, MultipartFile file) {
+        // Заглушку считаем только для файла, чей заголовок прошёл проверку, и по найденным в нём размерам
+        ValidatingImageInputStream header;
+        try (InputStream stream = file.getInputStream()) {
+            header = ValidatingImageInputStream.checkHeader(stream, file.getContentType(), photoProperties);
+        } catch (ValidatingImageInputStream.RejectedException e) {
+            log.warn("Rejected upload {}: {}", objectName, e.getMessage());
+            throw new ValidationException(e.getMessage());
+        } catch (IOException e) {
+            log.error("Failed to read upload {}", objectName, e);
+            throw new StorageException("Failed to upload file");
+        }
+        ImagePlaceholder placeholder = computePlaceholder(file, objectName, header.width(), header.height());
+
+        // 3. Загрузка в хранилище; содержимое проверяется на лету и при нарушении запись обрывается
+        try (InputStream stream = new ValidatingImageInputStream(file.getInputStream(), file.getContentType(), photoProperties)) {
+            StoredObject stored = storageService.uploadFile(stream, file.getSize(), file.getContentType(), objectName, placeholder);
 
             // 4. Получение URL
             String fileUrl = storageService.getFileUrl(objectName, 7); // Ссылка на 7 дней
 
-            return ProductPhotoRS.builder()
+            ProductPhotoRS photo = ProductPhotoRS.builder()
                     .path(objectName)
                     .productId(productId)
                     .build();
+            return new PhotoUpload(photo, stored != null ? stored.sha256() : null);
+        } catch (TransferScheduler.BusyException e) {
+            throw e;
         } catch (Exception e) {
+            // MinIO может обернуть исключение потока
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof ValidatingImageInputStream.RejectedException rejected) {
+                    log.warn("Rejected upload {}: {}", objectName, rejected.getMessage());
+                    throw new ValidationException(rejected.getMessage());
+                }
+            }
             throw new StorageException("Failed to upload file");
         }
     }
 
+    // 2.1. Начало возобновляемой загрузки крупного файла
+    public ResumableUpload startResumableUpload(UUID productId, UUID fileId, String fileName, String contentType, long length) {
+        if (contentType == null || !photoProperties.getAllowedContentTypes().contains(contentType)) {
+            throw new ValidationException("Only images allowed: " + photoProperties.getAllowedContentTypes());
+        }
+        String objectName = storageService.generateObjectName(productId, fileId, fileName);
+        // Место проверяется при старте, а занимается только на время завершения: сессия может быть брошена
+        try (PhotoIndex.Reservation slot = reservePhotoSlot(productId, objectName)) {
+            return resumableUploadService.create(objectName, contentType, length);
+        } catch (ValidationException | StorageException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("Failed to start resumable upload: {}", objectName, e);
+            throw new StorageException("Failed to start upload");
+        }
+    }
+
+    // 2.2. Завершение возобновляемой загрузки
+    public PhotoUpload completeResumableUpload(String uploadId) throws FileNotFoundException {
+        String path = resumableUploadService.get(uploadId).path();
+        UUID productId = UUID.fromString(path.substring(0, path.indexOf('/')));
+        // За время сессии продукт мог набрать лимит другими загрузками
+        try (PhotoIndex.Reservation slot = reservePhotoSlot(productId, path)) {
+            StoredObject stored = resumableUploadService.complete(uploadId);
+            ProductPhotoRS photo = ProductPhotoRS.builder()
+                    .path(stored.objectName())
+                    .productId(productId)
+                    .build();
+            return new PhotoUpload(photo, stored.sha256());
+        } catch (FileNotFoundException | ValidationException | ResumableUploadService.OffsetConflictException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("Failed to complete resumable upload: {}", uploadId, e);
+            throw new StorageException("Failed to complete upload");
+        }
+    }
+
     public void deleteProductPhoto(String path) {
         try {
             if (storageService.fileExists(path)) {
                 storageService.deleteFile(path);
+                deleteVariants(path);
             }
         } catch (Exception e) {
             throw new StorageException("Failed to delete file");
@@ -75,6 +176,7 @@ public class FileService {
 
             Resource resource = storageService.getFileAsResource(path);
             StatObjectResponse metadata = storageService.getFileMetadata(path);
+            hotKeyTracker.record(path, metadata.size());
 
             return FileResponse.builder()
                     .resource(resource)
@@ -86,12 +188,70 @@ public class FileService {
         } catch (FileNotFoundException e) {
             log.warn("File not found: {}", path);
             throw e;
+        } catch (TransferScheduler.BusyException e) {
+            throw e;
         } catch (Exception e) {
             log.error("Failed to get file: {}", path, e);
             throw new StorageException("Failed to get file");
         }
     }
 
+    // 3.1. Вариант, в котором отдать фото клиенту с таким Accept; null — отдать оригинал
+    public PhotoVariant resolveVariant(String path, List<MediaType> accepted) {
+        try {
+            if (!imageVariantService.isEnabled() || !storageService.fileExists(path)) {
+                return null;
+            }
+            StatObjectResponse metadata = storageService.getFileMetadata(path);
+            String format = imageVariantService.negotiate(metadata.contentType(), accepted);
+            String key = format != null ? imageVariantService.resolve(path, metadata, format) : null;
+            return key != null ? new PhotoVariant(format, key) : null;
+        } catch (Exception e) {
+            // Без варианта отдаём оригинал
+            log.warn("Failed to prepare variant of {}: {}", path, e.getMessage());
+            return null;
+        }
+    }
+
+    // 3.2. Получение фото в выбранном варианте (оригинал, если вариант пропал)
+    public FileResponse getFile(String path, PhotoVariant variant) throws FileNotFoundException {
+        if (variant == null) {
+            return getFile(path);
+        }
+        String format = variant.format();
+        String key = variant.key();
+        try {
+            if (!storageService.fileExists(path)) {
+                throw new FileNotFoundException("File not found: " + path);
+            }
+            if (!storageService.fileExists(key)) {
+                return getFile(path);
+            }
+
+            StatObjectResponse original = storageService.getFileMetadata(path);
+            StatObjectResponse metadata = storageService.getFileMetadata(key);
+            hotKeyTracker.record(path, metadata.size());
+            String fileName = getFileNameFromPath(path);
+            int dot = fileName.lastIndexOf('.');
+
+            return FileResponse.builder()
+                    .resource(storageService.getFileAsResource(key))
+                    .fileName((dot > 0 ? fileName.substring(0, dot) : fileName) + "." + ImageVariantService.extensionOf(format))
+                    .contentType(format)
+                    .size(metadata.size())
+                    .lastModified(original.lastModified().toInstant())
+                    .build();
+        } catch (FileNotFoundException e) {
+            log.warn("File not found: {}", path);
+            throw e;
+        } catch (TransferScheduler.BusyException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("Failed to get {} variant of file: {}", format, path, e);
+            throw new StorageException("Failed to get file");
+        }
+    }
+
     // 4. Скачивание файла
     public FileResponse downloadFile(String path) throws FileNotFoundException {
         try {
@@ -101,6 +261,7 @@ public class FileService {
 
             Resource resource = storageService.getFileAsResource(path);
             StatObjectResponse metadata = storageService.getFileMetadata(path);
+            hotKeyTracker.record(path, metadata.size());
 
             return FileResponse.builder()
                     .resource(resource)
@@ -112,6 +273,8 @@ public class FileService {
         } catch (FileNotFoundException e) {
             log.warn("File not found for download: {}", path);
             throw e;
+        } catch (TransferScheduler.BusyException e) {
+            throw e;
         } catch (Exception e) {
             log.error("Failed to download file: {}", path, e);
             throw new StorageException("Failed to download file");
@@ -125,16 +288,9 @@ public class FileService {
                 throw new FileNotFoundException("File not found: " + path);
             }
 
-            StatObjectResponse metadata = storageService.getFileMetadata(path);
-
-            return FileInfoResponse.builder()
-                    .path(path)
-                    .fileName(getFileNameFromPath(path))
-                    .contentType(metadata.contentType())
-                    .size(metadata.size())
-                    .lastModified(metadata.lastModified().toInstant())
-                    .url(storageService.getFileUrl(path, 1)) // кратковременная ссылка
-                    .build();
+            FileInfoResponse info = buildFileInfo(path, storageService.getFileMetadata(path));
+            hotKeyTracker.record(path, 0);
+            return info;
         } catch (FileNotFoundException e) {
             log.warn("File not found for info: {}", path);
             throw e;
@@ -144,6 +300,67 @@ public class FileService {
         }
     }
 
+    // 5.1. Пакетное получение информации о файлах
+    public List<FileInfoBatchItem> getFileInfoBatch(List<String> paths) {
+        if (paths.size() > batchProperties.getMaxPaths()) {
+            throw new ValidationException("Too many paths in one request: " + paths.size());
+        }
+
+        Semaphore permits = new Semaphore(Math.max(1, batchProperties.getParallelism()));
+        List<Future<FileInfoBatchItem>> futures = new ArrayList<>();
+        for (String path : new LinkedHashSet<>(paths)) {
+            futures.add(batchExecutor.submit(() -> {
+                permits.acquire();
+                try {
+                    if (!storageService.fileExists(path)) {
+                        return FileInfoBatchItem.notFound(path);
+                    }
+                    StatObjectResponse metadata = storageService.getFileMetadata(path);
+                    hotKeyTracker.record(path, 0);
+                    return FileInfoBatchItem.found(buildFileInfo(path, metadata),
+                            ImagePlaceholders.fromMetadata(metadata.userMetadata()));
+                } finally {
+                    permits.release();
+                }
+            }));
+        }
+
+        List<FileInfoBatchItem> items = new ArrayList<>(futures.size());
+        try {
+            for (Future<FileInfoBatchItem> future : futures) {
+                items.add(future.get());
+            }
+            return items;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StorageException("Interrupted while getting file info");
+        } catch (ExecutionException e) {
+            log.error("Failed to get file info batch", e.getCause());
+            throw new StorageException("Failed to get file info");
+        } finally {
+            futures.forEach(future -> future.cancel(true));
+        }
+    }
+
+    // 5.2. Фото продукта из индекса, без листинга бакета
+    public List<PhotoSummary> listProductPhotos(UUID productId) {
+        if (photoIndex.isReady()) {
+            return photoIndex.list(productId);
+        }
+        try {
+            List<PhotoSummary> photos = new ArrayList<>();
+            for (String path : photoPaths(productId)) {
+                StatObjectResponse metadata = storageService.getFileMetadata(path);
+                photos.add(new PhotoSummary(path, metadata.size(), metadata.contentType(), metadata.etag(),
+                        ImagePlaceholders.fromMetadata(metadata.userMetadata())));
+            }
+            return photos;
+        } catch (Exception e) {
+            log.error("Failed to list photos of product: {}", productId, e);
+            throw new StorageException("Failed to list product photos");
+        }
+    }
+
     // 6. Получение списка файлов в директории
     public List<FileInfoResponse> listFiles(String prefix) {
         try {
@@ -187,11 +404,101 @@ public class FileService {
         }
     }
 
+    // 7.1. SHA-256 содержимого для сильного ETag; null, если суммы нет или файл не найден
+    public String getChecksum(String path) {
+        try {
+            return storageService.fileExists(path) ? storageService.getChecksum(path) : null;
+        } catch (Exception e) {
+            log.warn("Failed to get checksum of {}: {}", path, e.getMessage());
+            return null;
+        }
+    }
+
+    // 7.2. Заглушка изображения для отрисовки до загрузки фото; null, если её нет или файл не найден
+    public ImagePlaceholder getPlaceholder(String path) {
+        try {
+            return storageService.fileExists(path) ? storageService.getPlaceholder(path) : null;
+        } catch (Exception e) {
+            log.warn("Failed to get placeholder of {}: {}", path, e.getMessage());
+            return null;
+        }
+    }
+
     // 8. Проверка существования файла
     public boolean fileExists(String path) {
         return storageService.fileExists(path);
     }
 
+    // Занимает место под фото до конца загрузки; перезапись существующего фото лимит не расходует
+    private PhotoIndex.Reservation reservePhotoSlot(UUID productId, String objectName) {
+        int limit = photoProperties.getMaxPerProduct();
+        PhotoIndex.Reservation slot;
+        int count;
+        if (photoIndex.isReady()) {
+            slot = photoIndex.tryReserve(productId, objectName, limit);
+            count = photoIndex.count(productId);
+        } else {
+            // Индекс ещё строится — считаем по хранилищу
+            List<String> paths;
+            try {
+                paths = photoPaths(productId);
+            } catch (Exception e) {
+                log.error("Failed to count photos of product: {}", productId, e);
+                throw new StorageException("Failed to upload file");
+            }
+            slot = photoIndex.tryReserve(productId, objectName, limit, paths);
+            count = paths.size();
+        }
+        if (slot == null) {
+            throw new ValidationException("Product already has " + count + " photos, limit is " + limit);
+        }
+        return slot;
+    }
+
+    // Фото продукта в хранилище; подкаталоги (варианты) не фото
+    private List<String> photoPaths(UUID productId) throws Exception {
+        return storageService.listFiles(productId + "/").stream()
+                .filter(path -> !path.endsWith("/"))
+                .toList();
+    }
+
+    // Варианты восстановимы из оригинала, поэтому ошибка их удаления удаление фото не срывает
+    private void deleteVariants(String path) {
+        try {
+            imageVariantService.deleteVariants(path);
+        } catch (Exception e) {
+            log.warn("Failed to delete variants of {}: {}", path, e.getMessage());
+        }
+    }
+
+    // Заглушка не обязательна: файл, который не удалось декодировать, всё равно проверит поток загрузки
+    private ImagePlaceholder computePlaceholder(MultipartFile file, String objectName, int width, int height) {
+        if (!photoProperties.isPlaceholders()) {
+            return null;
+        }
+        try (InputStream stream = file.getInputStream()) {
+            if (width > 0 && height > 0) {
+                return ImagePlaceholders.sample(stream, width, height);
+            }
+            // Размеры этого формата из заголовка не читаются — их спросит декодер
+            return ImagePlaceholders.compute(stream, photoProperties.getMaxWidth(), photoProperties.getMaxHeight());
+        } catch (Exception e) {
+            log.debug("No placeholder for {}: {}", objectName, e.getMessage());
+            return null;
+        }
+    }
+
+    private FileInfoResponse buildFileInfo(String path, StatObjectResponse metadata) throws Exception {
+        return FileInfoResponse.builder()
+                .path(path)
+                .fileName(getFileNameFromPath(path))
+                .contentType(metadata.contentType())
+                .size(metadata.size())
+                .lastModified(metadata.lastModified().toInstant())
+                .url(storageService.getFileUrl(path, 1)) // кратковременная ссылка
+                .build();
+    }
+
     private String getFileNameFromPath(String path) {
         return path.substring(path.lastIndexOf("/") + 1);
     }
@@ -0,0 +1,148 @@
+package org.shvetsov.filestorage.services;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.shvetsov.filestorage.configurations.HotKeyProperties;
+import org.shvetsov.filestorage.dto.HotKey;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Частота чтений по путям: count-min sketch с затуханием.
+ * <p>
+ * Два скетча {@code depth × width} — число чтений и отданные байты — используют одни и те же
+ * ячейки; оценка ключа — минимум по строкам. Раз в {@code decay-interval} все счётчики делятся
+ * пополам. Имена самых горячих путей хранятся отдельно, не больше {@code 2 × capacity}:
+ * путь попадает в кандидаты, если его оценка выше порога, а при переполнении кандидаты
+ * урезаются до {@code capacity} лучших, и порогом становится худший из оставшихся.
+ */
+@Component
+public class HotKeyTracker implements MeterBinder {
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final HotKeyProperties properties;
+    private final int width;
+    private final int depth;
+    private final AtomicLongArray hits;
+    private final AtomicLongArray bytes;
+    private final Map<String, Boolean> candidates = new ConcurrentHashMap<>();
+    private final AtomicBoolean decaying = new AtomicBoolean();
+    private volatile long threshold;
+    private volatile long nextDecayAt;
+
+    public HotKeyTracker(HotKeyProperties properties) {
+        this.properties = properties;
+        this.width = Math.max(16, properties.getWidth());
+        this.depth = Math.max(1, properties.getDepth());
+        this.hits = new AtomicLongArray(width * depth);
+        this.bytes = new AtomicLongArray(width * depth);
+        this.nextDecayAt = System.nanoTime() + properties.getDecayInterval().toNanos();
+    }
+
+    // Чтение пути; transferred — размер отданного тела, 0 для запросов только метаданных
+    public void record(String path, long transferred) {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        decayIfDue();
+        long estimate = Long.MAX_VALUE;
+        for (int cell : cells(path)) {
+            estimate = Math.min(estimate, hits.incrementAndGet(cell));
+            if (transferred > 0) {
+                bytes.addAndGet(cell, transferred);
+            }
+        }
+        if (estimate > threshold || candidates.size() < properties.getCapacity()) {
+            candidates.put(path, Boolean.TRUE);
+            if (candidates.size() > 2 * properties.getCapacity()) {
+                trim();
+            }
+        }
+    }
+
+    // Самые горячие пути по убыванию числа чтений
+    public List<HotKey> top(int limit) {
+        List<HotKey> ranked = new ArrayList<>(candidates.size());
+        for (String path : candidates.keySet()) {
+            HotKey key = estimate(path);
+            if (key.hits() > 0) {
+                ranked.add(key);
+            }
+        }
+        ranked.sort(Comparator.comparingLong(HotKey::hits).reversed().thenComparing(HotKey::path));
+        return ranked.size() > limit ? List.copyOf(ranked.subList(0, limit)) : ranked;
+    }
+
+    public HotKey estimate(String path) {
+        long hitEstimate = Long.MAX_VALUE;
+        long byteEstimate = Long.MAX_VALUE;
+        for (int cell : cells(path)) {
+            hitEstimate = Math.min(hitEstimate, hits.get(cell));
+            byteEstimate = Math.min(byteEstimate, bytes.get(cell));
+        }
+        return new HotKey(path, hitEstimate, byteEstimate);
+    }
+
+    // Делит все счётчики пополам; остывшие кандидаты выпадают
+    public void decay() {
+        for (int i = 0; i < hits.length(); i++) {
+            hits.getAndUpdate(i, value -> value >> 1);
+            bytes.getAndUpdate(i, value -> value >> 1);
+        }
+        threshold >>= 1;
+        candidates.keySet().removeIf(path -> estimate(path).hits() == 0);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("storage.hotkeys.tracked", candidates, Map::size).register(registry);
+    }
+
+    private void decayIfDue() {
+        if (System.nanoTime() - nextDecayAt < 0 || !decaying.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            nextDecayAt = System.nanoTime() + properties.getDecayInterval().toNanos();
+            decay();
+        } finally {
+            decaying.set(false);
+        }
+    }
+
+    private synchronized void trim() {
+        if (candidates.size() <= 2 * properties.getCapacity()) {
+            return;
+        }
+        List<HotKey> ranked = top(Integer.MAX_VALUE);
+        List<HotKey> kept = ranked.subList(0, Math.min(properties.getCapacity(), ranked.size()));
+        for (HotKey key : ranked.subList(kept.size(), ranked.size())) {
+            candidates.remove(key.path());
+        }
+        threshold = kept.isEmpty() ? 0 : kept.get(kept.size() - 1).hits();
+    }
+
+    // Двойное хеширование по половинам murmur3: строка row берёт ячейку h1 + row * h2
+    private int[] cells(String path) {
+        ByteBuffer hash = ByteBuffer.wrap(HASH.hashString(path, StandardCharsets.UTF_8).asBytes());
+        long h1 = hash.getLong();
+        long h2 = hash.getLong() | 1;
+        int[] cells = new int[depth];
+        for (int row = 0; row < depth; row++) {
+            cells[row] = row * width + (int) Math.floorMod(h1 + row * h2, (long) width);
+        }
+        return cells;
+    }
+}
@@ -0,0 +1,233 @@
+package org.shvetsov.filestorage.services;
+
+import org.shvetsov.filestorage.dto.ImagePlaceholder;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Заглушки изображений: считаются один раз при загрузке и хранятся в user metadata объекта.
+ * <p>
+ * Изображение декодируется с прореживанием до ~{@value #SAMPLE_SIZE} px по большей стороне,
+ * поэтому память не зависит от размера фото. Форматы, для которых в ImageIO нет декодера (webp),
+ * заглушку не получают.
+ */
+public final class ImagePlaceholders {
+    public static final String WIDTH_KEY = "width";
+    public static final String HEIGHT_KEY = "height";
+    public static final String COLOR_KEY = "dominant-color";
+    public static final String BLURHASH_KEY = "blurhash";
+
+    private static final int SAMPLE_SIZE = 64;
+    private static final int MAX_COMPONENTS = 4;
+    private static final String BASE83 =
+            "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz#$%*+,-.:;=?@[]^_{|}~";
+
+    private ImagePlaceholders() {
+    }
+
+    // null, если формат не поддерживается или изображение больше допустимого
+    public static ImagePlaceholder compute(InputStream stream, int maxWidth, int maxHeight) throws IOException {
+        return decode(stream, -1, -1, maxWidth, maxHeight);
+    }
+
+    // Размеры уже известны из проверенного заголовка: декодер их заново не спрашивает
+    public static ImagePlaceholder sample(InputStream stream, int width, int height) throws IOException {
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+        return decode(stream, width, height, width, height);
+    }
+
+    private static ImagePlaceholder decode(InputStream stream, int knownWidth, int knownHeight,
+                                           int maxWidth, int maxHeight) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(stream)) {
+            if (input == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int width = knownWidth > 0 ? knownWidth : reader.getWidth(0);
+                int height = knownHeight > 0 ? knownHeight : reader.getHeight(0);
+                if (width <= 0 || height <= 0 || width > maxWidth || height > maxHeight) {
+                    return null;
+                }
+
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = Math.max(1, Math.max(width, height) / SAMPLE_SIZE);
+                param.setSourceSubsampling(step, step, 0, 0);
+                BufferedImage sample = reader.read(0, param);
+                return new ImagePlaceholder(width, height, dominantColor(sample), blurhash(sample, width, height));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    public static Map<String, String> toMetadata(ImagePlaceholder placeholder) {
+        Map<String, String> metadata = new HashMap<>();
+        if (placeholder != null) {
+            metadata.put(WIDTH_KEY, Integer.toString(placeholder.width()));
+            metadata.put(HEIGHT_KEY, Integer.toString(placeholder.height()));
+            metadata.put(COLOR_KEY, placeholder.dominantColor());
+            metadata.put(BLURHASH_KEY, placeholder.blurhash());
+        }
+        return metadata;
+    }
+
+    // Ключи приходят то с префиксом x-amz-meta-, то без, и в разном регистре
+    public static ImagePlaceholder fromMetadata(Map<String, String> userMetadata) {
+        if (userMetadata == null) {
+            return null;
+        }
+        Map<String, String> values = new HashMap<>();
+        for (Map.Entry<String, String> entry : userMetadata.entrySet()) {
+            String key = entry.getKey().toLowerCase();
+            values.put(key.startsWith("x-amz-meta-") ? key.substring("x-amz-meta-".length()) : key, entry.getValue());
+        }
+        String blurhash = values.get(BLURHASH_KEY);
+        if (blurhash == null) {
+            return null;
+        }
+        try {
+            return new ImagePlaceholder(Integer.parseInt(values.get(WIDTH_KEY)), Integer.parseInt(values.get(HEIGHT_KEY)),
+                    values.get(COLOR_KEY), blurhash);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // Цвет самой многочисленной группы пикселей (по 4 старших бита канала), усреднённый внутри группы
+    static String dominantColor(BufferedImage image) {
+        int[] counts = new int[4096];
+        long[] sums = new long[4096 * 3];
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                int rgb = image.getRGB(x, y);
+                int r = (rgb >> 16) & 0xff;
+                int g = (rgb >> 8) & 0xff;
+                int b = rgb & 0xff;
+                int bucket = (r >> 4) << 8 | (g >> 4) << 4 | (b >> 4);
+                counts[bucket]++;
+                sums[bucket * 3] += r;
+                sums[bucket * 3 + 1] += g;
+                sums[bucket * 3 + 2] += b;
+            }
+        }
+        int best = 0;
+        for (int bucket = 1; bucket < counts.length; bucket++) {
+            if (counts[bucket] > counts[best]) {
+                best = bucket;
+            }
+        }
+        int count = Math.max(1, counts[best]);
+        return String.format("#%02x%02x%02x", sums[best * 3] / count, sums[best * 3 + 1] / count, sums[best * 3 + 2] / count);
+    }
+
+    // Кодирование blurhash (https://blurha.sh): 4 компоненты по большей стороне, 3 по меньшей
+    static String blurhash(BufferedImage image, int originalWidth, int originalHeight) {
+        int componentsX = originalWidth >= originalHeight ? MAX_COMPONENTS : MAX_COMPONENTS - 1;
+        int componentsY = originalWidth >= originalHeight ? MAX_COMPONENTS - 1 : MAX_COMPONENTS;
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        double[][] linear = new double[width * height][3];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int rgb = image.getRGB(x, y);
+                double[] pixel = linear[y * width + x];
+                pixel[0] = toLinear((rgb >> 16) & 0xff);
+                pixel[1] = toLinear((rgb >> 8) & 0xff);
+                pixel[2] = toLinear(rgb & 0xff);
+            }
+        }
+
+        double[][] factors = new double[componentsX * componentsY][3];
+        for (int j = 0; j < componentsY; j++) {
+            for (int i = 0; i < componentsX; i++) {
+                double normalisation = (i == 0 && j == 0) ? 1 : 2;
+                double[] factor = factors[j * componentsX + i];
+                for (int y = 0; y < height; y++) {
+                    double basisY = Math.cos(Math.PI * j * y / height);
+                    for (int x = 0; x < width; x++) {
+                        double basis = Math.cos(Math.PI * i * x / width) * basisY;
+                        double[] pixel = linear[y * width + x];
+                        factor[0] += basis * pixel[0];
+                        factor[1] += basis * pixel[1];
+                        factor[2] += basis * pixel[2];
+                    }
+                }
+                double scale = normalisation / (width * height);
+                factor[0] *= scale;
+                factor[1] *= scale;
+                factor[2] *= scale;
+            }
+        }
+
+        StringBuilder hash = new StringBuilder();
+        encode83(hash, (componentsX - 1) + (componentsY - 1) * 9, 1);
+        double maximumValue;
+        if (factors.length > 1) {
+            double actualMaximum = 0;
+            for (int k = 1; k < factors.length; k++) {
+                for (double value : factors[k]) {
+                    actualMaximum = Math.max(actualMaximum, Math.abs(value));
+                }
+            }
+            int quantisedMaximum = (int) Math.max(0, Math.min(82, Math.floor(actualMaximum * 166 - 0.5)));
+            maximumValue = (quantisedMaximum + 1) / 166.0;
+            encode83(hash, quantisedMaximum, 1);
+        } else {
+            maximumValue = 1;
+            encode83(hash, 0, 1);
+        }
+
+        double[] dc = factors[0];
+        encode83(hash, (toSrgb(dc[0]) << 16) + (toSrgb(dc[1]) << 8) + toSrgb(dc[2]), 4);
+        for (int k = 1; k < factors.length; k++) {
+            double[] ac = factors[k];
+            int r = quantiseAc(ac[0], maximumValue);
+            int g = quantiseAc(ac[1], maximumValue);
+            int b = quantiseAc(ac[2], maximumValue);
+            encode83(hash, r * 19 * 19 + g * 19 + b, 2);
+        }
+        return hash.toString();
+    }
+
+    private static int quantiseAc(double value, double maximumValue) {
+        double scaled = Math.signum(value) * Math.sqrt(Math.abs(value / maximumValue));
+        return (int) Math.max(0, Math.min(18, Math.floor(scaled * 9 + 9.5)));
+    }
+
+    private static double toLinear(int value) {
+        double v = value / 255.0;
+        return v <= 0.04045 ? v / 12.92 : Math.pow((v + 0.055) / 1.055, 2.4);
+    }
+
+    private static int toSrgb(double value) {
+        double v = Math.max(0, Math.min(1, value));
+        return v <= 0.0031308
+                ? (int) (v * 12.92 * 255 + 0.5)
+                : (int) ((1.055 * Math.pow(v, 1 / 2.4) - 0.055) * 255 + 0.5);
+    }
+
+    private static void encode83(StringBuilder hash, int value, int length) {
+        for (int i = 1; i <= length; i++) {
+            int digit = (int) (value / Math.pow(83, length - i)) % 83;
+            hash.append(BASE83.charAt(digit));
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package org.shvetsov.filestorage.services;
+
+import io.minio.StatObjectResponse;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.shvetsov.filestorage.configurations.VariantProperties;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Варианты фото в других форматах под заголовок Accept.
+ * <p>
+ * Вариант отдаётся, только если клиент явно назвал его тип в Accept и ценит его не меньше типа
+ * оригинала; диапазоны с подстановкой ({@code image/*}, любой тип) получают оригинал.
+ * <p>
+ * Первый запрос варианта ставит перекодирование в фоновую очередь и получает оригинал; вариант
+ * отдаётся, когда он уже сохранён в бакете под ключом
+ * {@code {productId}/variants/{имя файла}/{etag оригинала}.{расширение}} — в шарде своего продукта.
+ * Замена оригинала сама делает старые варианты недостижимыми. Если вариант не меньше оригинала
+ * или формат к фото не подходит (прозрачность в JPEG, слишком много пикселей), сохраняется пустой
+ * объект-отметка, и дальше отдаётся оригинал. Сбой перекодирования отметку не оставляет: попытка
+ * повторится при следующем запросе.
+ * <p>
+ * Для каждого формата из {@code storage.variants.formats} нужен кодировщик ImageIO. В JDK есть
+ * только JPEG и PNG, поэтому AVIF и WebP требуют плагина в classpath; без него включённый сервис
+ * не стартует.
+ */
+@Slf4j
+@Service
+public class ImageVariantService {
+    private static final String DIRECTORY = "variants/";
+
+    private final VariantProperties properties;
+    private final StorageService storageService;
+    // Ключи вариантов, которые стоят в очереди или перекодируются сейчас
+    private final Set<String> scheduled = ConcurrentHashMap.newKeySet();
+    private final ThreadPoolExecutor transcoder;
+
+    public ImageVariantService(VariantProperties properties, StorageService storageService) {
+        this.properties = properties;
+        this.storageService = storageService;
+        int parallelism = Math.max(1, properties.getParallelism());
+        this.transcoder = new ThreadPoolExecutor(parallelism, parallelism, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, properties.getQueueCapacity())), runnable -> {
+            Thread thread = new Thread(runnable, "variant-transcoder");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PostConstruct
+    public void checkEncoders() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        List<String> missing = properties.getFormats().stream()
+                .filter(format -> !ImageIO.getImageWritersByMIMEType(format).hasNext())
+                .toList();
+        if (!missing.isEmpty()) {
+            throw new IllegalStateException("No ImageIO encoder for variant formats " + missing
+                    + ": add an ImageIO plugin for them or remove them from storage.variants.formats");
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        transcoder.shutdownNow();
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    // Формат, в котором стоит отдать оригинал этого типа; null — отдать оригинал как есть
+    public String negotiate(String originalType, List<MediaType> accepted) {
+        if (!properties.isEnabled() || originalType == null || !ImageIO.getImageReadersByMIMEType(originalType).hasNext()) {
+            return null;
+        }
+        double originalQuality = quality(accepted, MediaType.parseMediaType(originalType));
+        for (String format : properties.getFormats()) {
+            if (format.equalsIgnoreCase(originalType)) {
+                return null;
+            }
+            double formatQuality = explicitQuality(accepted, MediaType.parseMediaType(format));
+            if (formatQuality > 0 && formatQuality >= originalQuality) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+    // Ключ готового варианта; null — отдать оригинал (в том числе пока вариант перекодируется)
+    public String resolve(String path, StatObjectResponse original, String format) throws Exception {
+        if (original.etag() == null) {
+            return null;
+        }
+        String key = variantKey(path, original.etag(), format);
+        if (!storageService.fileExists(key)) {
+            schedule(path, original.size(), format, key);
+            return null;
+        }
+        long size = storageService.getFileMetadata(key).size();
+        return size > 0 && size < original.size() ? key : null;
+    }
+
+    public void deleteVariants(String path) throws Exception {
+        for (String key : storageService.listFiles(variantDirectory(path))) {
+            storageService.deleteFile(key);
+        }
+    }
+
+    public static String extensionOf(String format) {
+        String subtype = MediaType.parseMediaType(format).getSubtype();
+        return subtype.equals("jpeg") ? "jpg" : subtype;
+    }
+
+    static String variantKey(String path, String etag, String format) {
+        return variantDirectory(path) + etag.replace("\"", "") + "." + extensionOf(format);
+    }
+
+    // Варианты лежат под префиксом продукта, чтобы шардироваться вместе с оригиналом
+    private static String variantDirectory(String path) {
+        int slash = path.indexOf('/');
+        return path.substring(0, slash + 1) + DIRECTORY + path.substring(slash + 1) + "/";
+    }
+
+    // Качество, с которым клиент принимает тип: берётся самый конкретный подходящий диапазон
+    // (MediaType.isMoreSpecific сначала сравнивает q, поэтому здесь своя оценка)
+    static double quality(List<MediaType> accepted, MediaType type) {
+        MediaType best = null;
+        for (MediaType range : accepted) {
+            if (range.includes(type) && (best == null || specificity(range) > specificity(best))) {
+                best = range;
+            }
+        }
+        return best != null ? best.getQualityValue() : 0;
+    }
+
+    // Качество типа, названного клиентом явно; диапазоны с * не считаются
+    static double explicitQuality(List<MediaType> accepted, MediaType type) {
+        for (MediaType range : accepted) {
+            if (range.isConcrete() && range.equalsTypeAndSubtype(type)) {
+                return range.getQualityValue();
+            }
+        }
+        return 0;
+    }
+
+    private static int specificity(MediaType range) {
+        return (range.isWildcardType() ? 0 : 2) + (range.isWildcardSubtype() ? 0 : 1);
+    }
+
+    private void schedule(String path, long originalSize, String format, String key) {
+        if (!scheduled.add(key)) {
+            return;
+        }
+        try {
+            transcoder.execute(() -> {
+                try {
+                    transcode(path, originalSize, format, key);
+                } catch (Exception e) {
+                    log.warn("Failed to transcode {} to {}: {}", path, format, e.getMessage());
+                } finally {
+                    scheduled.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Очередь полна: вариант запросят снова при следующем просмотре
+            scheduled.remove(key);
+        }
+    }
+
+    private void transcode(String path, long originalSize, String format, String key) throws Exception {
+        byte[] encoded = encode(path, format);
+        if (encoded == null || encoded.length >= originalSize) {
+            encoded = new byte[0];
+        }
+        storageService.uploadFile(new ByteArrayInputStream(encoded), encoded.length, format, key);
+        log.info("Stored {} variant of {} ({} -> {} bytes)", format, path, originalSize, encoded.length);
+    }
+
+    private byte[] encode(String path, String format) throws Exception {
+        BufferedImage image;
+        try (InputStream stream = storageService.getFileAsStream(path)) {
+            image = decode(stream);
+        }
+        if (image == null) {
+            return null;
+        }
+        // JPEG без альфа-канала: прозрачные фото оставляем в исходном формате
+        if (image.getColorModel().hasAlpha() && format.equals(MediaType.IMAGE_JPEG_VALUE)) {
+            return null;
+        }
+
+        ImageWriter writer = ImageIO.getImageWritersByMIMEType(format).next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(output);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (format.equals(MediaType.IMAGE_JPEG_VALUE)) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(properties.getJpegQuality());
+            }
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    private BufferedImage decode(InputStream stream) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(stream)) {
+            Iterator<ImageReader> readers = input != null ? ImageIO.getImageReaders(input) : null;
+            if (readers == null || !readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                if ((long) reader.getWidth(0) * reader.getHeight(0) > properties.getMaxPixels()) {
+                    return null;
+                }
+                return reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package org.shvetsov.filestorage.services;
+
+import org.shvetsov.filestorage.dto.PhotoSummary;
+
+/**
+ * Объект записан или удалён на каком-то экземпляре сервиса.
+ * Для записи {@code photo} несёт сведения для индекса фото; для удаления он пуст.
+ */
+public record Invalidation(Kind kind, String objectName, PhotoSummary photo) {
+
+    public static Invalidation write(PhotoSummary photo) {
+        return new Invalidation(Kind.WRITE, photo.path(), photo);
+    }
+
+    public static Invalidation delete(String objectName) {
+        return new Invalidation(Kind.DELETE, objectName, null);
+    }
+
+    public enum Kind {
+        WRITE,
+        DELETE
+    }
+}
@@ -0,0 +1,244 @@
+package org.shvetsov.filestorage.services;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.shvetsov.filestorage.configurations.InvalidationProperties;
+import org.shvetsov.filestorage.dto.ImagePlaceholder;
+import org.shvetsov.filestorage.dto.PhotoSummary;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Шина инвалидаций между экземплярами сервиса.
+ * <p>
+ * {@link StorageService} сообщает о каждой записи и удалении; события копятся не дольше
+ * {@code flush-interval}, схлопываются по ключу (остаётся последнее) и уходят одной пачкой
+ * через {@link InvalidationTransport}. Принятые от других экземпляров пачки раздаются всем
+ * {@link InvalidationListener} — локальным кэшам и индексу фото. Свой экземпляр свои события
+ * не применяет: его кэши обновляются в момент записи.
+ * <p>
+ * Транспорт между хостами в сервис не входит и подключается отдельным бином; без него шина
+ * выключена ({@code storage.invalidation.enabled}), и записи на других экземплярах доходят до
+ * локальных кэшей только по истечении их TTL.
+ * <p>
+ * Формат пачки: {@code magic, id экземпляра, число событий}, затем события
+ * {@code вид, ключ}; у записи дальше {@code размер, content type, etag, заглушка}
+ * (строки — флаг наличия и UTF, заглушка — ширина или -1, затем высота, цвет и blurhash).
+ */
+@Slf4j
+public class InvalidationBus implements MeterBinder {
+    private static final int MAGIC = 0x494E5631;
+
+    private final InvalidationProperties properties;
+    // null, если шина выключена
+    private final InvalidationTransport transport;
+    private final List<InvalidationListener> listeners;
+    private final UUID origin = UUID.randomUUID();
+    // Накопленные события по ключу; доступ под монитором самой карты
+    private final Map<String, Invalidation> pending = new LinkedHashMap<>();
+    // Пачки уходят строго по очереди, иначе удаление могло бы обогнать предшествующую запись
+    private final Object sendLock = new Object();
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private ScheduledExecutorService scheduler;
+
+    public InvalidationBus(InvalidationProperties properties, InvalidationTransport transport,
+                           List<InvalidationListener> listeners) {
+        this.properties = properties;
+        this.transport = transport;
+        this.listeners = listeners;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        transport.subscribe(this::receive);
+        long interval = properties.getFlushInterval().toMillis();
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "invalidation-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    // Последние события уходят до остановки, чтобы соседи не ждали TTL
+    @PreDestroy
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        flush();
+    }
+
+    public void publish(Invalidation invalidation) {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        published.incrementAndGet();
+        boolean full;
+        synchronized (pending) {
+            if (pending.remove(invalidation.objectName()) != null) {
+                coalesced.incrementAndGet();
+            }
+            pending.put(invalidation.objectName(), invalidation);
+            full = pending.size() >= properties.getMaxBatch();
+        }
+        if (full) {
+            flush();
+        }
+    }
+
+    // Отправляет накопленное одной пачкой; при сбое транспорта пачка теряется
+    public void flush() {
+        synchronized (sendLock) {
+            List<Invalidation> batch;
+            synchronized (pending) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = new ArrayList<>(pending.values());
+                pending.clear();
+            }
+            try {
+                transport.publish(encode(origin, batch));
+                batches.incrementAndGet();
+            } catch (Exception e) {
+                failed.addAndGet(batch.size());
+                log.warn("Failed to broadcast {} invalidations: {}", batch.size(), e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("storage.invalidation.published", published, AtomicLong::get).register(registry);
+        FunctionCounter.builder("storage.invalidation.coalesced", coalesced, AtomicLong::get).register(registry);
+        FunctionCounter.builder("storage.invalidation.batches", batches, AtomicLong::get).register(registry);
+        FunctionCounter.builder("storage.invalidation.received", received, AtomicLong::get).register(registry);
+        FunctionCounter.builder("storage.invalidation.failed", failed, AtomicLong::get).register(registry);
+    }
+
+    private void receive(byte[] batch) {
+        List<Invalidation> invalidations;
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(batch))) {
+            if (in.readInt() != MAGIC) {
+                log.warn("Ignoring invalidation batch with unknown format");
+                return;
+            }
+            if (origin.equals(new UUID(in.readLong(), in.readLong()))) {
+                return;
+            }
+            invalidations = decode(in);
+        } catch (IOException | ArrayIndexOutOfBoundsException e) {
+            log.warn("Ignoring unreadable invalidation batch: {}", e.getMessage());
+            return;
+        }
+
+        received.addAndGet(invalidations.size());
+        for (Invalidation invalidation : invalidations) {
+            for (InvalidationListener listener : listeners) {
+                try {
+                    listener.onInvalidation(invalidation);
+                } catch (Exception e) {
+                    log.warn("Invalidation of {} failed in {}: {}", invalidation.objectName(),
+                            listener.getClass().getSimpleName(), e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static byte[] encode(UUID origin, List<Invalidation> batch) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + batch.size() * 64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeLong(origin.getMostSignificantBits());
+        out.writeLong(origin.getLeastSignificantBits());
+        out.writeInt(batch.size());
+        for (Invalidation invalidation : batch) {
+            out.writeByte(invalidation.kind().ordinal());
+            out.writeUTF(invalidation.objectName());
+            if (invalidation.kind() == Invalidation.Kind.WRITE) {
+                PhotoSummary photo = invalidation.photo();
+                out.writeLong(photo.size());
+                writeString(out, photo.contentType());
+                writeString(out, photo.etag());
+                writePlaceholder(out, photo.placeholder());
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static List<Invalidation> decode(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<Invalidation> invalidations = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Invalidation.Kind kind = Invalidation.Kind.values()[in.readUnsignedByte()];
+            String objectName = in.readUTF();
+            if (kind == Invalidation.Kind.DELETE) {
+                invalidations.add(Invalidation.delete(objectName));
+                continue;
+            }
+            long size = in.readLong();
+            String contentType = readString(in);
+            String etag = readString(in);
+            invalidations.add(Invalidation.write(new PhotoSummary(objectName, size, contentType, etag, readPlaceholder(in))));
+        }
+        return invalidations;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writePlaceholder(DataOutputStream out, ImagePlaceholder placeholder) throws IOException {
+        if (placeholder == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(placeholder.width());
+        out.writeInt(placeholder.height());
+        writeString(out, placeholder.dominantColor());
+        writeString(out, placeholder.blurhash());
+    }
+
+    private static ImagePlaceholder readPlaceholder(DataInputStream in) throws IOException {
+        int width = in.readInt();
+        if (width < 0) {
+            return null;
+        }
+        int height = in.readInt();
+        String dominantColor = readString(in);
+        return new ImagePlaceholder(width, height, dominantColor, readString(in));
+    }
+}
@@ -0,0 +1,10 @@
+package org.shvetsov.filestorage.services;
+
+/**
+ * Локальный кэш, который нужно сбросить, когда объект изменил другой экземпляр сервиса.
+ * События приходят, только если {@link InvalidationBus} включена и подключён транспорт.
+ */
+public interface InvalidationListener {
+
+    void onInvalidation(Invalidation invalidation);
+}
@@ -0,0 +1,18 @@
+package org.shvetsov.filestorage.services;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * Доставка пачек инвалидаций между экземплярами сервиса (pub/sub брокер, multicast и т.п.).
+ * <p>
+ * Пачка — непрозрачный массив байт, который {@link InvalidationBus} кодирует и декодирует сам.
+ * Транспорт доставляет её всем подписчикам, включая отправителя; свои пачки шина отбрасывает.
+ * Гарантия доставки не требуется: потерянное событие лишь оставляет запись кэша жить до её TTL.
+ */
+public interface InvalidationTransport {
+
+    void publish(byte[] batch) throws IOException;
+
+    void subscribe(Consumer<byte[]> receiver);
+}
@@ -0,0 +1,27 @@
+package org.shvetsov.filestorage.services;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Транспорт внутри одной JVM: пачка синхронно доставляется всем подписчикам.
+ * <p>
+ * До других хостов не доходит, поэтому по умолчанию не подключается. Используется в тестах, где
+ * несколько шин на одном экземпляре транспорта изображают несколько экземпляров сервиса.
+ */
+public class LoopbackInvalidationTransport implements InvalidationTransport {
+    private final List<Consumer<byte[]>> receivers = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void publish(byte[] batch) {
+        for (Consumer<byte[]> receiver : receivers) {
+            receiver.accept(batch);
+        }
+    }
+
+    @Override
+    public void subscribe(Consumer<byte[]> receiver) {
+        receivers.add(receiver);
+    }
+}
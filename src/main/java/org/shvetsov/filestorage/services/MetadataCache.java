@@ -0,0 +1,115 @@
+package org.shvetsov.filestorage.services;
+
+import io.minio.StatObjectResponse;
+import lombok.RequiredArgsConstructor;
+import org.shvetsov.filestorage.configurations.MetadataCacheProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Короткоживущий кэш результатов statObject. Сбрасывается при загрузке и удалении объекта через
+ * этот экземпляр; изменения на других экземплярах приходят через {@link InvalidationBus}, если
+ * она включена, иначе видны по истечении TTL.
+ * <p>
+ * Каждая инвалидация отмечает время записи в полосе ключа. Результат stat, начатого до записи,
+ * в кэш не попадает: иначе он вернул бы старые метаданные на весь TTL. Полосы общие для ключей
+ * с одинаковым хешем, поэтому коллизия приводит лишь к лишнему промаху кэша.
+ * <p>
+ * Записи, положенные прогревом при старте ({@link #putPrewarmed}), живут {@code prewarmed-ttl}.
+ */
+@Component
+@RequiredArgsConstructor
+public class MetadataCache implements InvalidationListener {
+    private final MetadataCacheProperties properties;
+
+    private static final int WRITE_STRIPES = 4096;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // Время последней записи по полосам ключей (System.nanoTime)
+    private final AtomicLongArray writes = new AtomicLongArray(WRITE_STRIPES);
+
+    public StatObjectResponse get(String objectName) {
+        if (!properties.isEnabled()) {
+            return null;
+        }
+        Entry entry = entries.get(objectName);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt() - System.nanoTime() <= 0) {
+            entries.remove(objectName, entry);
+            return null;
+        }
+        return entry.metadata();
+    }
+
+    public void put(String objectName, StatObjectResponse metadata) {
+        put(objectName, metadata, System.nanoTime());
+    }
+
+    /**
+     * Кладёт результат stat, если с начала запроса объект не перезаписывали и не удаляли.
+     *
+     * @param lookupStartedAt значение {@link System#nanoTime()} до отправки stat
+     */
+    public void put(String objectName, StatObjectResponse metadata, long lookupStartedAt) {
+        put(objectName, metadata, lookupStartedAt, properties.getTtl());
+    }
+
+    // Результат stat прогрева: живёт prewarmed-ttl вместо обычного TTL
+    public void putPrewarmed(String objectName, StatObjectResponse metadata, long lookupStartedAt) {
+        put(objectName, metadata, lookupStartedAt, properties.getPrewarmedTtl());
+    }
+
+    private void put(String objectName, StatObjectResponse metadata, long lookupStartedAt, Duration ttl) {
+        if (!properties.isEnabled() || metadata == null) {
+            return;
+        }
+        if (entries.size() >= properties.getMaxEntries()) {
+            purgeExpired();
+            if (entries.size() >= properties.getMaxEntries()) {
+                return;
+            }
+        }
+        Entry entry = new Entry(metadata, System.nanoTime() + ttl.toNanos());
+        // Проверка и вставка атомарны относительно remove в invalidate
+        entries.compute(objectName, (key, current) -> writtenSince(key, lookupStartedAt) ? current : entry);
+    }
+
+    // Была ли запись или удаление ключа начиная с момента since
+    public boolean writtenSince(String objectName, long since) {
+        long writtenAt = writes.get(stripe(objectName));
+        return writtenAt != 0 && writtenAt - since >= 0;
+    }
+
+    // Поколение записи ключа: меняется при каждой записи или удалении (общее для полосы ключей)
+    public long writeGeneration(String objectName) {
+        return writes.get(stripe(objectName));
+    }
+
+    public void invalidate(String objectName) {
+        writes.set(stripe(objectName), System.nanoTime());
+        entries.remove(objectName);
+    }
+
+    @Override
+    public void onInvalidation(Invalidation invalidation) {
+        invalidate(invalidation.objectName());
+    }
+
+    private static int stripe(String objectName) {
+        return Math.floorMod(objectName.hashCode(), WRITE_STRIPES);
+    }
+
+    private void purgeExpired() {
+        long now = System.nanoTime();
+        entries.values().removeIf(entry -> entry.expiresAt() - now <= 0);
+    }
+
+    private record Entry(StatObjectResponse metadata, long expiresAt) {
+    }
+}
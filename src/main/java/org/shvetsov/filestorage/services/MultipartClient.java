@@ -0,0 +1,42 @@
+package org.shvetsov.filestorage.services;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
+import io.minio.MinioAsyncClient;
+import io.minio.ObjectWriteResponse;
+import io.minio.messages.Part;
+
+import java.util.List;
+
+/**
+ * Доступ к низкоуровневым операциям multipart-загрузки, которые MinIO SDK держит protected.
+ * <p>
+ * Нужен для возобновляемых загрузок: части приходят в разных HTTP-запросах, и {@code putObject},
+ * который сам режет поток на части, здесь не подходит.
+ */
+public class MultipartClient extends MinioAsyncClient {
+
+    public MultipartClient(MinioAsyncClient client) {
+        super(client);
+    }
+
+    public String create(String bucket, String objectName, String contentType) throws Exception {
+        Multimap<String, String> headers = HashMultimap.create();
+        if (contentType != null) {
+            headers.put("Content-Type", contentType);
+        }
+        return createMultipartUploadAsync(bucket, null, objectName, headers, null).get().result().uploadId();
+    }
+
+    public String uploadPart(String bucket, String objectName, String uploadId, int partNumber, byte[] data) throws Exception {
+        return uploadPartAsync(bucket, null, objectName, data, data.length, uploadId, partNumber, null, null).get().etag();
+    }
+
+    public ObjectWriteResponse complete(String bucket, String objectName, String uploadId, List<Part> parts) throws Exception {
+        return completeMultipartUploadAsync(bucket, null, objectName, uploadId, parts.toArray(new Part[0]), null, null).get();
+    }
+
+    public void abort(String bucket, String objectName, String uploadId) throws Exception {
+        abortMultipartUploadAsync(bucket, null, objectName, uploadId, null, null).get();
+    }
+}
@@ -0,0 +1,213 @@
+package org.shvetsov.filestorage.services;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.shvetsov.filestorage.configurations.NegativeCacheProperties;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Кэш отсутствующих объектов: позволяет отвечать 404 на заведомо несуществующие пути
+ * без statObject в MinIO.
+ * <p>
+ * Записи о промахах живут {@code ttl}. Дополнительно для префикса продукта может храниться
+ * Bloom-фильтр, построенный по результату listObjects: если фильтр говорит, что ключа нет,
+ * значит его точно нет (на момент построения фильтра). Записи и удаления на других экземплярах
+ * сервиса приходят через {@link InvalidationBus}, если она включена; иначе промах живёт до TTL.
+ * <p>
+ * Промах, обнаруженный запросом, который начался до загрузки ключа, не запоминается: загрузка
+ * отмечает время в полосе ключа, и {@link #markMissing(String, long)} сверяется с ним.
+ * <p>
+ * Загрузки, пришедшие, пока фильтр префикса строится, записываются и добавляются в новый фильтр
+ * под блокировкой полосы префикса перед его установкой, как {@code mutationsDuringRebuild} в {@link PhotoIndex}.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class NegativeLookupCache implements InvalidationListener {
+    private static final int WRITE_STRIPES = 4096;
+    private static final int PREFIX_LOCK_STRIPES = 256;
+
+    private final NegativeCacheProperties properties;
+
+    private final Map<String, Long> missing = new ConcurrentHashMap<>();
+    private final Map<String, PrefixFilter> prefixFilters = new ConcurrentHashMap<>();
+    private final Map<String, Long> prefixWrites = new ConcurrentHashMap<>();
+    // Время последней загрузки по полосам ключей (System.nanoTime)
+    private final AtomicLongArray keyWrites = new AtomicLongArray(WRITE_STRIPES);
+    // Загрузки во время построения фильтров: префикс → набор ключей на каждое идущее построение; под блокировкой полосы
+    private final Map<String, List<Set<String>>> writesDuringRebuild = new ConcurrentHashMap<>();
+    private final Object[] prefixLocks = createLocks();
+
+    public boolean isKnownMissing(String objectName) {
+        if (!properties.isEnabled()) {
+            return false;
+        }
+        long now = System.nanoTime();
+
+        Long expiresAt = missing.get(objectName);
+        if (expiresAt != null) {
+            if (expiresAt - now > 0) {
+                return true;
+            }
+            missing.remove(objectName, expiresAt);
+        }
+
+        if (properties.isBloomEnabled()) {
+            String prefix = prefixOf(objectName);
+            PrefixFilter filter = prefixFilters.get(prefix);
+            if (filter != null) {
+                if (filter.expiresAt() - now <= 0) {
+                    prefixFilters.remove(prefix, filter);
+                } else {
+                    return !filter.bloom().mightContain(objectName);
+                }
+            }
+        }
+        return false;
+    }
+
+    // Объект не найден или удалён
+    public void markMissing(String objectName) {
+        markMissing(objectName, System.nanoTime());
+    }
+
+    /**
+     * Запоминает промах, если с начала запроса ключ не загружали.
+     *
+     * @param lookupStartedAt значение {@link System#nanoTime()} до отправки stat или удаления
+     */
+    public void markMissing(String objectName, long lookupStartedAt) {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        if (missing.size() >= properties.getMaxEntries()) {
+            purgeExpired();
+            if (missing.size() >= properties.getMaxEntries()) {
+                return;
+            }
+        }
+        Long expiresAt = System.nanoTime() + properties.getTtl().toNanos();
+        // Проверка и вставка атомарны относительно remove в markPresent
+        missing.compute(objectName, (key, current) -> writtenSince(key, lookupStartedAt) ? current : expiresAt);
+    }
+
+    // Объект загружен: снимаем отрицательную запись и сбрасываем фильтр префикса
+    public void markPresent(String objectName) {
+        keyWrites.set(stripe(objectName), System.nanoTime());
+        missing.remove(objectName);
+        if (properties.isBloomEnabled()) {
+            String prefix = prefixOf(objectName);
+            if (prefixWrites.size() >= properties.getMaxEntries()) {
+                purgeExpired();
+            }
+            synchronized (lockOf(prefix)) {
+                List<Set<String>> recordings = writesDuringRebuild.get(prefix);
+                if (recordings != null) {
+                    recordings.forEach(recording -> recording.add(objectName));
+                }
+                prefixWrites.put(prefix, System.nanoTime());
+                prefixFilters.remove(prefix);
+            }
+        }
+    }
+
+    /**
+     * Перестраивает фильтр префикса по полному листингу.
+     *
+     * @param listingStartedAt значение {@link System#nanoTime()} до начала листинга; если после него
+     *                         в префикс что-то загружалось, листинг мог это пропустить и фильтр не ставится
+     */
+    public void rebuildPrefix(String prefix, Collection<String> objectNames, long listingStartedAt) {
+        if (!properties.isEnabled() || !properties.isBloomEnabled() || prefix == null || !prefix.endsWith("/")) {
+            return;
+        }
+        Object lock = lockOf(prefix);
+        Set<String> recording = new HashSet<>();
+        synchronized (lock) {
+            Long lastWrite = prefixWrites.get(prefix);
+            if (lastWrite != null && lastWrite - listingStartedAt >= 0) {
+                log.debug("Skipping bloom rebuild for {}: concurrent upload", prefix);
+                return;
+            }
+            writesDuringRebuild.computeIfAbsent(prefix, key -> new ArrayList<>()).add(recording);
+        }
+
+        BloomFilter<CharSequence> bloom = BloomFilter.create(
+                Funnels.stringFunnel(StandardCharsets.UTF_8),
+                Math.max(objectNames.size(), properties.getBloomExpectedInsertions()),
+                properties.getBloomFpp());
+        objectNames.forEach(bloom::put);
+
+        synchronized (lock) {
+            writesDuringRebuild.computeIfPresent(prefix, (key, recordings) -> {
+                recordings.removeIf(pending -> pending == recording);
+                return recordings.isEmpty() ? null : recordings;
+            });
+            // Загруженное во время построения фильтр должен пропускать
+            recording.forEach(bloom::put);
+            long expiresAt = System.nanoTime() + properties.getBloomTtl().toNanos();
+            prefixFilters.put(prefix, new PrefixFilter(bloom, expiresAt));
+        }
+        // Листинг видит эти объекты — отрицательные записи о них устарели
+        objectNames.forEach(missing::remove);
+    }
+
+    @Override
+    public void onInvalidation(Invalidation invalidation) {
+        if (invalidation.kind() == Invalidation.Kind.WRITE) {
+            markPresent(invalidation.objectName());
+        } else {
+            // События экземпляров не упорядочены: устаревшее удаление не должно запомнить промах
+            // поверх новой записи, поэтому запись только сбрасывается и следующий запрос сделает stat
+            missing.remove(invalidation.objectName());
+        }
+    }
+
+    private void purgeExpired() {
+        long now = System.nanoTime();
+        missing.values().removeIf(expiresAt -> expiresAt - now <= 0);
+        prefixFilters.values().removeIf(filter -> filter.expiresAt() - now <= 0);
+        long writeHorizon = now - properties.getBloomTtl().toNanos();
+        prefixWrites.values().removeIf(writtenAt -> writtenAt - writeHorizon < 0);
+    }
+
+    private boolean writtenSince(String objectName, long since) {
+        long writtenAt = keyWrites.get(stripe(objectName));
+        return writtenAt != 0 && writtenAt - since >= 0;
+    }
+
+    private Object lockOf(String prefix) {
+        return prefixLocks[Math.floorMod(prefix.hashCode(), PREFIX_LOCK_STRIPES)];
+    }
+
+    private static Object[] createLocks() {
+        Object[] locks = new Object[PREFIX_LOCK_STRIPES];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+        return locks;
+    }
+
+    private static int stripe(String objectName) {
+        return Math.floorMod(objectName.hashCode(), WRITE_STRIPES);
+    }
+
+    private static String prefixOf(String objectName) {
+        return objectName.substring(0, objectName.lastIndexOf('/') + 1);
+    }
+
+    private record PrefixFilter(BloomFilter<CharSequence> bloom, long expiresAt) {
+    }
+}
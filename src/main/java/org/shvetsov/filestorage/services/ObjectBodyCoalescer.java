@@ -0,0 +1,494 @@
+package org.shvetsov.filestorage.services;
+
+import io.minio.GetObjectResponse;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.shvetsov.filestorage.configurations.CoalescingProperties;
+import org.springframework.stereotype.Component;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Схлопывает одновременные GET одного объекта в один запрос к MinIO.
+ * <p>
+ * Пока ведущий запрос открывает объект, к нему присоединяются пришедшие следом. Если никто не
+ * присоединился, ведущий читает ответ MinIO напрямую, без буферизации. Иначе небольшие тела читаются
+ * в память и раздаются всем ожидающим, а крупные перекачиваются во временный spool-файл, который
+ * все ожидающие (включая ведущего) читают по мере роста. Файл удаляется, когда его закрыл последний
+ * читатель; если все читатели закрылись раньше конца тела, перекачка останавливается.
+ * <p>
+ * Присоединение идёт по имени и версии объекта: запрос, пришедший после перезаписи, не получит
+ * тело, которое начали качать до неё.
+ * <p>
+ * Небольшие тела и буфер перекачки берутся из {@link BufferPool} и возвращаются в него, когда
+ * закрыт последний читатель.
+ */
+@Slf4j
+@Component
+public class ObjectBodyCoalescer {
+    private static final int OPEN_ATTEMPTS = 3;
+
+    private final CoalescingProperties properties;
+    private final BufferPool bufferPool;
+    private final ConcurrentHashMap<String, Flight> flights = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, SpoolBody> activeSpools = new ConcurrentHashMap<>();
+    private final ExecutorService pumpExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public ObjectBodyCoalescer(CoalescingProperties properties, BufferPool bufferPool) {
+        this.properties = properties;
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * Открывает тело объекта, присоединяясь к уже идущей загрузке, если она есть.
+     *
+     * @param opener выполняет GET; вызывается только ведущим запросом
+     */
+    public InputStream open(String key, Callable<GetObjectResponse> opener) throws Exception {
+        return open(key, 0, opener);
+    }
+
+    /**
+     * @param version поколение записи объекта; загрузки разных поколений не смешиваются
+     */
+    public InputStream open(String key, long version, Callable<GetObjectResponse> opener) throws Exception {
+        if (!properties.isEnabled()) {
+            return opener.call();
+        }
+        String versionedKey = key + '#' + version;
+        for (int attempt = 0; attempt < OPEN_ATTEMPTS; attempt++) {
+            SpoolBody active = activeSpools.get(versionedKey);
+            if (active != null) {
+                InputStream stream = active.tryOpen();
+                if (stream != null) {
+                    return stream;
+                }
+                continue;
+            }
+
+            Flight created = new Flight();
+            // Присоединение считается под блокировкой ключа карты, поэтому после remove счётчик окончателен
+            Flight flight = flights.compute(versionedKey, (k, current) -> {
+                if (current == null) {
+                    return created;
+                }
+                current.joiners++;
+                return current;
+            });
+            if (flight == created) {
+                return lead(versionedKey, created, opener);
+            }
+            InputStream stream = flight.await().join();
+            if (stream != null) {
+                return stream;
+            }
+        }
+        // Общее тело успело освободиться или его нельзя разделить — читаем сами
+        return opener.call();
+    }
+
+    public int activeSpoolCount() {
+        return activeSpools.size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pumpExecutor.shutdownNow();
+    }
+
+    // Ведущий запрос: открывает объект и решает, нужно ли делить тело с присоединившимися
+    private InputStream lead(String key, Flight flight, Callable<GetObjectResponse> opener) throws Exception {
+        GetObjectResponse response;
+        try {
+            response = opener.call();
+        } catch (Throwable e) {
+            flights.remove(key, flight);
+            flight.result.completeExceptionally(e);
+            throw e;
+        }
+        flights.remove(key, flight);
+        if (flight.joiners == 0) {
+            flight.result.complete(UNAVAILABLE);
+            return response;
+        }
+
+        try {
+            long length = contentLength(response);
+            if (length < 0) {
+                // Без Content-Length не решить, где держать тело: читаем сами, остальные загрузят заново
+                flight.result.complete(UNAVAILABLE);
+                return response;
+            }
+            if (length <= properties.getInMemoryMaxSize().toBytes()) {
+                PooledBody body;
+                try (response) {
+                    body = readPooled(key, response, (int) length, 1 + flight.joiners);
+                }
+                flight.result.complete(body);
+                return body.join();
+            }
+            // Ссылки ведущего и присоединившихся заняты заранее: быстрый читатель не удалит файл до их прихода
+            SpoolBody spool = spool(key, response, length, 1 + flight.joiners);
+            flight.result.complete(spool);
+            return spool.join();
+        } catch (Throwable e) {
+            flight.result.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private PooledBody readPooled(String key, InputStream response, int length, int readers) throws IOException {
+        List<byte[]> chunks = new ArrayList<>();
+        try {
+            int remaining = length;
+            while (remaining > 0) {
+                byte[] chunk = bufferPool.acquire();
+                chunks.add(chunk);
+                int wanted = Math.min(chunk.length, remaining);
+                if (response.readNBytes(chunk, 0, wanted) != wanted) {
+                    throw new EOFException("Unexpected end of object " + key);
+                }
+                remaining -= wanted;
+            }
+        } catch (IOException | RuntimeException e) {
+            chunks.forEach(bufferPool::release);
+            throw e;
+        }
+        return new PooledBody(chunks, length, readers);
+    }
+
+    private SpoolBody spool(String key, GetObjectResponse response, long length, int readers) throws IOException {
+        SpoolBody spool;
+        try {
+            Path directory = Path.of(properties.getSpoolDirectory());
+            Files.createDirectories(directory);
+            spool = new SpoolBody(Files.createTempFile(directory, "spool-", ".tmp"), length, readers);
+        } catch (IOException e) {
+            response.close();
+            throw e;
+        }
+        activeSpools.put(key, spool);
+        try {
+            pumpExecutor.execute(() -> spool.pump(response, () -> activeSpools.remove(key, spool)));
+        } catch (RejectedExecutionException e) {
+            // Сервис останавливается: перекачку не запустить, тело никому не достанется
+            activeSpools.remove(key, spool);
+            spool.close();
+            response.close();
+            throw e;
+        }
+        return spool;
+    }
+
+    private static long contentLength(GetObjectResponse response) {
+        if (response.headers() == null) {
+            return -1;
+        }
+        String value = response.headers().get("Content-Length");
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private interface SharedBody {
+        // Поток для участника загрузки, чья ссылка уже учтена ведущим; null — загрузить заново
+        InputStream join();
+    }
+
+    // Тело досталось только ведущему: присоединившиеся загружают заново
+    private static final SharedBody UNAVAILABLE = () -> null;
+
+    private static final class Flight {
+        private final CompletableFuture<SharedBody> result = new CompletableFuture<>();
+        // Меняется только внутри compute по ключу этой загрузки
+        private int joiners;
+
+        private SharedBody await() throws Exception {
+            try {
+                return result.get();
+            } catch (InterruptedException e) {
+                // Ведущий уже учёл нашу ссылку: вернём её, когда тело появится
+                result.thenAccept(body -> {
+                    InputStream stream = body.join();
+                    if (stream != null) {
+                        try {
+                            stream.close();
+                        } catch (IOException ignored) {
+                            // Потоки тел при закрытии не бросают
+                        }
+                    }
+                });
+                throw e;
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception cause) {
+                    throw cause;
+                }
+                if (e.getCause() instanceof Error error) {
+                    throw error;
+                }
+                throw e;
+            }
+        }
+    }
+
+    // Небольшое тело целиком в буферах пула
+    private final class PooledBody implements SharedBody {
+        private final List<byte[]> chunks;
+        private final int length;
+        // По одной ссылке на ведущего и каждого присоединившегося, заняты сразу
+        private final AtomicInteger references;
+
+        private PooledBody(List<byte[]> chunks, int length, int readers) {
+            this.chunks = chunks;
+            this.length = length;
+            this.references = new AtomicInteger(readers);
+        }
+
+        @Override
+        public InputStream join() {
+            return new PooledInputStream();
+        }
+
+        private void release() {
+            if (references.decrementAndGet() == 0) {
+                chunks.forEach(bufferPool::release);
+            }
+        }
+
+        private final class PooledInputStream extends InputStream {
+            private int position;
+            private boolean closed;
+
+            @Override
+            public int read() throws IOException {
+                if (closed) {
+                    throw new IOException("Stream closed");
+                }
+                if (position >= length) {
+                    return -1;
+                }
+                byte[] chunk = chunks.get(position / chunks.get(0).length);
+                return chunk[position++ % chunk.length] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (closed) {
+                    throw new IOException("Stream closed");
+                }
+                if (len == 0) {
+                    return 0;
+                }
+                if (position >= length) {
+                    return -1;
+                }
+                int chunkSize = chunks.get(0).length;
+                byte[] chunk = chunks.get(position / chunkSize);
+                int offset = position % chunkSize;
+                int toRead = Math.min(len, Math.min(chunkSize - offset, length - position));
+                System.arraycopy(chunk, offset, b, off, toRead);
+                position += toRead;
+                return toRead;
+            }
+
+            @Override
+            public int available() {
+                return closed ? 0 : length - position;
+            }
+
+            @Override
+            public void close() {
+                if (!closed) {
+                    closed = true;
+                    release();
+                }
+            }
+        }
+    }
+
+    private final class SpoolBody implements SharedBody {
+        private final Path file;
+        private final FileChannel channel;
+        private final long expectedLength;
+        // Одна ссылка принадлежит перекачке, по одной — каждому читателю
+        private final AtomicInteger references;
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition progress = lock.newCondition();
+        private long written;
+        private boolean complete;
+        private IOException failure;
+
+        // readers — ведущий и присоединившиеся, их ссылки заняты сразу
+        private SpoolBody(Path file, long expectedLength, int readers) throws IOException {
+            this.file = file;
+            this.expectedLength = expectedLength;
+            this.references = new AtomicInteger(1 + readers);
+            this.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+        @Override
+        public InputStream join() {
+            return new SpoolInputStream();
+        }
+
+        // Для запроса, пришедшего во время перекачки: null, если файл уже освобождён
+        private InputStream tryOpen() {
+            int current;
+            do {
+                current = references.get();
+                if (current == 0) {
+                    return null;
+                }
+            } while (!references.compareAndSet(current, current + 1));
+            return new SpoolInputStream();
+        }
+
+        private void pump(InputStream source, Runnable onDone) {
+            byte[] buffer = bufferPool.acquire();
+            long position = 0;
+            boolean abandoned = false;
+            try (source) {
+                int read;
+                while ((read = source.read(buffer)) >= 0) {
+                    // Осталась только ссылка перекачки: все читатели закрылись, новых уже не пустим
+                    if (references.compareAndSet(1, 0)) {
+                        log.debug("All readers of {} closed, stopping spool at {} bytes", file, position);
+                        abandoned = true;
+                        return;
+                    }
+                    ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, read);
+                    while (chunk.hasRemaining()) {
+                        position += channel.write(chunk, position);
+                    }
+                    signal(position, false, null);
+                }
+                if (position != expectedLength) {
+                    throw new EOFException("Expected " + expectedLength + " bytes, got " + position);
+                }
+                signal(position, true, null);
+            } catch (Throwable e) {
+                // Любой сбой должен разбудить читателей, иначе они ждут в awaitData вечно
+                log.warn("Failed to spool object body: {}", file, e);
+                signal(position, false, e instanceof IOException io ? io : new IOException(e));
+            } finally {
+                bufferPool.release(buffer);
+                onDone.run();
+                if (abandoned) {
+                    close();
+                } else {
+                    release();
+                }
+            }
+        }
+
+        private void signal(long position, boolean done, IOException error) {
+            lock.lock();
+            try {
+                written = position;
+                complete = done;
+                failure = error;
+                progress.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Ждёт данных за позицией; возвращает границу записанного или -1 в конце тела
+        private long awaitData(long position) throws IOException {
+            lock.lock();
+            try {
+                while (written <= position && !complete && failure == null) {
+                    progress.await();
+                }
+                if (failure != null) {
+                    throw new IOException("Origin fetch failed", failure);
+                }
+                return written > position ? written : -1;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for object body");
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void release() {
+            if (references.decrementAndGet() == 0) {
+                close();
+            }
+        }
+
+        private void close() {
+            try {
+                channel.close();
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                log.warn("Failed to delete spool file: {}", file, e);
+            }
+        }
+
+        private final class SpoolInputStream extends InputStream {
+            private long position;
+            private boolean closed;
+
+            @Override
+            public int read() throws IOException {
+                byte[] single = new byte[1];
+                int read = read(single, 0, 1);
+                return read < 0 ? -1 : single[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (closed) {
+                    throw new IOException("Stream closed");
+                }
+                if (len == 0) {
+                    return 0;
+                }
+                long limit = awaitData(position);
+                if (limit < 0) {
+                    return -1;
+                }
+                int toRead = (int) Math.min(len, limit - position);
+                int read = channel.read(ByteBuffer.wrap(b, off, toRead), position);
+                position += read;
+                return read;
+            }
+
+            @Override
+            public void close() {
+                if (!closed) {
+                    closed = true;
+                    release();
+                }
+            }
+        }
+    }
+}
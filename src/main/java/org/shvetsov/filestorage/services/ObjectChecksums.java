@@ -0,0 +1,98 @@
+package org.shvetsov.filestorage.services;
+
+import io.minio.CopyObjectArgs;
+import io.minio.CopySource;
+import io.minio.Directive;
+import io.minio.ObjectWriteResponse;
+import io.minio.StatObjectResponse;
+import org.shvetsov.filestorage.configurations.ChecksumProperties;
+import org.springframework.stereotype.Component;
+
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+
+/**
+ * SHA-256 объектов: подсчёт в потоке загрузки и хранение в user metadata.
+ * <p>
+ * Сумма известна только после того, как тело ушло в MinIO, поэтому она записывается
+ * серверным копированием объекта в себя с заменой метаданных; тело повторно не передаётся.
+ * Копирование выполняется только при совпадении etag, чтобы не пометить чужую параллельную запись.
+ */
+@Component
+public class ObjectChecksums {
+    public static final String METADATA_KEY = "sha256";
+
+    private final ChecksumProperties properties;
+
+    public ObjectChecksums(ChecksumProperties properties) {
+        this.properties = properties;
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    public DigestInputStream wrap(InputStream stream) {
+        try {
+            return new DigestInputStream(stream, MessageDigest.getInstance("SHA-256"));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    public static String hex(DigestInputStream stream) {
+        return HexFormat.of().formatHex(stream.getMessageDigest().digest());
+    }
+
+    // Возвращает etag объекта после записи метаданных
+    public String stamp(StorageShard shard, String objectName, String contentType, String etag, String sha256) throws Exception {
+        return stamp(shard, objectName, contentType, etag, sha256, Map.of());
+    }
+
+    // Метаданные заменяются целиком, поэтому остальные user metadata объекта передаются сюда же
+    public String stamp(StorageShard shard, String objectName, String contentType, String etag, String sha256,
+                        Map<String, String> userMetadata) throws Exception {
+        Map<String, String> metadata = new HashMap<>(userMetadata);
+        metadata.put(METADATA_KEY, sha256);
+        CopySource.Builder source = CopySource.builder()
+                .bucket(shard.bucket())
+                .object(objectName);
+        if (etag != null) {
+            source.matchETag(etag);
+        }
+        CopyObjectArgs.Builder copy = CopyObjectArgs.builder()
+                .bucket(shard.bucket())
+                .object(objectName)
+                .source(source.build())
+                .metadataDirective(Directive.REPLACE)
+                .userMetadata(metadata);
+        if (contentType != null) {
+            copy.headers(Map.of("Content-Type", contentType));
+        }
+        ObjectWriteResponse response = shard.client().copyObject(copy.build());
+        return response != null ? response.etag() : etag;
+    }
+
+    public static String checksumOf(StatObjectResponse metadata) {
+        return metadata != null ? checksumOf(metadata.userMetadata()) : null;
+    }
+
+    // Ключи приходят то с префиксом x-amz-meta-, то без, и в разном регистре
+    public static String checksumOf(Map<String, String> userMetadata) {
+        if (userMetadata == null) {
+            return null;
+        }
+        for (Map.Entry<String, String> entry : userMetadata.entrySet()) {
+            String key = entry.getKey().toLowerCase();
+            if (key.equals(METADATA_KEY) || key.equals("x-amz-meta-" + METADATA_KEY)) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+}
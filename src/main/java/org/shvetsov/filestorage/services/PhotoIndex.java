@@ -0,0 +1,423 @@
+package org.shvetsov.filestorage.services;
+
+import io.minio.ListObjectsArgs;
+import io.minio.Result;
+import io.minio.StatObjectArgs;
+import io.minio.StatObjectResponse;
+import io.minio.errors.ErrorResponseException;
+import io.minio.messages.Item;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.shvetsov.filestorage.dto.PhotoSummary;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Индекс фото по продуктам в памяти: productId → фото (путь, размер, тип, etag).
+ * <p>
+ * Обновляется при каждой загрузке и удалении через {@link StorageService} и перестраивается
+ * полным листингом бакетов, как только они проверены ({@link BucketsReadyEvent}). Если есть
+ * снимок на диске ({@link PhotoIndexSnapshot}), индекс сразу поднимается из него, а листинг лишь
+ * сверяет его с бакетами в фоне.
+ * Пока индекс не построен, {@link #isReady()} возвращает false и вызывающие должны обращаться
+ * к хранилищу сами. Неудачный листинг повторяется с растущей задержкой.
+ * <p>
+ * Если {@link InvalidationBus} включена, индекс получает события других экземпляров. Они не
+ * упорядочены между собой: устаревшее удаление может прийти после новой записи. Поэтому событие
+ * лишь ставит путь в очередь сверки, а состояние фото берётся из stat хранилища. При выключенной
+ * шине индекс не знает об изменениях других экземпляров до перестроения при следующем старте.
+ * <p>
+ * Лимит фото на продукт проверяется через {@link #tryReserve}: место занимается атомарно вместе
+ * с проверкой и держится до конца загрузки, так что параллельные загрузки не превышают лимит.
+ */
+@Slf4j
+@Component
+public class PhotoIndex implements InvalidationListener {
+    private static final Duration REBUILD_RETRY_BACKOFF = Duration.ofSeconds(5);
+    private static final Duration MAX_REBUILD_RETRY_BACKOFF = Duration.ofMinutes(5);
+
+    private final ShardRouter shardRouter;
+    private final PhotoIndexSnapshot snapshot;
+    private final AtomicLong version = new AtomicLong();
+    private volatile long savedVersion;
+    private ScheduledExecutorService snapshotScheduler;
+
+    private volatile Map<UUID, Map<String, PhotoSummary>> products = new ConcurrentHashMap<>();
+    private volatile boolean ready;
+    // Изменения, пришедшие во время перестроения; применяются к новому индексу перед заменой
+    private List<Consumer<Map<UUID, Map<String, PhotoSummary>>>> mutationsDuringRebuild;
+    // Места под фото, занятые идущими загрузками: productId → путь → число загрузок; под монитором индекса
+    private final Map<UUID, Map<String, Integer>> reservations = new HashMap<>();
+    private volatile boolean stopped;
+    // Пути, ждущие сверки с хранилищем; сверки идут по одной, чтобы старый stat не перетёр новый
+    private final Set<String> reconciling = ConcurrentHashMap.newKeySet();
+    private final ExecutorService reconciler = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "photo-index-reconciler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public PhotoIndex(ShardRouter shardRouter, PhotoIndexSnapshot snapshot) {
+        this.shardRouter = shardRouter;
+        this.snapshot = snapshot;
+    }
+
+    // Листинг имеет смысл только когда бакеты проверены, иначе индекс не построится до рестарта
+    @EventListener(BucketsReadyEvent.class)
+    public void rebuildOnStartup() {
+        Thread.ofVirtual().name("photo-index-rebuild").start(() -> {
+            // Сначала поднимаем снимок с диска, затем сверяем его с бакетами
+            loadSnapshot();
+            startSnapshots();
+            rebuildWithRetry();
+        });
+    }
+
+    // Листинг повторяется, пока не удастся: без него индекс остался бы неготовым до рестарта
+    private void rebuildWithRetry() {
+        Duration backoff = REBUILD_RETRY_BACKOFF;
+        while (!stopped) {
+            try {
+                rebuild();
+                return;
+            } catch (Exception e) {
+                log.error("Failed to build photo index, retrying in {}; limits fall back to bucket listing", backoff, e);
+            }
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            backoff = backoff.multipliedBy(2);
+            if (backoff.compareTo(MAX_REBUILD_RETRY_BACKOFF) > 0) {
+                backoff = MAX_REBUILD_RETRY_BACKOFF;
+            }
+        }
+    }
+
+    // Полный листинг всех шардов
+    public void rebuild() throws Exception {
+        long startedAt = System.nanoTime();
+        startRecording();
+        Map<UUID, Map<String, PhotoSummary>> rebuilt = new ConcurrentHashMap<>();
+        try {
+            for (StorageShard shard : shardRouter.shards()) {
+                Iterable<Result<Item>> results = shard.client().listObjects(
+                        ListObjectsArgs.builder()
+                                .bucket(shard.bucket())
+                                .recursive(true)
+                                .includeUserMetadata(true)
+                                .build());
+                for (Result<Item> result : results) {
+                    Item item = result.get();
+                    if (!item.isDir()) {
+                        add(rebuilt, summaryOf(item));
+                    }
+                }
+            }
+        } catch (Exception e) {
+            synchronized (this) {
+                mutationsDuringRebuild = null;
+            }
+            throw e;
+        }
+        install(rebuilt);
+        log.info("Photo index built: {} products in {} ms", rebuilt.size(), (System.nanoTime() - startedAt) / 1_000_000);
+    }
+
+    public boolean loadSnapshot() {
+        if (!snapshot.isEnabled()) {
+            return false;
+        }
+        long startedAt = System.nanoTime();
+        startRecording();
+        List<PhotoSummary> photos = snapshot.read();
+        if (photos == null) {
+            synchronized (this) {
+                mutationsDuringRebuild = null;
+            }
+            return false;
+        }
+        Map<UUID, Map<String, PhotoSummary>> loaded = new ConcurrentHashMap<>();
+        photos.forEach(photo -> add(loaded, photo));
+        install(loaded);
+        savedVersion = version.get();
+        log.info("Photo index loaded from snapshot: {} photos in {} ms", photos.size(), (System.nanoTime() - startedAt) / 1_000_000);
+        return true;
+    }
+
+    // Снимок пишется только если индекс построен и изменился с прошлой записи
+    @PreDestroy
+    public void saveSnapshot() {
+        stopped = true;
+        reconciler.shutdownNow();
+        if (snapshotScheduler != null) {
+            snapshotScheduler.shutdownNow();
+        }
+        if (snapshot.isEnabled()) {
+            writeSnapshot();
+        }
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public synchronized void put(PhotoSummary photo) {
+        apply(index -> add(index, photo));
+    }
+
+    public synchronized void remove(String path) {
+        apply(index -> removeFrom(index, path));
+    }
+
+    @Override
+    public void onInvalidation(Invalidation invalidation) {
+        String path = invalidation.objectName();
+        if (productIdOf(path).isPresent() && reconciling.add(path)) {
+            reconciler.execute(() -> reconcile(path));
+        }
+    }
+
+    // Приводит запись пути к тому, что сейчас лежит в хранилище
+    public void reconcile(String path) {
+        reconciling.remove(path);
+        PhotoSummary before = get(path);
+        StatObjectResponse metadata;
+        try {
+            metadata = stat(path);
+        } catch (Exception e) {
+            log.warn("Failed to reconcile {} with storage: {}", path, e.getMessage());
+            return;
+        }
+        synchronized (this) {
+            if (get(path) != before) {
+                // Локальная запись или удаление во время stat новее его результата
+                return;
+            }
+            if (metadata == null) {
+                remove(path);
+            } else {
+                put(new PhotoSummary(path, metadata.size(), metadata.contentType(), metadata.etag(),
+                        ImagePlaceholders.fromMetadata(metadata.userMetadata())));
+            }
+        }
+    }
+
+    public int count(UUID productId) {
+        Map<String, PhotoSummary> photos = products.get(productId);
+        return photos != null ? photos.size() : 0;
+    }
+
+    public boolean contains(String path) {
+        return productIdOf(path)
+                .map(products::get)
+                .map(photos -> photos.containsKey(path))
+                .orElse(false);
+    }
+
+    /**
+     * Занимает место под фото по индексу; индекс должен быть готов.
+     *
+     * @return null, если у продукта уже {@code limit} фото с учётом идущих загрузок
+     */
+    public synchronized Reservation tryReserve(UUID productId, String path, int limit) {
+        Map<String, PhotoSummary> photos = products.get(productId);
+        return tryReserve(productId, path, limit, photos != null ? photos.keySet() : Collections.emptySet());
+    }
+
+    /**
+     * Занимает место под фото, считая уже сохранёнными пути {@code stored} (например, листинг
+     * хранилища, пока индекс строится). Перезапись сохранённого или загружаемого пути места не требует.
+     *
+     * @return null, если лимит исчерпан
+     */
+    public synchronized Reservation tryReserve(UUID productId, String path, int limit, Collection<String> stored) {
+        Map<String, Integer> reserved = reservations.getOrDefault(productId, Collections.emptyMap());
+        if (!stored.contains(path) && !reserved.containsKey(path)) {
+            Set<String> occupied = new HashSet<>(stored);
+            occupied.addAll(reserved.keySet());
+            if (occupied.size() >= limit) {
+                return null;
+            }
+        }
+        reservations.computeIfAbsent(productId, id -> new HashMap<>()).merge(path, 1, Integer::sum);
+        return new Reservation(productId, path);
+    }
+
+    private synchronized void release(UUID productId, String path) {
+        reservations.computeIfPresent(productId, (id, reserved) -> {
+            reserved.computeIfPresent(path, (key, count) -> count > 1 ? count - 1 : null);
+            return reserved.isEmpty() ? null : reserved;
+        });
+    }
+
+    public PhotoSummary get(String path) {
+        return productIdOf(path)
+                .map(products::get)
+                .map(photos -> photos.get(path))
+                .orElse(null);
+    }
+
+    public List<PhotoSummary> list(UUID productId) {
+        Map<String, PhotoSummary> photos = products.get(productId);
+        if (photos == null) {
+            return List.of();
+        }
+        List<PhotoSummary> result = new ArrayList<>(photos.values());
+        result.sort(Comparator.comparing(PhotoSummary::path));
+        return result;
+    }
+
+    private synchronized void startRecording() {
+        mutationsDuringRebuild = new ArrayList<>();
+    }
+
+    // Применяет изменения, пришедшие во время построения, и подменяет индекс
+    private synchronized void install(Map<UUID, Map<String, PhotoSummary>> index) {
+        mutationsDuringRebuild.forEach(mutation -> mutation.accept(index));
+        mutationsDuringRebuild = null;
+        products = index;
+        ready = true;
+        version.incrementAndGet();
+    }
+
+    private void startSnapshots() {
+        if (!snapshot.isEnabled()) {
+            return;
+        }
+        snapshotScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "photo-index-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = snapshot.getInterval().toMillis();
+        snapshotScheduler.scheduleWithFixedDelay(this::writeSnapshot, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private void writeSnapshot() {
+        if (!ready || version.get() == savedVersion) {
+            return;
+        }
+        long current = version.get();
+        try {
+            snapshot.write(products.values());
+            savedVersion = current;
+        } catch (Exception e) {
+            log.warn("Failed to write photo index snapshot: {}", e.getMessage());
+        }
+    }
+
+    private void apply(Consumer<Map<UUID, Map<String, PhotoSummary>>> mutation) {
+        version.incrementAndGet();
+        mutation.accept(products);
+        if (mutationsDuringRebuild != null) {
+            mutationsDuringRebuild.add(mutation);
+        }
+    }
+
+    private static void add(Map<UUID, Map<String, PhotoSummary>> index, PhotoSummary photo) {
+        productIdOf(photo.path()).ifPresent(productId ->
+                index.computeIfAbsent(productId, id -> new ConcurrentHashMap<>()).put(photo.path(), photo));
+    }
+
+    private static void removeFrom(Map<UUID, Map<String, PhotoSummary>> index, String path) {
+        productIdOf(path).ifPresent(productId -> index.computeIfPresent(productId, (id, photos) -> {
+            photos.remove(path);
+            return photos.isEmpty() ? null : photos;
+        }));
+    }
+
+    private StatObjectResponse stat(String path) throws Exception {
+        StorageShard shard = shardRouter.route(path);
+        try {
+            return shard.client().statObject(
+                    StatObjectArgs.builder()
+                            .bucket(shard.bucket())
+                            .object(path)
+                            .build());
+        } catch (ErrorResponseException e) {
+            if (e.errorResponse() != null && "NoSuchKey".equals(e.errorResponse().code())) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    private static PhotoSummary summaryOf(Item item) {
+        String contentType = null;
+        if (item.userMetadata() != null) {
+            contentType = item.userMetadata().entrySet().stream()
+                    .filter(entry -> "content-type".equalsIgnoreCase(entry.getKey()))
+                    .map(Map.Entry::getValue)
+                    .findFirst()
+                    .orElse(null);
+        }
+        if (contentType == null) {
+            contentType = MediaTypeFactory.getMediaType(item.objectName())
+                    .map(MediaType::toString)
+                    .orElse(null);
+        }
+        return new PhotoSummary(item.objectName(), item.size(), contentType, item.etag(),
+                ImagePlaceholders.fromMetadata(item.userMetadata()));
+    }
+
+    // Фото продукта лежат по пути {productId}/{fileName}; прочие объекты в индекс не попадают
+    static Optional<UUID> productIdOf(String path) {
+        int slash = path.indexOf('/');
+        if (slash <= 0 || path.indexOf('/', slash + 1) >= 0 || slash == path.length() - 1) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(UUID.fromString(path.substring(0, slash)));
+        } catch (IllegalArgumentException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Место под фото, занятое на время загрузки. Закрывать после того, как фото попало в индекс
+     * или загрузка не удалась; повторное закрытие ничего не делает.
+     */
+    public final class Reservation implements AutoCloseable {
+        private final UUID productId;
+        private final String path;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Reservation(UUID productId, String path) {
+            this.productId = productId;
+            this.path = path;
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                release(productId, path);
+            }
+        }
+    }
+}
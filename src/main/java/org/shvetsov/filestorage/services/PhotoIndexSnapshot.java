@@ -0,0 +1,191 @@
+package org.shvetsov.filestorage.services;
+
+import lombok.extern.slf4j.Slf4j;
+import org.shvetsov.filestorage.configurations.IndexSnapshotProperties;
+import org.shvetsov.filestorage.dto.ImagePlaceholder;
+import org.shvetsov.filestorage.dto.PhotoSummary;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Снимок индекса фото на локальном диске.
+ * <p>
+ * Формат: {@code magic, время создания, число записей}, затем записи
+ * {@code путь, размер, content type, etag, заглушка} (строки — длина и UTF-8, -1 для null; заглушка —
+ * ширина или -1, если её нет, затем высота, цвет и blurhash), в конце CRC32
+ * всего предшествующего содержимого. Файл пишется во временный и атомарно переименовывается,
+ * читается через отображение в память; повреждённый снимок игнорируется.
+ */
+@Slf4j
+@Component
+public class PhotoIndexSnapshot {
+    // Версия 2: добавлены заглушки изображений; снимок версии 1 отбрасывается и индекс строится заново
+    private static final int MAGIC = 0x50495832;
+
+    private final IndexSnapshotProperties properties;
+
+    public PhotoIndexSnapshot(IndexSnapshotProperties properties) {
+        this.properties = properties;
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    public Duration getInterval() {
+        return properties.getInterval();
+    }
+
+    public void write(Collection<Map<String, PhotoSummary>> products) throws IOException {
+        Path target = Path.of(properties.getPath()).toAbsolutePath();
+        Files.createDirectories(target.getParent());
+        Path temp = Files.createTempFile(target.getParent(), "photo-index-", ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                CRC32 crc = new CRC32();
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        new CheckedOutputStream(new ChannelOutput(channel), crc), 64 * 1024));
+                List<PhotoSummary> photos = new ArrayList<>();
+                products.forEach(product -> photos.addAll(product.values()));
+
+                out.writeInt(MAGIC);
+                out.writeLong(System.currentTimeMillis());
+                out.writeInt(photos.size());
+                for (PhotoSummary photo : photos) {
+                    writeString(out, photo.path());
+                    out.writeLong(photo.size());
+                    writeString(out, photo.contentType());
+                    writeString(out, photo.etag());
+                    writePlaceholder(out, photo.placeholder());
+                }
+                out.flush();
+                out.writeInt((int) crc.getValue());
+                out.flush();
+                channel.force(true);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // null, если снимка нет или он повреждён
+    public List<PhotoSummary> read() {
+        Path source = Path.of(properties.getPath());
+        if (!Files.isRegularFile(source)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < 20 || size > Integer.MAX_VALUE) {
+                throw new IOException("Unexpected snapshot size " + size);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            CRC32 crc = new CRC32();
+            crc.update(buffer.slice(0, (int) size - 4));
+            if ((int) crc.getValue() != buffer.getInt((int) size - 4)) {
+                throw new IOException("Snapshot checksum mismatch");
+            }
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Bad snapshot magic");
+            }
+            buffer.getLong();
+            int count = buffer.getInt();
+            List<PhotoSummary> photos = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String path = readString(buffer);
+                long objectSize = buffer.getLong();
+                String contentType = readString(buffer);
+                String etag = readString(buffer);
+                photos.add(new PhotoSummary(path, objectSize, contentType, etag, readPlaceholder(buffer)));
+            }
+            return photos;
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            log.warn("Ignoring unreadable photo index snapshot {}: {}", source, e.getMessage());
+            return null;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writePlaceholder(DataOutputStream out, ImagePlaceholder placeholder) throws IOException {
+        if (placeholder == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(placeholder.width());
+        out.writeInt(placeholder.height());
+        writeString(out, placeholder.dominantColor());
+        writeString(out, placeholder.blurhash());
+    }
+
+    private static ImagePlaceholder readPlaceholder(ByteBuffer buffer) {
+        int width = buffer.getInt();
+        if (width < 0) {
+            return null;
+        }
+        int height = buffer.getInt();
+        String dominantColor = readString(buffer);
+        return new ImagePlaceholder(width, height, dominantColor, readString(buffer));
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static final class ChannelOutput extends OutputStream {
+        private final FileChannel channel;
+
+        private ChannelOutput(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ByteBuffer chunk = ByteBuffer.wrap(b, off, len);
+            while (chunk.hasRemaining()) {
+                channel.write(chunk);
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package org.shvetsov.filestorage.services;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Метрики выбора реплик: EWMA задержки, доступность, число выборов и сбоев по каждому эндпоинту.
+ */
+@Component
+@RequiredArgsConstructor
+public class ReplicaMetrics implements MeterBinder {
+    private final ShardRouter shardRouter;
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (StorageShard shard : shardRouter.shards()) {
+            for (ReplicaRouter.Endpoint endpoint : shard.reads().endpoints()) {
+                Gauge.builder("storage.replica.latency.ewma", endpoint, ReplicaRouter.Endpoint::ewmaMillis)
+                        .tag("shard", shard.name())
+                        .tag("endpoint", endpoint.name())
+                        .baseUnit("milliseconds")
+                        .register(registry);
+                Gauge.builder("storage.replica.healthy", endpoint, e -> e.isHealthy() ? 1 : 0)
+                        .tag("shard", shard.name())
+                        .tag("endpoint", endpoint.name())
+                        .register(registry);
+                FunctionCounter.builder("storage.replica.selected", endpoint, ReplicaRouter.Endpoint::selections)
+                        .tag("shard", shard.name())
+                        .tag("endpoint", endpoint.name())
+                        .register(registry);
+                FunctionCounter.builder("storage.replica.failures", endpoint, ReplicaRouter.Endpoint::failures)
+                        .tag("shard", shard.name())
+                        .tag("endpoint", endpoint.name())
+                        .register(registry);
+            }
+        }
+    }
+}
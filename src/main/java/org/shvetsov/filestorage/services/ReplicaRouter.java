@@ -0,0 +1,174 @@
+package org.shvetsov.filestorage.services;
+
+import io.minio.MinioClient;
+import io.minio.errors.ErrorResponseException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Выбор эндпоинта для чтения среди основного и read-only реплик шарда.
+ * <p>
+ * Чтения идут на здоровый эндпоинт с наименьшей EWMA задержки; небольшая доля запросов уходит
+ * на случайный другой, чтобы его оценка не устаревала. Сетевая ошибка выводит эндпоинт из ротации
+ * на {@code failureCooldown} и запрос повторяется на следующем. {@code NoSuchKey} с реплики
+ * перепроверяется на основном эндпоинте — репликация могла ещё не догнать запись.
+ */
+@Slf4j
+public class ReplicaRouter {
+    private static final double EXPLORATION_RATE = 0.05;
+
+    private final Endpoint primary;
+    private final List<Endpoint> endpoints;
+    private final double alpha;
+    private final long failureCooldownNanos;
+
+    public ReplicaRouter(Endpoint primary, List<Endpoint> replicas, double alpha, Duration failureCooldown) {
+        this.primary = primary;
+        List<Endpoint> all = new ArrayList<>();
+        all.add(primary);
+        all.addAll(replicas);
+        this.endpoints = List.copyOf(all);
+        this.alpha = alpha;
+        this.failureCooldownNanos = failureCooldown.toNanos();
+    }
+
+    public static ReplicaRouter primaryOnly(String name, MinioClient client) {
+        return new ReplicaRouter(new Endpoint(name, client), List.of(), 0.3, Duration.ofSeconds(30));
+    }
+
+    public <T> T read(MinioCall<T> call) throws Exception {
+        if (endpoints.size() == 1) {
+            return readFrom(primary, call);
+        }
+
+        Exception lastFailure = null;
+        for (Endpoint endpoint : candidates()) {
+            long startedAt = System.nanoTime();
+            try {
+                T result = call.call(endpoint.client());
+                endpoint.recordSuccess(System.nanoTime() - startedAt, alpha);
+                return result;
+            } catch (ErrorResponseException e) {
+                endpoint.recordSuccess(System.nanoTime() - startedAt, alpha);
+                if (endpoint != primary && isNoSuchKey(e)) {
+                    return readFrom(primary, call);
+                }
+                throw e;
+            } catch (Exception e) {
+                endpoint.recordFailure(failureCooldownNanos);
+                log.warn("Read from {} failed, trying next endpoint: {}", endpoint.name(), e.getMessage());
+                lastFailure = e;
+            }
+        }
+        throw lastFailure;
+    }
+
+    public List<Endpoint> endpoints() {
+        return endpoints;
+    }
+
+    private <T> T readFrom(Endpoint endpoint, MinioCall<T> call) throws Exception {
+        endpoint.selections.incrementAndGet();
+        long startedAt = System.nanoTime();
+        try {
+            T result = call.call(endpoint.client());
+            endpoint.recordSuccess(System.nanoTime() - startedAt, alpha);
+            return result;
+        } catch (ErrorResponseException e) {
+            endpoint.recordSuccess(System.nanoTime() - startedAt, alpha);
+            throw e;
+        } catch (Exception e) {
+            endpoint.recordFailure(failureCooldownNanos);
+            throw e;
+        }
+    }
+
+    // Здоровые по возрастанию задержки, затем выведенные из ротации — как последний шанс
+    private List<Endpoint> candidates() {
+        long now = System.nanoTime();
+        List<Endpoint> ordered = new ArrayList<>(endpoints);
+        ordered.sort(Comparator.<Endpoint>comparingInt(endpoint -> endpoint.isHealthy(now) ? 0 : 1)
+                .thenComparingDouble(Endpoint::ewmaMillis));
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (random.nextDouble() < EXPLORATION_RATE) {
+            int healthy = (int) ordered.stream().filter(endpoint -> endpoint.isHealthy(now)).count();
+            if (healthy > 1) {
+                ordered.add(0, ordered.remove(1 + random.nextInt(healthy - 1)));
+            }
+        }
+        ordered.get(0).selections.incrementAndGet();
+        return ordered;
+    }
+
+    private static boolean isNoSuchKey(ErrorResponseException e) {
+        return e.errorResponse() != null && "NoSuchKey".equals(e.errorResponse().code());
+    }
+
+    @FunctionalInterface
+    public interface MinioCall<T> {
+        T call(MinioClient client) throws Exception;
+    }
+
+    public static final class Endpoint {
+        private final String name;
+        private final MinioClient client;
+        private final AtomicLong selections = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private volatile double ewmaMillis;
+        private volatile long unhealthyUntil;
+        private volatile boolean unhealthy;
+
+        public Endpoint(String name, MinioClient client) {
+            this.name = name;
+            this.client = client;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public MinioClient client() {
+            return client;
+        }
+
+        public double ewmaMillis() {
+            return ewmaMillis;
+        }
+
+        public long selections() {
+            return selections.get();
+        }
+
+        public long failures() {
+            return failures.get();
+        }
+
+        public boolean isHealthy() {
+            return isHealthy(System.nanoTime());
+        }
+
+        private boolean isHealthy(long now) {
+            return !unhealthy || unhealthyUntil - now <= 0;
+        }
+
+        private void recordSuccess(long elapsedNanos, double alpha) {
+            double millis = elapsedNanos / 1_000_000.0;
+            double current = ewmaMillis;
+            ewmaMillis = current == 0 ? millis : alpha * millis + (1 - alpha) * current;
+            unhealthy = false;
+        }
+
+        private void recordFailure(long cooldownNanos) {
+            failures.incrementAndGet();
+            unhealthyUntil = System.nanoTime() + cooldownNanos;
+            unhealthy = true;
+        }
+    }
+}
@@ -0,0 +1,498 @@
+package org.shvetsov.filestorage.services;
+
+import io.minio.ObjectWriteResponse;
+import io.minio.messages.Part;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.validation.ValidationException;
+import lombok.extern.slf4j.Slf4j;
+import org.shvetsov.filestorage.configurations.PhotoProperties;
+import org.shvetsov.filestorage.configurations.ResumableUploadProperties;
+import org.shvetsov.filestorage.dto.ImagePlaceholder;
+import org.shvetsov.filestorage.dto.ResumableUpload;
+import org.shvetsov.filestorage.dto.StoredObject;
+import org.shvetsov.storage.StorageException;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+/**
+ * Возобновляемые загрузки в духе tus: сессия, куски по смещению, запрос текущего смещения, завершение.
+ * <p>
+ * Сессия — это multipart-загрузка MinIO. Принятые куски дописываются в локальный spool-файл и,
+ * как только там набирается {@code part-size}, уходят в MinIO очередной частью. Смещение равно
+ * объёму загруженных частей плюс размер spool-файла, поэтому после обрыва связи (и рестарта сервиса)
+ * клиент досылает только недостающее. Описание сессии хранится рядом в файле {@code .session}.
+ * <p>
+ * Загружаются только фотографии: длина ограничена {@code api.photos.max-file-size-mb}, а начало
+ * файла сверяется с заявленным типом через {@link ValidatingImageInputStream}, как только оно
+ * накопилось в spool, не дожидаясь остальных байтов. Если весь файл уходит одной частью, по ней же
+ * считаются SHA-256 и заглушка изображения, как при обычной загрузке.
+ * Куски идут через {@link TransferScheduler} как загрузки (BULK) от имени клиента запроса.
+ * <p>
+ * Сессия и spool лежат на локальном диске экземпляра, поэтому все запросы одной загрузки
+ * ({@code /files/uploads/{id}}) должны приходить на один экземпляр: балансировщику нужна
+ * привязка по id загрузки. На другом экземпляре сессия не найдётся (404).
+ */
+@Slf4j
+@Service
+public class ResumableUploadService {
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+    // Столько начала файла хватает, чтобы проверить формат и размеры
+    private static final int HEADER_CHECK_SIZE = 256 * 1024;
+
+    private final ResumableUploadProperties properties;
+    private final PhotoProperties photoProperties;
+    private final ShardRouter shardRouter;
+    private final StorageService storageService;
+    private final TransferScheduler transferScheduler;
+    private final ObjectChecksums objectChecksums;
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+    private ScheduledExecutorService cleaner;
+
+    public ResumableUploadService(ResumableUploadProperties properties, PhotoProperties photoProperties,
+                                  ShardRouter shardRouter, StorageService storageService,
+                                  TransferScheduler transferScheduler, ObjectChecksums objectChecksums) {
+        this.properties = properties;
+        this.photoProperties = photoProperties;
+        this.shardRouter = shardRouter;
+        this.storageService = storageService;
+        this.transferScheduler = transferScheduler;
+        this.objectChecksums = objectChecksums;
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        Path directory = directory();
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.session")) {
+            for (Path file : files) {
+                try {
+                    Session session = Session.load(file);
+                    session.spooled = Files.size(spoolFile(session.id));
+                    sessions.put(session.id, session);
+                } catch (IOException | RuntimeException e) {
+                    log.warn("Skipping unreadable upload session {}: {}", file, e.getMessage());
+                }
+            }
+        }
+        if (!sessions.isEmpty()) {
+            log.info("Restored {} resumable upload sessions", sessions.size());
+        }
+
+        cleaner = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "resumable-upload-cleaner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = properties.getCleanupInterval().toMillis();
+        cleaner.scheduleWithFixedDelay(this::cleanupExpired, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (cleaner != null) {
+            cleaner.shutdownNow();
+        }
+    }
+
+    public ResumableUpload create(String objectName, String contentType, long length) throws Exception {
+        if (length < 0 || length > photoProperties.getMaxFileSizeBytes()) {
+            throw new ValidationException("Upload length must be between 0 and " + photoProperties.getMaxFileSizeBytes() + " bytes");
+        }
+        StorageShard shard = shardRouter.route(objectName);
+        if (shard.multipart() == null) {
+            throw new StorageException("Resumable uploads are not available for shard " + shard.name());
+        }
+
+        String uploadId = shard.multipart().create(shard.bucket(), objectName, contentType);
+        Session session = new Session(UUID.randomUUID().toString(), objectName, contentType, length, shard.name(), uploadId);
+        Files.createFile(spoolFile(session.id));
+        session.save(sessionFile(session.id));
+        sessions.put(session.id, session);
+        log.info("Started resumable upload {} for {} ({} bytes)", session.id, objectName, length);
+        return view(session);
+    }
+
+    public ResumableUpload get(String id) throws FileNotFoundException {
+        return view(require(id));
+    }
+
+    // Дописывает кусок с указанного смещения; возвращает новое смещение
+    public ResumableUpload append(String id, long offset, InputStream body) throws Exception {
+        Session session = require(id);
+        if (!session.lock.tryLock()) {
+            throw new OffsetConflictException("Upload is already in progress", session.offset());
+        }
+        try {
+            requireActive(session);
+            if (offset != session.offset()) {
+                throw new OffsetConflictException("Upload offset is " + session.offset(), session.offset());
+            }
+
+            // Слот берётся после проверок: конфликт смещения не должен занимать очередь
+            TransferScheduler.Permit permit = transferScheduler.acquire(TrafficClass.BULK);
+            InputStream tracked = transferScheduler.track(permit, body);
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            try (FileChannel spool = FileChannel.open(spoolFile(id), StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                try {
+                    int read;
+                    while ((read = tracked.read(buffer)) >= 0) {
+                        if (session.offset() + read > session.length) {
+                            throw new ValidationException("Chunk goes past the declared upload length");
+                        }
+                        ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, read);
+                        while (chunk.hasRemaining()) {
+                            spool.write(chunk);
+                        }
+                        session.spooled += read;
+                        if (!session.headerChecked && session.uploaded == 0
+                                && session.spooled >= Math.min(HEADER_CHECK_SIZE, session.length)) {
+                            checkImage(session, readSpoolHeader(session));
+                        }
+                        if (session.spooled >= partSize()) {
+                            spool.force(false);
+                            uploadSpool(session, spool);
+                        }
+                    }
+                } finally {
+                    // Принятое до обрыва остаётся в spool и засчитывается в смещение
+                    permit.release();
+                    spool.force(false);
+                    session.updatedAt = Instant.now();
+                    if (!session.removed) {
+                        session.save(sessionFile(id));
+                    }
+                }
+            }
+            return view(session);
+        } finally {
+            session.lock.unlock();
+        }
+    }
+
+    public StoredObject complete(String id) throws Exception {
+        Session session = require(id);
+        if (!session.lock.tryLock()) {
+            throw new OffsetConflictException("Upload is already in progress", session.offset());
+        }
+        try {
+            requireActive(session);
+            if (session.offset() != session.length) {
+                throw new ValidationException("Upload is incomplete: " + session.offset() + " of " + session.length + " bytes");
+            }
+            if (session.spooled > 0 || session.parts.isEmpty()) {
+                // Последняя часть может быть меньше минимального размера
+                TransferScheduler.Permit permit = transferScheduler.acquire(TrafficClass.BULK);
+                try (FileChannel spool = FileChannel.open(spoolFile(id), StandardOpenOption.WRITE)) {
+                    uploadSpool(session, spool);
+                } finally {
+                    permit.release();
+                }
+            }
+
+            StorageShard shard = shardOf(session);
+            ObjectWriteResponse response = shard.multipart().complete(shard.bucket(), session.objectName, session.uploadId, session.parts);
+            String etag = response != null ? response.etag() : null;
+            if (session.sha256 != null) {
+                try {
+                    etag = objectChecksums.stamp(shard, session.objectName, session.contentType, etag, session.sha256,
+                            ImagePlaceholders.toMetadata(session.placeholder));
+                } catch (Exception e) {
+                    // Объект уже собран; без суммы он просто не получит сильный ETag
+                    log.warn("Failed to store checksum of {}: {}", session.objectName, e.getMessage());
+                }
+            }
+            storageService.registerWrite(session.objectName, session.length, session.contentType, etag, session.placeholder);
+            remove(session);
+            log.info("Completed resumable upload {} for {}", id, session.objectName);
+            return new StoredObject(session.objectName, etag, session.sha256);
+        } finally {
+            session.lock.unlock();
+        }
+    }
+
+    public void abort(String id) throws Exception {
+        Session session = require(id);
+        session.lock.lock();
+        try {
+            abort(session);
+        } finally {
+            session.lock.unlock();
+        }
+    }
+
+    public void cleanupExpired() {
+        Instant deadline = Instant.now().minus(properties.getExpiry());
+        for (Session session : sessions.values()) {
+            if (session.updatedAt.isBefore(deadline) && session.lock.tryLock()) {
+                try {
+                    log.info("Removing abandoned upload {} for {}", session.id, session.objectName);
+                    abort(session);
+                } catch (Exception e) {
+                    log.warn("Failed to remove abandoned upload {}: {}", session.id, e.getMessage());
+                } finally {
+                    session.lock.unlock();
+                }
+            }
+        }
+    }
+
+    private void abort(Session session) throws IOException {
+        if (session.removed) {
+            return;
+        }
+        try {
+            StorageShard shard = shardOf(session);
+            shard.multipart().abort(shard.bucket(), session.objectName, session.uploadId);
+        } catch (Exception e) {
+            // Незавершённые части тогда удалит lifecycle-политика бакета
+            log.warn("Failed to abort multipart upload {} for {}: {}", session.uploadId, session.objectName, e.getMessage());
+        }
+        remove(session);
+    }
+
+    // Отправляет содержимое spool-файла очередной частью и очищает его
+    private void uploadSpool(Session session, FileChannel spool) throws Exception {
+        StorageShard shard = shardOf(session);
+        byte[] data = Files.readAllBytes(spoolFile(session.id));
+        if (session.parts.isEmpty()) {
+            if (!session.headerChecked) {
+                checkImage(session, data);
+            }
+            if (data.length == session.length) {
+                // Весь файл в одной части: сумма и заглушка считаются сразу по ней
+                describeSinglePart(session, data);
+            }
+        }
+        int partNumber = session.parts.size() + 1;
+        String etag = shard.multipart().uploadPart(shard.bucket(), session.objectName, session.uploadId, partNumber, data);
+
+        // Сначала очищаем spool, потом сохраняем сессию: при сбое между ними смещение откатится,
+        // клиент перешлёт эти байты, и часть с тем же номером будет перезаписана
+        spool.truncate(0);
+        session.spooled = 0;
+        session.parts.add(new Part(partNumber, etag));
+        session.uploaded += data.length;
+        session.save(sessionFile(session.id));
+    }
+
+    // Первая часть содержит начало файла: подделка под картинку не должна попасть в MinIO
+    private void checkImage(Session session, byte[] data) throws IOException {
+        int length = Math.min(data.length, HEADER_CHECK_SIZE);
+        try (InputStream header = new ValidatingImageInputStream(
+                new ByteArrayInputStream(data, 0, length), session.contentType, photoProperties)) {
+            header.transferTo(OutputStream.nullOutputStream());
+        } catch (ValidatingImageInputStream.RejectedException e) {
+            log.warn("Rejected resumable upload {} for {}: {}", session.id, session.objectName, e.getMessage());
+            // Продолжать такую загрузку бессмысленно
+            abort(session);
+            throw new ValidationException(e.getMessage());
+        }
+        session.headerChecked = true;
+    }
+
+    private byte[] readSpoolHeader(Session session) throws IOException {
+        try (InputStream spool = Files.newInputStream(spoolFile(session.id))) {
+            return spool.readNBytes(HEADER_CHECK_SIZE);
+        }
+    }
+
+    private void describeSinglePart(Session session, byte[] data) throws IOException {
+        if (objectChecksums.isEnabled()) {
+            try (DigestInputStream digest = objectChecksums.wrap(new ByteArrayInputStream(data))) {
+                digest.transferTo(OutputStream.nullOutputStream());
+                session.sha256 = ObjectChecksums.hex(digest);
+            }
+        }
+        if (photoProperties.isPlaceholders()) {
+            try {
+                session.placeholder = ImagePlaceholders.compute(new ByteArrayInputStream(data),
+                        photoProperties.getMaxWidth(), photoProperties.getMaxHeight());
+            } catch (IOException e) {
+                log.debug("No placeholder for {}: {}", session.objectName, e.getMessage());
+            }
+        }
+    }
+
+    private void remove(Session session) throws IOException {
+        session.removed = true;
+        sessions.remove(session.id, session);
+        Files.deleteIfExists(sessionFile(session.id));
+        Files.deleteIfExists(spoolFile(session.id));
+    }
+
+    private Session require(String id) throws FileNotFoundException {
+        Session session = sessions.get(id);
+        if (session == null) {
+            throw new FileNotFoundException("Upload not found: " + id);
+        }
+        return session;
+    }
+
+    private void requireActive(Session session) throws FileNotFoundException {
+        if (session.removed) {
+            throw new FileNotFoundException("Upload not found: " + session.id);
+        }
+    }
+
+    private StorageShard shardOf(Session session) {
+        return shardRouter.shards().stream()
+                .filter(shard -> shard.name().equals(session.shard))
+                .findFirst()
+                .orElseThrow(() -> new StorageException("Shard of upload is no longer configured: " + session.shard));
+    }
+
+    private ResumableUpload view(Session session) {
+        return new ResumableUpload(session.id, session.objectName, session.length, session.offset(),
+                session.updatedAt.plus(properties.getExpiry()));
+    }
+
+    private long partSize() {
+        return Math.max(MIN_PART_SIZE, properties.getPartSize().toBytes());
+    }
+
+    private Path directory() {
+        return Path.of(properties.getDirectory());
+    }
+
+    private Path sessionFile(String id) {
+        return directory().resolve(id + ".session");
+    }
+
+    private Path spoolFile(String id) {
+        return directory().resolve(id + ".spool");
+    }
+
+    /**
+     * Смещение клиента не совпадает с принятым (или сессию уже пишет другой запрос).
+     */
+    public static class OffsetConflictException extends RuntimeException {
+        private final long offset;
+
+        public OffsetConflictException(String message, long offset) {
+            super(message);
+            this.offset = offset;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+    }
+
+    private static final class Session {
+        private static final String PLACEHOLDER_PREFIX = "placeholder.";
+
+        private final String id;
+        private final String objectName;
+        private final String contentType;
+        private final long length;
+        private final String shard;
+        private final String uploadId;
+        private final List<Part> parts = new ArrayList<>();
+        private final ReentrantLock lock = new ReentrantLock();
+        private long uploaded;
+        private long spooled;
+        // Начало файла уже проверено; после рестарта проверка повторяется
+        private boolean headerChecked;
+        // Известны, только если весь файл ушёл одной частью
+        private String sha256;
+        private ImagePlaceholder placeholder;
+        private volatile Instant updatedAt = Instant.now();
+        private volatile boolean removed;
+
+        private Session(String id, String objectName, String contentType, long length, String shard, String uploadId) {
+            this.id = id;
+            this.objectName = objectName;
+            this.contentType = contentType;
+            this.length = length;
+            this.shard = shard;
+            this.uploadId = uploadId;
+        }
+
+        private long offset() {
+            return uploaded + spooled;
+        }
+
+        private void save(Path file) throws IOException {
+            Properties state = new Properties();
+            state.setProperty("id", id);
+            state.setProperty("objectName", objectName);
+            if (contentType != null) {
+                state.setProperty("contentType", contentType);
+            }
+            state.setProperty("length", Long.toString(length));
+            state.setProperty("shard", shard);
+            state.setProperty("uploadId", uploadId);
+            state.setProperty("uploaded", Long.toString(uploaded));
+            state.setProperty("updatedAt", updatedAt.toString());
+            state.setProperty("parts", parts.stream()
+                    .map(part -> part.partNumber() + ":" + part.etag())
+                    .collect(Collectors.joining(";")));
+            if (sha256 != null) {
+                state.setProperty("sha256", sha256);
+            }
+            ImagePlaceholders.toMetadata(placeholder)
+                    .forEach((key, value) -> state.setProperty(PLACEHOLDER_PREFIX + key, value));
+
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                state.store(out, null);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        private static Session load(Path file) throws IOException {
+            Properties state = new Properties();
+            try (InputStream in = Files.newInputStream(file)) {
+                state.load(in);
+            }
+            Session session = new Session(state.getProperty("id"), state.getProperty("objectName"),
+                    state.getProperty("contentType"), Long.parseLong(state.getProperty("length")),
+                    state.getProperty("shard"), state.getProperty("uploadId"));
+            session.uploaded = Long.parseLong(state.getProperty("uploaded"));
+            session.updatedAt = Instant.parse(state.getProperty("updatedAt"));
+            session.sha256 = state.getProperty("sha256");
+            Map<String, String> placeholder = new HashMap<>();
+            for (String key : state.stringPropertyNames()) {
+                if (key.startsWith(PLACEHOLDER_PREFIX)) {
+                    placeholder.put(key.substring(PLACEHOLDER_PREFIX.length()), state.getProperty(key));
+                }
+            }
+            session.placeholder = ImagePlaceholders.fromMetadata(placeholder);
+            for (String part : state.getProperty("parts", "").split(";")) {
+                if (!part.isEmpty()) {
+                    int separator = part.indexOf(':');
+                    session.parts.add(new Part(Integer.parseInt(part.substring(0, separator)), part.substring(separator + 1)));
+                }
+            }
+            return session;
+        }
+    }
+}
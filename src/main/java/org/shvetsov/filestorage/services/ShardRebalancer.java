@@ -0,0 +1,187 @@
+package org.shvetsov.filestorage.services;
+
+import io.minio.*;
+import io.minio.errors.ErrorResponseException;
+import io.minio.messages.Item;
+import jakarta.validation.ValidationException;
+import lombok.extern.slf4j.Slf4j;
+import org.shvetsov.filestorage.dto.PhotoSummary;
+import org.shvetsov.filestorage.dto.RebalanceReport;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Переносит объекты, которые после изменения набора шардов оказались не в своём шарде.
+ * <p>
+ * Порядок работы при добавлении шарда: включить {@code minio.shard-fallback-lookup}, задеплоить новый
+ * список шардов, запустить ребалансировку, после её окончания выключить fallback.
+ * <p>
+ * Новые записи уже идут в целевой шард, поэтому копия там считается не старее исходной и не
+ * перезаписывается. Исходный объект удаляется, только если его etag не изменился с момента
+ * копирования; между проверкой и удалением остаётся узкое окно, условного удаления у MinIO нет.
+ */
+@Slf4j
+@Service
+public class ShardRebalancer {
+    private final ShardRouter shardRouter;
+    private final MetadataCache metadataCache;
+    private final NegativeLookupCache negativeLookupCache;
+    private final InvalidationBus invalidationBus;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicLong scanned = new AtomicLong();
+    private final AtomicLong misplaced = new AtomicLong();
+    private final AtomicLong moved = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private volatile boolean dryRun;
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+
+    public ShardRebalancer(ShardRouter shardRouter, MetadataCache metadataCache,
+                           NegativeLookupCache negativeLookupCache, InvalidationBus invalidationBus) {
+        this.shardRouter = shardRouter;
+        this.metadataCache = metadataCache;
+        this.negativeLookupCache = negativeLookupCache;
+        this.invalidationBus = invalidationBus;
+    }
+
+    // Запускает ребалансировку в фоне; dryRun только считает объекты не на своих местах
+    public RebalanceReport start(boolean dryRun) {
+        if (!running.compareAndSet(false, true)) {
+            throw new ValidationException("Rebalance is already running");
+        }
+        this.dryRun = dryRun;
+        scanned.set(0);
+        misplaced.set(0);
+        moved.set(0);
+        skipped.set(0);
+        failed.set(0);
+        startedAt = Instant.now();
+        finishedAt = null;
+
+        Thread.ofVirtual().name("shard-rebalancer").start(this::run);
+        return report();
+    }
+
+    public RebalanceReport report() {
+        return new RebalanceReport(running.get(), dryRun, scanned.get(), misplaced.get(),
+                moved.get(), skipped.get(), failed.get(), startedAt, finishedAt);
+    }
+
+    private void run() {
+        try {
+            for (StorageShard source : shardRouter.shards()) {
+                rebalanceShard(source);
+            }
+            log.info("Shard rebalance finished: {}", report());
+        } catch (Exception e) {
+            log.error("Shard rebalance failed", e);
+        } finally {
+            finishedAt = Instant.now();
+            running.set(false);
+        }
+    }
+
+    private void rebalanceShard(StorageShard source) throws Exception {
+        Iterable<Result<Item>> results = source.client().listObjects(
+                ListObjectsArgs.builder()
+                        .bucket(source.bucket())
+                        .recursive(true)
+                        .build());
+
+        for (Result<Item> result : results) {
+            Item item = result.get();
+            if (item.isDir()) {
+                continue;
+            }
+            scanned.incrementAndGet();
+
+            StorageShard target = shardRouter.route(item.objectName());
+            if (target.name().equals(source.name())) {
+                continue;
+            }
+            misplaced.incrementAndGet();
+            if (dryRun) {
+                continue;
+            }
+
+            try {
+                if (move(source, target, item.objectName())) {
+                    moved.incrementAndGet();
+                } else {
+                    skipped.incrementAndGet();
+                }
+            } catch (Exception e) {
+                failed.incrementAndGet();
+                log.error("Failed to move {} from shard {} to {}", item.objectName(), source.name(), target.name(), e);
+            }
+        }
+    }
+
+    // false, если исходный объект изменился во время переноса и оставлен на месте
+    private boolean move(StorageShard source, StorageShard target, String objectName) throws Exception {
+        StatObjectResponse metadata = stat(source, objectName);
+        if (metadata == null) {
+            // Удалили после листинга
+            return false;
+        }
+
+        StatObjectResponse copied = stat(target, objectName);
+        if (copied == null) {
+            try (GetObjectResponse stream = source.client().getObject(
+                    GetObjectArgs.builder()
+                            .bucket(source.bucket())
+                            .object(objectName)
+                            .matchETag(metadata.etag())
+                            .build())) {
+                target.client().putObject(
+                        PutObjectArgs.builder()
+                                .bucket(target.bucket())
+                                .object(objectName)
+                                .stream(stream, metadata.size(), -1)
+                                .contentType(metadata.contentType())
+                                .userMetadata(metadata.userMetadata())
+                                .build());
+            }
+            copied = metadata;
+        }
+
+        StatObjectResponse current = stat(source, objectName);
+        boolean unchanged = current != null && current.etag().equals(metadata.etag());
+        if (unchanged) {
+            source.client().removeObject(
+                    RemoveObjectArgs.builder()
+                            .bucket(source.bucket())
+                            .object(objectName)
+                            .build());
+        } else {
+            log.warn("Object {} changed in shard {} while moving, left in place", objectName, source.name());
+        }
+
+        // Соседи могли запомнить промах в целевом шарде до переноса
+        metadataCache.invalidate(objectName);
+        negativeLookupCache.markPresent(objectName);
+        invalidationBus.publish(Invalidation.write(new PhotoSummary(objectName, copied.size(), copied.contentType(),
+                copied.etag(), ImagePlaceholders.fromMetadata(copied.userMetadata()))));
+        return unchanged;
+    }
+
+    private static StatObjectResponse stat(StorageShard shard, String objectName) throws Exception {
+        try {
+            return shard.client().statObject(
+                    StatObjectArgs.builder()
+                            .bucket(shard.bucket())
+                            .object(objectName)
+                            .build());
+        } catch (ErrorResponseException e) {
+            if (e.errorResponse() != null && "NoSuchKey".equals(e.errorResponse().code())) {
+                return null;
+            }
+            throw e;
+        }
+    }
+}
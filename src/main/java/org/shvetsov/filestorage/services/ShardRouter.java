@@ -0,0 +1,88 @@
+package org.shvetsov.filestorage.services;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Маршрутизация объектов по шардам консистентным хешированием.
+ * <p>
+ * Ключ шардирования — первый сегмент пути ({@code productId}), поэтому все фото продукта
+ * лежат в одном шарде. Каждый шард занимает {@code virtualNodes} точек на кольце, так что
+ * при добавлении шарда переезжает примерно 1/N ключей.
+ */
+public class ShardRouter {
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final List<StorageShard> shards;
+    private final NavigableMap<Long, StorageShard> ring = new TreeMap<>();
+    private final boolean fallbackLookup;
+
+    public ShardRouter(List<StorageShard> shards, int virtualNodes, boolean fallbackLookup) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("At least one storage shard is required");
+        }
+        // Имя шарда задаёт его точки на кольце: одинаковые имена делили бы одни и те же точки
+        Set<String> names = new HashSet<>();
+        for (StorageShard shard : shards) {
+            if (shard.name() == null || shard.name().isBlank()) {
+                throw new IllegalArgumentException("Storage shard name is required");
+            }
+            if (!names.add(shard.name())) {
+                throw new IllegalArgumentException("Duplicate storage shard name: " + shard.name());
+            }
+        }
+        this.shards = List.copyOf(shards);
+        this.fallbackLookup = fallbackLookup;
+        for (StorageShard shard : shards) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.put(hash(shard.name() + "#" + i), shard);
+            }
+        }
+    }
+
+    public StorageShard route(String objectName) {
+        return routeKey(shardKey(objectName));
+    }
+
+    public StorageShard routeKey(String shardKey) {
+        if (shards.size() == 1) {
+            return shards.get(0);
+        }
+        Map.Entry<Long, StorageShard> entry = ring.ceilingEntry(hash(shardKey));
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    // Шарды, в которых может лежать что-то с данным префиксом
+    public List<StorageShard> shardsForPrefix(String prefix) {
+        if (prefix != null && prefix.indexOf('/') > 0) {
+            return List.of(route(prefix));
+        }
+        return shards;
+    }
+
+    public List<StorageShard> shards() {
+        return shards;
+    }
+
+    // Включается на время ребалансировки: промах в целевом шарде проверяется в остальных
+    public boolean isFallbackLookup() {
+        return fallbackLookup;
+    }
+
+    public static String shardKey(String objectName) {
+        int slash = objectName.indexOf('/');
+        return slash > 0 ? objectName.substring(0, slash) : objectName;
+    }
+
+    private static long hash(String value) {
+        return HASH.hashString(value, StandardCharsets.UTF_8).asLong();
+    }
+}
@@ -0,0 +1,69 @@
+package org.shvetsov.filestorage.services;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.aot.AotDetector;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.support.ServletRequestHandledEvent;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Время старта от запуска JVM: контекст готов, бакеты проверены, обслужен первый запрос.
+ * <p>
+ * Отсчёт от старта JVM, а не от {@code SpringApplication.run}, чтобы в замер попадала загрузка
+ * классов, которую сокращает архив CDS. Значения пишутся в лог и в метрики
+ * {@code application.buckets.ready.time} и {@code application.first.request.time}.
+ */
+@Slf4j
+@Component
+public class StartupTimings implements MeterBinder {
+    private final AtomicLong bucketsReadyMillis = new AtomicLong(-1);
+    private final AtomicLong firstRequestMillis = new AtomicLong(-1);
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onReady() {
+        boolean cds = ManagementFactory.getRuntimeMXBean().getInputArguments().stream()
+                .anyMatch(argument -> argument.startsWith("-XX:SharedArchiveFile"));
+        log.info("Application ready {} ms after JVM start (AOT: {}, CDS archive: {})",
+                uptimeMillis(), AotDetector.useGeneratedArtifacts(), cds);
+    }
+
+    @EventListener(BucketsReadyEvent.class)
+    public void onBucketsReady() {
+        if (bucketsReadyMillis.compareAndSet(-1, uptimeMillis())) {
+            log.info("Buckets ready {} ms after JVM start", bucketsReadyMillis.get());
+        }
+    }
+
+    @EventListener(ServletRequestHandledEvent.class)
+    public void onRequestHandled() {
+        if (firstRequestMillis.get() < 0 && firstRequestMillis.compareAndSet(-1, uptimeMillis())) {
+            log.info("First request served {} ms after JVM start", firstRequestMillis.get());
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        TimeGauge.builder("application.buckets.ready.time", bucketsReadyMillis, TimeUnit.MILLISECONDS, StartupTimings::valueOrNaN)
+                .register(registry);
+        TimeGauge.builder("application.first.request.time", firstRequestMillis, TimeUnit.MILLISECONDS, StartupTimings::valueOrNaN)
+                .register(registry);
+    }
+
+    // До события метрика пустая, а не ноль
+    private static double valueOrNaN(AtomicLong millis) {
+        long value = millis.get();
+        return value < 0 ? Double.NaN : value;
+    }
+
+    private static long uptimeMillis() {
+        return ManagementFactory.getRuntimeMXBean().getUptime();
+    }
+}
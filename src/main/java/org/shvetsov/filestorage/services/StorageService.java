@@ -5,7 +5,9 @@ import io.minio.errors.ErrorResponseException;
 import io.minio.messages.Item;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.shvetsov.filestorage.configurations.StorageProperties;
+import org.shvetsov.filestorage.dto.ImagePlaceholder;
+import org.shvetsov.filestorage.dto.PhotoSummary;
+import org.shvetsov.filestorage.dto.StoredObject;
 import org.shvetsov.storage.StorageException;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.core.io.InputStreamResource;
@@ -15,62 +17,155 @@ import org.springframework.web.multipart.MultipartFile;
 
 import io.minio.http.Method;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.security.DigestInputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class StorageService {
-    private final MinioClient minioClient;
-    private final StorageProperties properties;
+    private final ShardRouter shardRouter;
+    private final NegativeLookupCache negativeLookupCache;
+    private final ObjectBodyCoalescer objectBodyCoalescer;
+    private final MetadataCache metadataCache;
+    private final WriteBehindJournal writeBehindJournal;
+    private final PhotoIndex photoIndex;
+    private final ObjectChecksums objectChecksums;
+    private final TransferScheduler transferScheduler;
+    private final InvalidationBus invalidationBus;
+    private final SingleFlight<String, Lookup> statFlight = new SingleFlight<>();
 
     // 1. Загрузка файла
     public String uploadFile(MultipartFile file, String objectName) throws Exception {
-        minioClient.putObject(
+        try (InputStream stream = file.getInputStream()) {
+            return uploadFile(stream, file.getSize(), file.getContentType(), objectName).objectName();
+        }
+    }
+
+    // 1.1. Загрузка из потока (например, проверяющего содержимое на лету); SHA-256 считается попутно
+    public StoredObject uploadFile(InputStream stream, long size, String contentType, String objectName) throws Exception {
+        return uploadFile(stream, size, contentType, objectName, null);
+    }
+
+    // 1.2. То же с заглушкой изображения, которая сохраняется в user metadata
+    public StoredObject uploadFile(InputStream stream, long size, String contentType, String objectName,
+                                   ImagePlaceholder placeholder) throws Exception {
+        // Загрузки идут классом BULK и не вытесняют просмотр
+        TransferScheduler.Permit permit = transferScheduler.acquire(TrafficClass.BULK);
+        try {
+            return store(transferScheduler.track(permit, stream), size, contentType, objectName, placeholder);
+        } finally {
+            permit.release();
+        }
+    }
+
+    private StoredObject store(InputStream stream, long size, String contentType, String objectName,
+                               ImagePlaceholder placeholder) throws Exception {
+        DigestInputStream digest = objectChecksums.isEnabled() ? objectChecksums.wrap(stream) : null;
+        InputStream body = digest != null ? digest : stream;
+
+        if (writeBehindJournal.isEnabled()) {
+            // Подтверждаем после fsync в журнал, в MinIO объект уйдёт в фоне (сумму запишет flusher)
+            // Журнал хранит только content type: заглушка попадёт в индекс, но не в метаданные объекта
+            writeBehindJournal.append(objectName, contentType, size, body);
+            registerWrite(objectName, size, contentType, null, placeholder);
+            return new StoredObject(objectName, null, digest != null ? ObjectChecksums.hex(digest) : null);
+        }
+
+        Map<String, String> userMetadata = ImagePlaceholders.toMetadata(placeholder);
+        StorageShard shard = shardRouter.route(objectName);
+        ObjectWriteResponse response = shard.client().putObject(
                 PutObjectArgs.builder()
-                        .bucket(properties.getBucket())
+                        .bucket(shard.bucket())
                         .object(objectName)
-                        .stream(file.getInputStream(), file.getSize(), -1)
-                        .contentType(file.getContentType())
+                        .stream(body, size, -1)
+                        .contentType(contentType)
+                        .userMetadata(userMetadata)
                         .build());
-        return objectName;
+        String etag = response != null ? response.etag() : null;
+        String sha256 = null;
+        if (digest != null) {
+            sha256 = ObjectChecksums.hex(digest);
+            try {
+                etag = objectChecksums.stamp(shard, objectName, contentType, etag, sha256, userMetadata);
+            } catch (Exception e) {
+                // Тело уже сохранено; без суммы объект просто не получит сильный ETag
+                log.warn("Failed to store checksum of {}: {}", objectName, e.getMessage());
+            }
+        }
+        registerWrite(objectName, size, contentType, etag, placeholder);
+        return new StoredObject(objectName, etag, sha256);
+    }
+
+    // 1.3. Объект записан в обход uploadFile (например, собран из частей): обновляем кэши и индекс
+    public void registerWrite(String objectName, long size, String contentType, String etag) {
+        registerWrite(objectName, size, contentType, etag, null);
+    }
+
+    // 1.4. То же с заглушкой изображения, посчитанной вызывающим
+    public void registerWrite(String objectName, long size, String contentType, String etag, ImagePlaceholder placeholder) {
+        PhotoSummary photo = new PhotoSummary(objectName, size, contentType, etag, placeholder);
+        metadataCache.invalidate(objectName);
+        negativeLookupCache.markPresent(objectName);
+        photoIndex.put(photo);
+        invalidationBus.publish(Invalidation.write(photo));
     }
 
     // 2. Удаление файла
     public void deleteFile(String objectName) throws Exception {
-        minioClient.removeObject(
+        if (writeBehindJournal.isEnabled()) {
+            writeBehindJournal.discard(objectName);
+        }
+        long startedAt = System.nanoTime();
+        StorageShard shard = locate(objectName);
+        shard.client().removeObject(
                 RemoveObjectArgs.builder()
-                        .bucket(properties.getBucket())
+                        .bucket(shard.bucket())
                         .object(objectName)
                         .build());
+        metadataCache.invalidate(objectName);
+        // Загрузка, завершившаяся во время удаления, могла лечь поверх — тогда промах не запоминаем
+        negativeLookupCache.markMissing(objectName, startedAt);
+        photoIndex.remove(objectName);
+        invalidationBus.publish(Invalidation.delete(objectName));
     }
 
-    // 3. Получение файла как byte[]
+    // 3. Получение файла как byte[]; массив выделяется один раз по размеру из метаданных
     public byte[] getFileBytes(String objectName) throws Exception {
-        try (InputStream stream = minioClient.getObject(
-                GetObjectArgs.builder()
-                        .bucket(properties.getBucket())
-                        .object(objectName)
-                        .build());
-             ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
+        return getFileBytes(objectName, TrafficClass.INTERACTIVE, transferScheduler.currentClient());
+    }
 
-            stream.transferTo(outputStream);
-            return outputStream.toByteArray();
+    // Чтение от имени клиента и в классе трафика, заданных явно (фоновые задачи вне потока запроса)
+    public byte[] getFileBytes(String objectName, TrafficClass trafficClass, String client) throws Exception {
+        long size = getFileMetadata(objectName).size();
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new StorageException("File is too large to load into memory: " + objectName);
+        }
+        try (InputStream stream = openObject(objectName, trafficClass, client)) {
+            byte[] content = new byte[(int) size];
+            int read = stream.readNBytes(content, 0, content.length);
+            if (read != content.length || stream.read() >= 0) {
+                // Объект заменили между stat и чтением
+                throw new IOException("Size of " + objectName + " changed while reading");
+            }
+            return content;
         }
     }
 
     // 4. Получение временной ссылки на файл
     public String getFileUrl(String objectName, int expiryDays) throws Exception {
-        return minioClient.getPresignedObjectUrl(
+        StorageShard shard = locate(objectName);
+        return shard.client().getPresignedObjectUrl(
                 GetPresignedObjectUrlArgs.builder()
                         .method(Method.GET)
-                        .bucket(properties.getBucket())
+                        .bucket(shard.bucket())
                         .object(objectName)
                         .expiry(expiryDays, TimeUnit.DAYS)
                         .build());
@@ -79,32 +174,39 @@ public class StorageService {
     // 5. Получение списка файлов в папке
     public List<String> listFiles(String prefix) throws Exception {
         List<String> fileNames = new ArrayList<>();
-        Iterable<Result<Item>> results = minioClient.listObjects(
-                ListObjectsArgs.builder()
-                        .bucket(properties.getBucket())
-                        .prefix(prefix)
-                        .recursive(false)
-                        .build());
+        long listingStartedAt = System.nanoTime();
+        for (StorageShard shard : shardRouter.shardsForPrefix(prefix)) {
+            Iterable<Result<Item>> results = shard.client().listObjects(
+                    ListObjectsArgs.builder()
+                            .bucket(shard.bucket())
+                            .prefix(prefix)
+                            .recursive(false)
+                            .build());
 
-        for (Result<Item> result : results) {
-            fileNames.add(result.get().objectName());
+            for (Result<Item> result : results) {
+                fileNames.add(result.get().objectName());
+            }
         }
+        negativeLookupCache.rebuildPrefix(prefix, fileNames, listingStartedAt);
         return fileNames;
     }
 
     // 6. Проверка существования файла
     public boolean fileExists(String objectName) {
-        try {
-            minioClient.statObject(
-                    StatObjectArgs.builder()
-                            .bucket(properties.getBucket())
-                            .object(objectName)
-                            .build());
+        if (writeBehindJournal.get(objectName) != null) {
             return true;
-        } catch (ErrorResponseException e) {
-            if (e.errorResponse() != null && "NoSuchKey".equals(e.errorResponse().code())) {
+        }
+        if (negativeLookupCache.isKnownMissing(objectName)) {
+            return false;
+        }
+        try {
+            Lookup lookup = cachedLookup(objectName);
+            if (lookup.missing() != null) {
+                negativeLookupCache.markMissing(objectName, lookup.startedAt());
                 return false;
             }
+            return true;
+        } catch (ErrorResponseException e) {
             log.error("Error checking file existence: {}", objectName, e);
             throw new StorageException("Error checking file existence: " + objectName);
         } catch (Exception e) {
@@ -113,20 +215,47 @@ public class StorageService {
         }
     }
 
+    // 6.1. SHA-256 содержимого, записанная при загрузке (null для старых и ещё не выгруженных объектов)
+    public String getChecksum(String objectName) {
+        return ObjectChecksums.checksumOf(getFileMetadata(objectName));
+    }
+
+    // 6.2. Заглушка изображения из метаданных (null, если её не считали)
+    public ImagePlaceholder getPlaceholder(String objectName) {
+        return ImagePlaceholders.fromMetadata(getFileMetadata(objectName).userMetadata());
+    }
+
     // 7. Получение метаданных файла
     public StatObjectResponse getFileMetadata(String objectName) {
+        WriteBehindJournal.PendingEntry pending = writeBehindJournal.get(objectName);
+        if (pending != null) {
+            return writeBehindJournal.metadata(pending);
+        }
         try {
-            return minioClient.statObject(
-                    StatObjectArgs.builder()
-                            .bucket(properties.getBucket())
-                            .object(objectName)
-                            .build());
+            return statObject(objectName);
         } catch (Exception e) {
             log.error("Failed to get file metadata: {}", objectName, e);
             throw new StorageException("Failed to get file metadata: " + objectName);
         }
     }
 
+    // Прогрев пути до readiness: метаданные в кэш на prewarmed-ttl или промах в кэш промахов
+    public boolean prewarm(String objectName) throws Exception {
+        if (writeBehindJournal.get(objectName) != null) {
+            return true;
+        }
+        if (negativeLookupCache.isKnownMissing(objectName)) {
+            return false;
+        }
+        Lookup lookup = lookup(objectName);
+        if (lookup.missing() != null) {
+            negativeLookupCache.markMissing(objectName, lookup.startedAt());
+            return false;
+        }
+        metadataCache.putPrewarmed(objectName, lookup.metadata(), lookup.startedAt());
+        return true;
+    }
+
     public String generateObjectName(UUID productId, UUID fileId, String originalFilename) {
         // Получаем расширение файла
         String extension = originalFilename.substring(originalFilename.lastIndexOf("."));
@@ -140,21 +269,20 @@ public class StorageService {
 
     // 8. Получение файла как InputStream (для потоковой передачи)
     public InputStream getFileAsStream(String objectName) throws Exception {
-        return minioClient.getObject(
-                GetObjectArgs.builder()
-                        .bucket(properties.getBucket())
-                        .object(objectName)
-                        .build());
+        return getFileAsStream(objectName, TrafficClass.INTERACTIVE, transferScheduler.currentClient());
+    }
+
+    public InputStream getFileAsStream(String objectName, TrafficClass trafficClass, String client) throws Exception {
+        return scheduled(trafficClass, client, () -> {
+            InputStream pending = openPending(objectName);
+            return pending != null ? pending : getObject(objectName);
+        });
     }
 
     // 9. Получение файла как Resource (для контроллеров)
     public Resource getFileAsResource(String objectName) {
         try {
-            InputStream stream = minioClient.getObject(
-                    GetObjectArgs.builder()
-                            .bucket(properties.getBucket())
-                            .object(objectName)
-                            .build());
+            InputStream stream = openObject(objectName, TrafficClass.INTERACTIVE, transferScheduler.currentClient());
 
             return new InputStreamResource(stream) {
                 @Override
@@ -168,9 +296,139 @@ public class StorageService {
                 }
             };
 
+        } catch (TransferScheduler.BusyException e) {
+            throw e;
         } catch (Exception e) {
             log.error("Failed to get file as resource: {}", objectName, e);
             throw new StorageException("Failed to get file: " + objectName);
         }
     }
+
+    // Тело объекта: из журнала write-behind, если он ещё не выгружен, иначе через общий GET
+    private InputStream openObject(String objectName, TrafficClass trafficClass, String client) throws Exception {
+        return scheduled(trafficClass, client, () -> {
+            InputStream pending = openPending(objectName);
+            if (pending != null) {
+                return pending;
+            }
+            return objectBodyCoalescer.open(objectName, metadataCache.writeGeneration(objectName),
+                    () -> getObject(objectName));
+        });
+    }
+
+    // Чтение держит слот своего класса, пока поток не закрыт
+    private InputStream scheduled(TrafficClass trafficClass, String client, Callable<InputStream> opener) throws Exception {
+        TransferScheduler.Permit permit = transferScheduler.acquire(trafficClass, client);
+        try {
+            return transferScheduler.track(permit, opener.call());
+        } catch (Exception e) {
+            permit.release();
+            throw e;
+        }
+    }
+
+    private InputStream openPending(String objectName) {
+        WriteBehindJournal.PendingEntry entry = writeBehindJournal.get(objectName);
+        return entry != null ? writeBehindJournal.openBody(entry) : null;
+    }
+
+    // Одновременные stat одного объекта выполняются одним запросом, результат кэшируется ненадолго
+    private StatObjectResponse statObject(String objectName) throws Exception {
+        Lookup lookup = cachedLookup(objectName);
+        if (lookup.missing() != null) {
+            throw lookup.missing();
+        }
+        return lookup.metadata();
+    }
+
+    private Lookup cachedLookup(String objectName) throws Exception {
+        StatObjectResponse cached = metadataCache.get(objectName);
+        if (cached != null) {
+            return new Lookup(cached, null, System.nanoTime());
+        }
+        Lookup lookup = lookup(objectName);
+        metadataCache.put(objectName, lookup.metadata(), lookup.startedAt());
+        return lookup;
+    }
+
+    // stat через общий запрос; если объект записали после начала запроса, к которому мы
+    // присоединились, его результат мог устареть — один раз спрашиваем заново
+    private Lookup lookup(String objectName) throws Exception {
+        Lookup lookup = statFlight.execute(objectName, () -> statLookup(objectName));
+        if (metadataCache.writtenSince(objectName, lookup.startedAt())) {
+            lookup = statFlight.execute(objectName, () -> statLookup(objectName));
+        }
+        return lookup;
+    }
+
+    private Lookup statLookup(String objectName) throws Exception {
+        long startedAt = System.nanoTime();
+        StorageShard home = shardRouter.route(objectName);
+        try {
+            return new Lookup(statObject(home, objectName), null, startedAt);
+        } catch (ErrorResponseException e) {
+            if (!isNoSuchKey(e)) {
+                throw e;
+            }
+            if (shardRouter.isFallbackLookup()) {
+                for (StorageShard shard : shardRouter.shards()) {
+                    if (shard != home && exists(shard, objectName)) {
+                        return new Lookup(statObject(shard, objectName), null, startedAt);
+                    }
+                }
+            }
+            return new Lookup(null, e, startedAt);
+        }
+    }
+
+    private GetObjectResponse getObject(String objectName) throws Exception {
+        StorageShard shard = locate(objectName);
+        return shard.reads().read(client -> client.getObject(
+                GetObjectArgs.builder()
+                        .bucket(shard.bucket())
+                        .object(objectName)
+                        .build()));
+    }
+
+    // Шард, где лежит объект: целевой по кольцу, а во время ребалансировки — любой, где он найден
+    private StorageShard locate(String objectName) throws Exception {
+        StorageShard home = shardRouter.route(objectName);
+        if (!shardRouter.isFallbackLookup() || exists(home, objectName)) {
+            return home;
+        }
+        for (StorageShard shard : shardRouter.shards()) {
+            if (shard != home && exists(shard, objectName)) {
+                return shard;
+            }
+        }
+        return home;
+    }
+
+    private boolean exists(StorageShard shard, String objectName) throws Exception {
+        try {
+            statObject(shard, objectName);
+            return true;
+        } catch (ErrorResponseException e) {
+            if (isNoSuchKey(e)) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    private static StatObjectResponse statObject(StorageShard shard, String objectName) throws Exception {
+        return shard.reads().read(client -> client.statObject(
+                StatObjectArgs.builder()
+                        .bucket(shard.bucket())
+                        .object(objectName)
+                        .build()));
+    }
+
+    private static boolean isNoSuchKey(ErrorResponseException e) {
+        return e.errorResponse() != null && "NoSuchKey".equals(e.errorResponse().code());
+    }
+
+    // Результат stat: метаданные или NoSuchKey, и когда запрос начался (System.nanoTime)
+    private record Lookup(StatObjectResponse metadata, ErrorResponseException missing, long startedAt) {
+    }
 }
@@ -0,0 +1,16 @@
+package org.shvetsov.filestorage.services;
+
+import io.minio.MinioClient;
+
+/**
+ * Один шард хранилища: эндпоинт MinIO и бакет на нём.
+ * <p>
+ * Запись всегда идёт в {@code client}; чтения — через {@code reads}, который может выбрать реплику.
+ * {@code multipart} нужен только возобновляемым загрузкам и может отсутствовать.
+ */
+public record StorageShard(String name, String bucket, MinioClient client, ReplicaRouter reads, MultipartClient multipart) {
+
+    public StorageShard(String name, String bucket, MinioClient client) {
+        this(name, bucket, client, ReplicaRouter.primaryOnly(name, client), null);
+    }
+}
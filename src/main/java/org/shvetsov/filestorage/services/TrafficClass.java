@@ -0,0 +1,11 @@
+package org.shvetsov.filestorage.services;
+
+/**
+ * Класс трафика для справедливого деления полосы и слотов передачи.
+ */
+public enum TrafficClass {
+    // Чтения, которых ждёт пользователь (просмотр, скачивание)
+    INTERACTIVE,
+    // Загрузки и прочие массовые записи
+    BULK
+}
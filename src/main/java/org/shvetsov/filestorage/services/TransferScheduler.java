@@ -0,0 +1,382 @@
+package org.shvetsov.filestorage.services;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.RateLimiter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.servlet.http.HttpServletRequest;
+import org.shvetsov.filestorage.configurations.TrafficProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.Cleaner;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Справедливое деление передач между классами трафика и клиентами.
+ * <p>
+ * Слоты {@code max-concurrent} раздаются взвешенной очередью: между классами по их весам,
+ * внутри класса — между клиентами (заголовок {@code client-header} или адрес) по весам клиентов.
+ * Каждая очередь ведёт виртуальное время, которое растёт на {@code 1/вес} за выданный слот;
+ * следующим получает слот ожидающий с наименьшим временем. Поверх слотов тело передачи
+ * проходит через token bucket класса и клиента.
+ * <p>
+ * Слот чтения держится, пока не закрыт поток ответа; незакрытый поток вернёт слот при сборке мусора.
+ * Поэтому медленные клиенты занимают слоты всё время скачивания: планировщик включается явно
+ * ({@code storage.traffic.enabled}), а {@code max-concurrent} стоит подбирать с запасом на них.
+ */
+@Component
+public class TransferScheduler implements MeterBinder {
+    public static final String SYSTEM_CLIENT = "system";
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final TrafficProperties properties;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<TrafficClass, ClassQueue> queues = new EnumMap<>(TrafficClass.class);
+    private final Cache<String, RateLimiter> clientLimiters = CacheBuilder.newBuilder()
+            .expireAfterAccess(10, TimeUnit.MINUTES)
+            .maximumSize(10_000)
+            .build();
+    private int active;
+    private double systemTime;
+
+    public TransferScheduler(TrafficProperties properties) {
+        this.properties = properties;
+        queues.put(TrafficClass.INTERACTIVE, new ClassQueue(properties.getInteractive()));
+        queues.put(TrafficClass.BULK, new ClassQueue(properties.getBulk()));
+    }
+
+    // Ждёт слот для передачи; BusyException, если не дождался за queue-timeout
+    public Permit acquire(TrafficClass trafficClass) {
+        return acquire(trafficClass, currentClient());
+    }
+
+    // Слот от имени явно указанного клиента: для работы вне потока запроса
+    public Permit acquire(TrafficClass trafficClass, String client) {
+        ClassQueue queue = queues.get(trafficClass);
+        if (!properties.isEnabled()) {
+            return new Permit(queue, client, false);
+        }
+        long startedAt = System.nanoTime();
+        lock.lock();
+        try {
+            if (queue.waiting == 0 && hasSlot(queue)) {
+                grant(queue);
+            } else {
+                Waiter waiter = enqueue(queue, client);
+                long remaining = properties.getQueueTimeout().toNanos();
+                while (!waiter.granted) {
+                    if (remaining <= 0) {
+                        queue.remove(waiter);
+                        queue.rejected++;
+                        throw new BusyException("Storage is busy, retry later");
+                    }
+                    try {
+                        remaining = waiter.signal.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        if (waiter.granted) {
+                            release(queue);
+                        } else {
+                            queue.remove(waiter);
+                        }
+                        Thread.currentThread().interrupt();
+                        throw new BusyException("Interrupted while waiting for a transfer slot");
+                    }
+                }
+            }
+            queue.waitNanos += System.nanoTime() - startedAt;
+            queue.granted++;
+        } finally {
+            lock.unlock();
+        }
+        return new Permit(queue, client, true);
+    }
+
+    // Поток, который расходует полосу разрешения и возвращает слот при закрытии
+    public InputStream track(Permit permit, InputStream stream) {
+        ThrottledInputStream throttled = new ThrottledInputStream(stream, permit);
+        CLEANER.register(throttled, permit::release);
+        return throttled;
+    }
+
+    public int queued(TrafficClass trafficClass) {
+        lock.lock();
+        try {
+            return queues.get(trafficClass).waiting;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int active(TrafficClass trafficClass) {
+        lock.lock();
+        try {
+            return queues.get(trafficClass).active;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long transferredBytes(TrafficClass trafficClass) {
+        return queues.get(trafficClass).bytes.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (TrafficClass trafficClass : TrafficClass.values()) {
+            ClassQueue queue = queues.get(trafficClass);
+            String tag = trafficClass.name().toLowerCase();
+            Gauge.builder("storage.traffic.queued", () -> queued(trafficClass)).tag("class", tag).register(registry);
+            Gauge.builder("storage.traffic.active", () -> active(trafficClass)).tag("class", tag).register(registry);
+            FunctionCounter.builder("storage.traffic.bytes", queue.bytes, AtomicLong::get)
+                    .tag("class", tag).baseUnit("bytes").register(registry);
+            FunctionCounter.builder("storage.traffic.rejected", queue, q -> q.rejected).tag("class", tag).register(registry);
+            FunctionTimer.builder("storage.traffic.wait", queue, q -> q.granted, q -> q.waitNanos, TimeUnit.NANOSECONDS)
+                    .tag("class", tag).register(registry);
+        }
+    }
+
+    private boolean hasSlot(ClassQueue queue) {
+        return active < properties.getMaxConcurrent() && queue.active < queue.limits.getMaxConcurrent();
+    }
+
+    private void grant(ClassQueue queue) {
+        active++;
+        queue.active++;
+    }
+
+    private Waiter enqueue(ClassQueue queue, String client) {
+        if (queue.waiting == 0) {
+            // Простаивавший класс не копит кредит: догоняет текущее виртуальное время
+            queue.virtualTime = Math.max(queue.virtualTime, systemTime);
+        }
+        Flow flow = queue.flows.computeIfAbsent(client, key -> new Flow(queue.flowTime));
+        Waiter waiter = new Waiter(lock.newCondition());
+        flow.waiters.add(waiter);
+        queue.waiting++;
+        return waiter;
+    }
+
+    private void release(ClassQueue queue) {
+        lock.lock();
+        try {
+            active--;
+            queue.active--;
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Раздаёт освободившиеся слоты ожидающим с наименьшим виртуальным временем
+    private void dispatch() {
+        while (active < properties.getMaxConcurrent()) {
+            ClassQueue next = null;
+            for (ClassQueue queue : queues.values()) {
+                if (queue.waiting > 0 && queue.active < queue.limits.getMaxConcurrent()
+                        && (next == null || queue.virtualTime < next.virtualTime)) {
+                    next = queue;
+                }
+            }
+            if (next == null) {
+                return;
+            }
+
+            Map.Entry<String, Flow> chosen = null;
+            for (Map.Entry<String, Flow> entry : next.flows.entrySet()) {
+                if (chosen == null || entry.getValue().virtualTime < chosen.getValue().virtualTime) {
+                    chosen = entry;
+                }
+            }
+            Flow flow = chosen.getValue();
+            Waiter waiter = flow.waiters.poll();
+            next.flowTime = flow.virtualTime;
+            flow.virtualTime += 1 / clientWeight(chosen.getKey());
+            if (flow.waiters.isEmpty()) {
+                next.flows.remove(chosen.getKey());
+            }
+            next.waiting--;
+            systemTime = next.virtualTime;
+            next.virtualTime += 1 / Math.max(0.001, next.limits.getWeight());
+
+            grant(next);
+            waiter.granted = true;
+            waiter.signal.signal();
+        }
+    }
+
+    private double clientWeight(String client) {
+        return Math.max(0.001, properties.getClientWeights().getOrDefault(client, 1.0));
+    }
+
+    private RateLimiter clientLimiter(String client) {
+        long bandwidth = properties.getClientBandwidth().toBytes();
+        if (!properties.isEnabled() || bandwidth <= 0) {
+            return null;
+        }
+        try {
+            return clientLimiters.get(client, () -> RateLimiter.create(bandwidth));
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    // Клиент текущего запроса; вне запроса — system
+    public String currentClient() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (!(attributes instanceof ServletRequestAttributes servletAttributes)) {
+            return SYSTEM_CLIENT;
+        }
+        HttpServletRequest request = servletAttributes.getRequest();
+        String key = request.getHeader(properties.getClientHeader());
+        return key != null && !key.isBlank() ? key : request.getRemoteAddr();
+    }
+
+    /**
+     * Выданный слот. Освобождается один раз, повторные вызовы release ничего не делают.
+     */
+    public final class Permit {
+        private final ClassQueue queue;
+        private final RateLimiter clientLimiter;
+        private final AtomicBoolean held;
+
+        private Permit(ClassQueue queue, String client, boolean held) {
+            this.queue = queue;
+            this.clientLimiter = clientLimiter(client);
+            this.held = new AtomicBoolean(held);
+        }
+
+        public void release() {
+            if (held.compareAndSet(true, false)) {
+                TransferScheduler.this.release(queue);
+            }
+        }
+
+        // Расход полосы на переданные байты; блокирует, пока не наберутся токены
+        void consume(int bytes) {
+            if (bytes <= 0) {
+                return;
+            }
+            queue.bytes.addAndGet(bytes);
+            if (queue.limiter != null && properties.isEnabled()) {
+                queue.limiter.acquire(bytes);
+            }
+            if (clientLimiter != null) {
+                clientLimiter.acquire(bytes);
+            }
+        }
+    }
+
+    /**
+     * Слотов не хватило за queue-timeout.
+     */
+    public static class BusyException extends RuntimeException {
+        public BusyException(String message) {
+            super(message);
+        }
+    }
+
+    private static final class ClassQueue {
+        private final TrafficProperties.ClassLimits limits;
+        private final RateLimiter limiter;
+        private final Map<String, Flow> flows = new LinkedHashMap<>();
+        private final AtomicLong bytes = new AtomicLong();
+        private int waiting;
+        private int active;
+        private double virtualTime;
+        private double flowTime;
+        private long granted;
+        private long waitNanos;
+        private long rejected;
+
+        private ClassQueue(TrafficProperties.ClassLimits limits) {
+            this.limits = limits;
+            long bandwidth = limits.getBandwidth().toBytes();
+            this.limiter = bandwidth > 0 ? RateLimiter.create(bandwidth) : null;
+        }
+
+        private void remove(Waiter waiter) {
+            for (Iterator<Flow> flowIterator = flows.values().iterator(); flowIterator.hasNext(); ) {
+                Flow flow = flowIterator.next();
+                if (flow.waiters.remove(waiter)) {
+                    waiting--;
+                    if (flow.waiters.isEmpty()) {
+                        flowIterator.remove();
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    private static final class Flow {
+        private final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+        private double virtualTime;
+
+        private Flow(double virtualTime) {
+            this.virtualTime = virtualTime;
+        }
+    }
+
+    private static final class Waiter {
+        private final Condition signal;
+        private boolean granted;
+
+        private Waiter(Condition signal) {
+            this.signal = signal;
+        }
+    }
+
+    private static final class ThrottledInputStream extends FilterInputStream {
+        private final Permit permit;
+
+        private ThrottledInputStream(InputStream in, Permit permit) {
+            super(in);
+            this.permit = permit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value >= 0) {
+                permit.consume(1);
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            permit.consume(read);
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                permit.release();
+            }
+        }
+    }
+}
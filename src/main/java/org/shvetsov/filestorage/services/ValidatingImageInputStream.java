@@ -0,0 +1,291 @@
+package org.shvetsov.filestorage.services;
+
+import org.shvetsov.filestorage.configurations.PhotoProperties;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Поток загружаемого изображения, который проверяет его по мере чтения.
+ * <p>
+ * По первым байтам определяется настоящий формат и сверяется с заявленным клиентом типом,
+ * из заголовков формата (без декодирования) читаются размеры, считается объём. При нарушении
+ * любого ограничения чтение обрывается {@link RejectedException}, и запись в хранилище
+ * прерывается на первом же блоке.
+ */
+public class ValidatingImageInputStream extends FilterInputStream {
+    private static final int INITIAL_HEADER_SIZE = 4 * 1024;
+    // JPEG может держать SOF за EXIF и ICC-профилем; дальше размеры не ищем
+    private static final int MAX_HEADER_SIZE = 256 * 1024;
+    private static final int[] UNKNOWN = new int[0];
+
+    private final String declaredType;
+    private final long maxSize;
+    private final int maxWidth;
+    private final int maxHeight;
+
+    private byte[] header = new byte[INITIAL_HEADER_SIZE];
+    private int headerLength;
+    private long count;
+    private String detectedType;
+    private boolean dimensionsResolved;
+    private int width = -1;
+    private int height = -1;
+
+    public ValidatingImageInputStream(InputStream in, String declaredType, PhotoProperties properties) {
+        super(in);
+        this.declaredType = declaredType;
+        this.maxSize = properties.getMaxFileSizeBytes();
+        this.maxWidth = properties.getMaxWidth();
+        this.maxHeight = properties.getMaxHeight();
+    }
+
+    /**
+     * Проверяет только начало файла: тип и размеры, не дожидаясь остального тела.
+     *
+     * @return проверивший поток, из которого можно взять найденные размеры
+     */
+    public static ValidatingImageInputStream checkHeader(InputStream in, String declaredType,
+                                                         PhotoProperties properties) throws IOException {
+        ValidatingImageInputStream header = new ValidatingImageInputStream(
+                new ByteArrayInputStream(in.readNBytes(MAX_HEADER_SIZE)), declaredType, properties);
+        header.transferTo(OutputStream.nullOutputStream());
+        return header;
+    }
+
+    public String detectedType() {
+        return detectedType;
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        int read = read(single, 0, 1);
+        return read < 0 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = super.read(b, off, len);
+        if (read > 0) {
+            inspect(b, off, read);
+        } else if (read < 0) {
+            finish();
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // Пропущенные байты тоже должны пройти проверку
+        byte[] buffer = new byte[(int) Math.min(n, 8192)];
+        long skipped = 0;
+        while (skipped < n) {
+            int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+            if (read < 0) {
+                break;
+            }
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void inspect(byte[] b, int off, int len) throws IOException {
+        count += len;
+        if (count > maxSize) {
+            throw new RejectedException("File is larger than " + maxSize / (1024 * 1024) + " MB");
+        }
+        if (dimensionsResolved || headerLength >= MAX_HEADER_SIZE) {
+            return;
+        }
+
+        int toCopy = Math.min(len, MAX_HEADER_SIZE - headerLength);
+        if (headerLength + toCopy > header.length) {
+            header = Arrays.copyOf(header, Math.min(MAX_HEADER_SIZE, Math.max(header.length * 2, headerLength + toCopy)));
+        }
+        System.arraycopy(b, off, header, headerLength, toCopy);
+        headerLength += toCopy;
+
+        if (detectedType == null && headerLength >= 12) {
+            checkType(detectType(header, headerLength));
+        }
+        if (detectedType != null) {
+            int[] dimensions = readDimensions(detectedType, header, headerLength);
+            if (dimensions != null) {
+                checkDimensions(dimensions);
+            } else if (headerLength >= MAX_HEADER_SIZE) {
+                dimensionsResolved = true;
+            }
+        }
+    }
+
+    private void finish() throws IOException {
+        if (detectedType == null) {
+            checkType(detectType(header, headerLength));
+        }
+    }
+
+    private void checkType(String type) throws IOException {
+        if (type == null) {
+            throw new RejectedException("File is not a supported image");
+        }
+        if (!type.equals(declaredType)) {
+            throw new RejectedException("File content is " + type + ", but declared as " + declaredType);
+        }
+        detectedType = type;
+    }
+
+    private void checkDimensions(int[] dimensions) throws IOException {
+        dimensionsResolved = true;
+        if (dimensions == UNKNOWN) {
+            return;
+        }
+        width = dimensions[0];
+        height = dimensions[1];
+        if (width < 0 || height < 0 || width > maxWidth || height > maxHeight) {
+            throw new RejectedException("Image is " + width + "x" + height + ", limit is " + maxWidth + "x" + maxHeight);
+        }
+    }
+
+    static String detectType(byte[] b, int length) {
+        if (length >= 3 && u8(b, 0) == 0xFF && u8(b, 1) == 0xD8 && u8(b, 2) == 0xFF) {
+            return "image/jpeg";
+        }
+        if (length >= 8 && u8(b, 0) == 0x89 && ascii(b, 1, "PNG") && u8(b, 4) == 0x0D && u8(b, 5) == 0x0A
+                && u8(b, 6) == 0x1A && u8(b, 7) == 0x0A) {
+            return "image/png";
+        }
+        if (length >= 6 && (ascii(b, 0, "GIF87a") || ascii(b, 0, "GIF89a"))) {
+            return "image/gif";
+        }
+        if (length >= 12 && ascii(b, 0, "RIFF") && ascii(b, 8, "WEBP")) {
+            return "image/webp";
+        }
+        return null;
+    }
+
+    // null — нужно больше байт, UNKNOWN — размеры из заголовка не получить
+    static int[] readDimensions(String type, byte[] b, int length) {
+        return switch (type) {
+            case "image/png" -> length < 24 ? null : new int[]{be32(b, 16), be32(b, 20)};
+            case "image/gif" -> length < 10 ? null : new int[]{le16(b, 6), le16(b, 8)};
+            case "image/webp" -> webpDimensions(b, length);
+            case "image/jpeg" -> jpegDimensions(b, length);
+            default -> UNKNOWN;
+        };
+    }
+
+    private static int[] webpDimensions(byte[] b, int length) {
+        if (length < 16) {
+            return null;
+        }
+        if (ascii(b, 12, "VP8 ")) {
+            if (length < 30) {
+                return null;
+            }
+            return new int[]{le16(b, 26) & 0x3FFF, le16(b, 28) & 0x3FFF};
+        }
+        if (ascii(b, 12, "VP8L")) {
+            if (length < 25) {
+                return null;
+            }
+            int bits = u8(b, 21) | u8(b, 22) << 8 | u8(b, 23) << 16 | u8(b, 24) << 24;
+            return new int[]{(bits & 0x3FFF) + 1, (bits >>> 14 & 0x3FFF) + 1};
+        }
+        if (ascii(b, 12, "VP8X")) {
+            if (length < 30) {
+                return null;
+            }
+            return new int[]{le24(b, 24) + 1, le24(b, 27) + 1};
+        }
+        return UNKNOWN;
+    }
+
+    // Проходит по сегментам до SOF-маркера
+    private static int[] jpegDimensions(byte[] b, int length) {
+        int position = 2;
+        while (true) {
+            while (position + 1 < length && u8(b, position) == 0xFF && u8(b, position + 1) == 0xFF) {
+                position++;
+            }
+            if (position + 4 > length) {
+                return null;
+            }
+            if (u8(b, position) != 0xFF) {
+                return UNKNOWN;
+            }
+            int marker = u8(b, position + 1);
+            if (marker == 0x01 || marker >= 0xD0 && marker <= 0xD8) {
+                position += 2;
+                continue;
+            }
+            if (marker == 0xDA || marker == 0xD9) {
+                return UNKNOWN;
+            }
+            if (isStartOfFrame(marker)) {
+                if (position + 9 > length) {
+                    return null;
+                }
+                return new int[]{be16(b, position + 7), be16(b, position + 5)};
+            }
+            position += 2 + be16(b, position + 2);
+        }
+    }
+
+    private static boolean isStartOfFrame(int marker) {
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    private static boolean ascii(byte[] b, int offset, String expected) {
+        byte[] bytes = expected.getBytes(StandardCharsets.US_ASCII);
+        return Arrays.equals(b, offset, offset + bytes.length, bytes, 0, bytes.length);
+    }
+
+    private static int u8(byte[] b, int offset) {
+        return b[offset] & 0xFF;
+    }
+
+    private static int be16(byte[] b, int offset) {
+        return u8(b, offset) << 8 | u8(b, offset + 1);
+    }
+
+    private static int be32(byte[] b, int offset) {
+        return be16(b, offset) << 16 | be16(b, offset + 2);
+    }
+
+    private static int le16(byte[] b, int offset) {
+        return u8(b, offset) | u8(b, offset + 1) << 8;
+    }
+
+    private static int le24(byte[] b, int offset) {
+        return le16(b, offset) | u8(b, offset + 2) << 16;
+    }
+
+    /**
+     * Файл не прошёл проверку; наследует {@link IOException}, чтобы оборвать запись в MinIO
+     * или журнал так же, как обрыв соединения.
+     */
+    public static class RejectedException extends IOException {
+        public RejectedException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package org.shvetsov.filestorage.services;
+
+import io.minio.ObjectWriteResponse;
+import io.minio.PutObjectArgs;
+import io.minio.RemoveObjectArgs;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.shvetsov.filestorage.configurations.WriteBehindProperties;
+import org.shvetsov.filestorage.dto.PhotoSummary;
+import org.springframework.stereotype.Component;
+
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Фоновая выгрузка журнала write-behind в MinIO пачками с повторами и экспоненциальной задержкой.
+ * <p>
+ * Пока объект в журнале, другие экземпляры его не видят. Когда он оказался в MinIO, выгрузка
+ * публикует запись в {@link InvalidationBus}; при выключенной шине (по умолчанию) другие
+ * экземпляры увидят объект, когда истечёт их запомненный промах.
+ */
+@Slf4j
+@Component
+public class WriteBehindFlusher {
+    private final WriteBehindJournal journal;
+    private final WriteBehindProperties properties;
+    private final ShardRouter shardRouter;
+    private final MetadataCache metadataCache;
+    private final ObjectChecksums objectChecksums;
+    private final PhotoIndex photoIndex;
+    private final InvalidationBus invalidationBus;
+    private final TransferScheduler transferScheduler;
+    private final ExecutorService uploadExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private ScheduledExecutorService scheduler;
+
+    public WriteBehindFlusher(WriteBehindJournal journal, WriteBehindProperties properties,
+                              ShardRouter shardRouter, MetadataCache metadataCache, ObjectChecksums objectChecksums,
+                              PhotoIndex photoIndex, InvalidationBus invalidationBus, TransferScheduler transferScheduler) {
+        this.journal = journal;
+        this.properties = properties;
+        this.shardRouter = shardRouter;
+        this.metadataCache = metadataCache;
+        this.objectChecksums = objectChecksums;
+        this.photoIndex = photoIndex;
+        this.invalidationBus = invalidationBus;
+        this.transferScheduler = transferScheduler;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "write-behind-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = properties.getFlushInterval().toMillis();
+        scheduler.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            scheduler.awaitTermination(properties.getFlushInterval().toMillis() * 10, TimeUnit.MILLISECONDS);
+        }
+        uploadExecutor.shutdownNow();
+    }
+
+    // Выгружает одну пачку записей, у которых подошло время попытки
+    public void flush() {
+        long now = System.nanoTime();
+        List<WriteBehindJournal.PendingEntry> batch = journal.pendingEntries().stream()
+                .filter(entry -> entry.isDue(now))
+                .limit(properties.getBatchSize())
+                .toList();
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        List<Future<?>> uploads = new ArrayList<>(batch.size());
+        for (WriteBehindJournal.PendingEntry entry : batch) {
+            uploads.add(uploadExecutor.submit(() -> upload(entry)));
+        }
+        for (Future<?> upload : uploads) {
+            try {
+                upload.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                log.error("Unexpected write-behind flush failure", e.getCause());
+            }
+        }
+    }
+
+    private void upload(WriteBehindJournal.PendingEntry entry) {
+        StorageShard shard = shardRouter.route(entry.objectName());
+        String etag;
+        String sha256 = null;
+        TransferScheduler.Permit permit = null;
+        try (InputStream journalBody = journal.openBody(entry)) {
+            if (journalBody == null) {
+                return;
+            }
+            // Выгрузка делит полосу с загрузками клиентов как клиент system
+            permit = transferScheduler.acquire(TrafficClass.BULK, TransferScheduler.SYSTEM_CLIENT);
+            InputStream body = transferScheduler.track(permit, journalBody);
+            DigestInputStream digest = objectChecksums.isEnabled() ? objectChecksums.wrap(body) : null;
+            ObjectWriteResponse response = shard.client().putObject(
+                    PutObjectArgs.builder()
+                            .bucket(shard.bucket())
+                            .object(entry.objectName())
+                            .stream(digest != null ? digest : body, entry.length(), -1)
+                            .contentType(entry.contentType())
+                            .build());
+            etag = response != null ? response.etag() : null;
+            if (digest != null) {
+                sha256 = ObjectChecksums.hex(digest);
+            }
+        } catch (Exception e) {
+            long backoff = Math.min(
+                    properties.getRetryBackoff().toNanos() << Math.min(entry.attempts(), 20),
+                    properties.getMaxRetryBackoff().toNanos());
+            entry.recordFailure(backoff);
+            log.warn("Write-behind upload of {} failed (attempt {}): {}", entry.objectName(), entry.attempts(), e.getMessage());
+            return;
+        } finally {
+            if (permit != null) {
+                permit.release();
+            }
+        }
+
+        if (sha256 != null) {
+            try {
+                etag = objectChecksums.stamp(shard, entry.objectName(), entry.contentType(), etag, sha256);
+            } catch (Exception e) {
+                log.warn("Failed to store checksum of {}: {}", entry.objectName(), e.getMessage());
+            }
+        }
+        try {
+            boolean current = journal.markFlushed(entry);
+            if (!current && journal.get(entry.objectName()) == null) {
+                // Объект удалили, пока он выгружался
+                shard.client().removeObject(
+                        RemoveObjectArgs.builder()
+                                .bucket(shard.bucket())
+                                .object(entry.objectName())
+                                .build());
+            }
+            metadataCache.invalidate(entry.objectName());
+            if (current) {
+                publishLanded(entry, etag);
+            }
+        } catch (Exception e) {
+            log.error("Failed to complete write-behind upload of {}", entry.objectName(), e);
+        }
+    }
+
+    // Обновляет локальный индекс и публикует запись; заглушка есть только в индексе, журнал хранит
+    // лишь content type
+    private void publishLanded(WriteBehindJournal.PendingEntry entry, String etag) {
+        PhotoSummary indexed = photoIndex.get(entry.objectName());
+        PhotoSummary photo = new PhotoSummary(entry.objectName(), entry.length(), entry.contentType(), etag,
+                indexed != null ? indexed.placeholder() : null);
+        if (indexed != null) {
+            photoIndex.put(photo);
+        }
+        invalidationBus.publish(Invalidation.write(photo));
+    }
+}
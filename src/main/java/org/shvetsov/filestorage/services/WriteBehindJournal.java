@@ -0,0 +1,598 @@
+package org.shvetsov.filestorage.services;
+
+import io.minio.StatObjectResponse;
+import io.minio.Time;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.Headers;
+import org.shvetsov.filestorage.configurations.WriteBehindProperties;
+import org.springframework.stereotype.Component;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Локальный append-only журнал загрузок для режима write-behind.
+ * <p>
+ * Формат записи: {@code magic, type, sequence} и для PUT — время, имя объекта, content type,
+ * длина и тело; в конце CRC32 всей записи. Запись DONE с тем же sequence отмечает, что объект
+ * выгружен в MinIO. При старте журнал проигрывается заново: из PUT одного объекта значение имеет
+ * только последний по sequence, и он снова становится ожидающим, если для него нет DONE; оборванный
+ * хвост (запись без корректного CRC) отрезается.
+ * <p>
+ * Тело загрузки сначала читается во временный файл рядом с журналом и только потом под блокировкой
+ * переносится в журнал локальным копированием: медленный клиент не задерживает чужие записи.
+ * <p>
+ * Когда журнал перерастает порог, а живые записи занимают не больше его половины, невыгруженные PUT
+ * копируются в новый файл, который атомарно подменяет журнал. Так журнал не растёт бесконечно, даже
+ * если очередь выгрузки никогда не пустеет.
+ */
+@Slf4j
+@Component
+public class WriteBehindJournal {
+    private static final String FILE_NAME = "journal.log";
+    private static final String COMPACT_FILE_NAME = "journal.log.compact";
+    private static final int MAGIC = 0x57424A31;
+    private static final byte PUT = 1;
+    private static final byte DONE = 2;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final WriteBehindProperties properties;
+    private final Map<String, PendingEntry> pending = new ConcurrentHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private FileChannel channel;
+    private long writePosition;
+    private long sequence;
+    // Увеличивается при сжатии журнала: старые смещения после этого недействительны
+    private long generation;
+    private int openReaders;
+
+    public WriteBehindJournal(WriteBehindProperties properties) {
+        this.properties = properties;
+    }
+
+    @PostConstruct
+    public void open() throws IOException {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        Path directory = Path.of(properties.getDirectory());
+        Files.createDirectories(directory);
+        channel = FileChannel.open(directory.resolve(FILE_NAME),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        replay();
+        if (!pending.isEmpty()) {
+            log.info("Write-behind journal has {} pending uploads to replay", pending.size());
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    // Записывает тело в журнал и делает fsync; после возврата загрузку можно подтверждать
+    public PendingEntry append(String objectName, String contentType, long length, InputStream body) throws IOException {
+        Path spoolFile = Files.createTempFile(Path.of(properties.getDirectory()), "append-", ".tmp");
+        try (FileChannel spool = FileChannel.open(spoolFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            spoolBody(body, length, spool);
+            return appendSpooled(objectName, contentType, length, spool);
+        } finally {
+            Files.deleteIfExists(spoolFile);
+        }
+    }
+
+    /**
+     * Отмечает запись выгруженной.
+     *
+     * @return false, если пока шла выгрузка объект перезаписали или удалили
+     */
+    public boolean markFlushed(PendingEntry entry) throws IOException {
+        lock.lock();
+        try {
+            appendDone(entry.sequence());
+            boolean current = pending.remove(entry.objectName(), entry);
+            compactIfNeeded();
+            return current;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Объект удалён до выгрузки: при проигрывании журнала он не должен воскреснуть
+    public void discard(String objectName) throws IOException {
+        lock.lock();
+        try {
+            PendingEntry entry = pending.remove(objectName);
+            if (entry != null) {
+                appendDone(entry.sequence());
+                channel.force(false);
+                compactIfNeeded();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Текущий размер файла журнала в байтах
+    public long size() {
+        lock.lock();
+        try {
+            return writePosition;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public PendingEntry get(String objectName) {
+        return pending.get(objectName);
+    }
+
+    public List<PendingEntry> pendingEntries() {
+        List<PendingEntry> entries = new ArrayList<>(pending.values());
+        entries.sort(Comparator.comparingLong(PendingEntry::sequence));
+        return entries;
+    }
+
+    // Поток тела из журнала; null, если журнал уже обнулён и объект надо читать из MinIO
+    public InputStream openBody(PendingEntry entry) {
+        lock.lock();
+        try {
+            if (entry.generation() != generation || channel == null) {
+                return null;
+            }
+            openReaders++;
+            return new BodyInputStream(entry.bodyOffset(), entry.length());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public StatObjectResponse metadata(PendingEntry entry) {
+        Headers headers = Headers.of(
+                "Content-Type", entry.contentType(),
+                "Content-Length", String.valueOf(entry.length()),
+                "Last-Modified", ZonedDateTime.ofInstant(entry.createdAt(), Time.UTC).format(Time.HTTP_HEADER_DATE_FORMAT),
+                "ETag", "\"journal-" + entry.sequence() + "\"");
+        return new StatObjectResponse(headers, null, null, entry.objectName());
+    }
+
+    // Читает тело загрузки во временный файл без блокировки журнала
+    private static void spoolBody(InputStream body, long length, FileChannel spool) throws IOException {
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        long copied = 0;
+        int read;
+        while (copied < length && (read = body.read(buffer, 0, (int) Math.min(buffer.length, length - copied))) >= 0) {
+            ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, read);
+            while (chunk.hasRemaining()) {
+                copied += spool.write(chunk, copied);
+            }
+        }
+        if (copied != length) {
+            throw new EOFException("Upload body is shorter than declared: " + copied + " of " + length);
+        }
+    }
+
+    // Переносит тело из временного файла; sequence выдаётся здесь, чтобы порядок записей совпадал с порядком подтверждений
+    private PendingEntry appendSpooled(String objectName, String contentType, long length, FileChannel spool) throws IOException {
+        byte[] name = objectName.getBytes(StandardCharsets.UTF_8);
+        byte[] type = (contentType != null ? contentType : "application/octet-stream").getBytes(StandardCharsets.UTF_8);
+        long createdAt = System.currentTimeMillis();
+
+        lock.lock();
+        long start = writePosition;
+        try {
+            long seq = ++sequence;
+            long bodyOffset = start + headerSize(name, type);
+            long position = writePut(channel, start, seq, createdAt, name, type, length, spool, 0);
+            channel.force(false);
+            writePosition = position;
+
+            PendingEntry entry = new PendingEntry(seq, generation, objectName, new String(type, StandardCharsets.UTF_8),
+                    length, bodyOffset, Instant.ofEpochMilli(createdAt));
+            pending.put(objectName, entry);
+            return entry;
+        } catch (IOException e) {
+            channel.truncate(start);
+            sequence--;
+            throw e;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Пишет PUT-запись с телом из source; возвращает позицию сразу за записью
+    private static long writePut(FileChannel target, long start, long seq, long createdAt, byte[] name, byte[] type,
+                                 long length, FileChannel source, long sourceOffset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(headerSize(name, type));
+        header.putInt(MAGIC).put(PUT).putLong(seq).putLong(createdAt)
+                .putShort((short) name.length).put(name)
+                .putShort((short) type.length).put(type)
+                .putLong(length)
+                .flip();
+
+        CRC32 crc = new CRC32();
+        crc.update(header.duplicate());
+        long position = start + writeFully(target, header, start);
+
+        ByteBuffer chunk = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+        long copied = 0;
+        while (copied < length) {
+            chunk.clear().limit((int) Math.min(chunk.capacity(), length - copied));
+            if (source.read(chunk, sourceOffset + copied) < 0) {
+                throw new EOFException("Source body is shorter than declared");
+            }
+            chunk.flip();
+            crc.update(chunk.duplicate());
+            copied += chunk.remaining();
+            position += writeFully(target, chunk, position);
+        }
+        return position + writeFully(target, ByteBuffer.allocate(4).putInt((int) crc.getValue()).flip(), position);
+    }
+
+    private static int headerSize(byte[] name, byte[] type) {
+        return 4 + 1 + 8 + 8 + 2 + name.length + 2 + type.length + 8;
+    }
+
+    private void appendDone(long seq) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(4 + 1 + 8);
+        record.putInt(MAGIC).put(DONE).putLong(seq).flip();
+        CRC32 crc = new CRC32();
+        crc.update(record.duplicate());
+        writePosition += writeFully(channel, record, writePosition);
+        writePosition += writeFully(channel, ByteBuffer.allocate(4).putInt((int) crc.getValue()).flip(), writePosition);
+    }
+
+    // Вызывается под блокировкой; открытые читатели держат старые смещения, поэтому при них не сжимаем
+    private void compactIfNeeded() throws IOException {
+        if (openReaders > 0 || writePosition < properties.getCompactThreshold().toBytes()) {
+            return;
+        }
+        if (pending.isEmpty()) {
+            channel.truncate(0);
+            channel.force(true);
+            writePosition = 0;
+            generation++;
+            log.info("Write-behind journal compacted");
+            return;
+        }
+
+        List<PendingEntry> live = pendingEntries();
+        long liveBytes = 0;
+        for (PendingEntry entry : live) {
+            liveBytes += recordSize(entry);
+        }
+        if (liveBytes * 2 > writePosition) {
+            return;
+        }
+
+        Path directory = Path.of(properties.getDirectory());
+        Path compactFile = directory.resolve(COMPACT_FILE_NAME);
+        FileChannel compacted = FileChannel.open(compactFile, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long[] bodyOffsets = new long[live.size()];
+        long position = 0;
+        try {
+            for (int i = 0; i < live.size(); i++) {
+                PendingEntry entry = live.get(i);
+                byte[] name = entry.objectName().getBytes(StandardCharsets.UTF_8);
+                byte[] type = entry.contentType().getBytes(StandardCharsets.UTF_8);
+                bodyOffsets[i] = position + headerSize(name, type);
+                position = writePut(compacted, position, entry.sequence(), entry.createdAt().toEpochMilli(),
+                        name, type, entry.length(), channel, entry.bodyOffset());
+            }
+            compacted.force(true);
+            // Дескриптор нового файла остаётся открытым и после переименования указывает на журнал
+            Files.move(compactFile, directory.resolve(FILE_NAME),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            compacted.close();
+            Files.deleteIfExists(compactFile);
+            throw e;
+        }
+
+        long before = writePosition;
+        channel.close();
+        channel = compacted;
+        writePosition = position;
+        generation++;
+        for (int i = 0; i < live.size(); i++) {
+            live.get(i).relocate(generation, bodyOffsets[i]);
+        }
+        log.info("Write-behind journal compacted from {} to {} bytes, {} pending uploads kept",
+                before, position, live.size());
+    }
+
+    private static long recordSize(PendingEntry entry) {
+        return headerSize(entry.objectName().getBytes(StandardCharsets.UTF_8),
+                entry.contentType().getBytes(StandardCharsets.UTF_8)) + entry.length() + 4;
+    }
+
+    private void releaseReader() {
+        lock.lock();
+        try {
+            openReaders--;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void replay() throws IOException {
+        long size = channel.size();
+        long position = 0;
+        Map<Long, PendingEntry> unflushed = new HashMap<>();
+        // Последний PUT каждого объекта, выгруженный или нет
+        Map<String, Long> latest = new HashMap<>();
+
+        while (position < size) {
+            try {
+                position = readRecord(position, size, unflushed, latest);
+            } catch (IOException e) {
+                log.warn("Truncating torn write-behind journal tail at {}: {}", position, e.getMessage());
+                channel.truncate(position);
+                break;
+            }
+        }
+        writePosition = position;
+
+        // Версия, которую перекрыл более поздний PUT, не оживает, даже если её DONE не записан:
+        // более поздний PUT либо ждёт выгрузки сам, либо уже выгружен или удалён
+        for (PendingEntry entry : unflushed.values()) {
+            if (latest.get(entry.objectName()) == entry.sequence()) {
+                pending.put(entry.objectName(), entry);
+            }
+        }
+    }
+
+    private long readRecord(long position, long size, Map<Long, PendingEntry> unflushed,
+                            Map<String, Long> latest) throws IOException {
+        ByteBuffer prefix = readAt(position, 4 + 1 + 8, size);
+        if (prefix.getInt() != MAGIC) {
+            throw new IOException("Bad record magic");
+        }
+        byte type = prefix.get();
+        long seq = prefix.getLong();
+        CRC32 crc = new CRC32();
+        crc.update(prefix.flip());
+        long cursor = position + prefix.limit();
+
+        if (type == DONE) {
+            checkCrc(crc, cursor, size);
+            unflushed.remove(seq);
+            sequence = Math.max(sequence, seq);
+            return cursor + 4;
+        }
+        if (type != PUT) {
+            throw new IOException("Unknown record type " + type);
+        }
+
+        ByteBuffer createdAt = readAt(cursor, 8 + 2, size);
+        crc.update(createdAt.duplicate());
+        long created = createdAt.getLong();
+        byte[] name = readBytes(cursor + 10, createdAt.getShort(), size);
+        crc.update(name);
+        cursor += 10 + name.length;
+
+        ByteBuffer typeLength = readAt(cursor, 2, size);
+        crc.update(typeLength.duplicate());
+        byte[] contentType = readBytes(cursor + 2, typeLength.getShort(), size);
+        crc.update(contentType);
+        cursor += 2 + contentType.length;
+
+        ByteBuffer lengthBuffer = readAt(cursor, 8, size);
+        crc.update(lengthBuffer.duplicate());
+        long length = lengthBuffer.getLong();
+        cursor += 8;
+        if (length < 0 || cursor + length + 4 > size) {
+            throw new EOFException("Truncated record body");
+        }
+
+        long bodyOffset = cursor;
+        ByteBuffer chunk = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+        long remaining = length;
+        while (remaining > 0) {
+            chunk.clear().limit((int) Math.min(chunk.capacity(), remaining));
+            int read = channel.read(chunk, cursor);
+            if (read < 0) {
+                throw new EOFException("Truncated record body");
+            }
+            chunk.flip();
+            crc.update(chunk);
+            cursor += read;
+            remaining -= read;
+        }
+        checkCrc(crc, cursor, size);
+
+        String objectName = new String(name, StandardCharsets.UTF_8);
+        unflushed.put(seq, new PendingEntry(seq, generation, objectName,
+                new String(contentType, StandardCharsets.UTF_8), length, bodyOffset, Instant.ofEpochMilli(created)));
+        latest.merge(objectName, seq, Math::max);
+        sequence = Math.max(sequence, seq);
+        return cursor + 4;
+    }
+
+    private void checkCrc(CRC32 crc, long position, long size) throws IOException {
+        if (readAt(position, 4, size).getInt() != (int) crc.getValue()) {
+            throw new IOException("Record checksum mismatch");
+        }
+    }
+
+    private byte[] readBytes(long position, int length, long size) throws IOException {
+        byte[] bytes = new byte[length];
+        readAt(position, ByteBuffer.wrap(bytes), size);
+        return bytes;
+    }
+
+    private ByteBuffer readAt(long position, int length, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        readAt(position, buffer, size);
+        return buffer.flip();
+    }
+
+    private void readAt(long position, ByteBuffer buffer, long size) throws IOException {
+        if (position + buffer.remaining() > size) {
+            throw new EOFException("Truncated record");
+        }
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Truncated record");
+            }
+            position += read;
+        }
+    }
+
+    private static int writeFully(FileChannel target, ByteBuffer buffer, long position) throws IOException {
+        int written = 0;
+        while (buffer.hasRemaining()) {
+            written += target.write(buffer, position + written);
+        }
+        return written;
+    }
+
+    /**
+     * Невыгруженная загрузка: где в журнале лежит тело и сколько раз не удалось отправить его в MinIO.
+     */
+    public static final class PendingEntry {
+        private final long sequence;
+        // Меняются только при сжатии журнала, под его блокировкой
+        private volatile long generation;
+        private final String objectName;
+        private final String contentType;
+        private final long length;
+        private volatile long bodyOffset;
+        private final Instant createdAt;
+        private volatile int attempts;
+        private volatile long nextAttemptAt;
+
+        private PendingEntry(long sequence, long generation, String objectName, String contentType,
+                             long length, long bodyOffset, Instant createdAt) {
+            this.sequence = sequence;
+            this.generation = generation;
+            this.objectName = objectName;
+            this.contentType = contentType;
+            this.length = length;
+            this.bodyOffset = bodyOffset;
+            this.createdAt = createdAt;
+            this.nextAttemptAt = System.nanoTime();
+        }
+
+        public long sequence() {
+            return sequence;
+        }
+
+        public long generation() {
+            return generation;
+        }
+
+        public String objectName() {
+            return objectName;
+        }
+
+        public String contentType() {
+            return contentType;
+        }
+
+        public long length() {
+            return length;
+        }
+
+        public long bodyOffset() {
+            return bodyOffset;
+        }
+
+        public Instant createdAt() {
+            return createdAt;
+        }
+
+        public int attempts() {
+            return attempts;
+        }
+
+        public boolean isDue(long now) {
+            return nextAttemptAt - now <= 0;
+        }
+
+        public void recordFailure(long backoffNanos) {
+            attempts++;
+            nextAttemptAt = System.nanoTime() + backoffNanos;
+        }
+
+        private void relocate(long generation, long bodyOffset) {
+            this.generation = generation;
+            this.bodyOffset = bodyOffset;
+        }
+    }
+
+    private final class BodyInputStream extends InputStream {
+        private long position;
+        private final long end;
+        private boolean closed;
+
+        private BodyInputStream(long offset, long length) {
+            this.position = offset;
+            this.end = offset + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int read = read(single, 0, 1);
+            return read < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            if (position >= end) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            int toRead = (int) Math.min(len, end - position);
+            int read = channel.read(ByteBuffer.wrap(b, off, toRead), position);
+            if (read < 0) {
+                throw new EOFException("Journal truncated while reading");
+            }
+            position += read;
+            return read;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                releaseReader();
+            }
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package org.shvetsov.filestorage.service;
+
+import io.minio.StatObjectResponse;
+import jakarta.validation.ValidationException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.shvetsov.filestorage.configurations.ArchiveProperties;
+import org.shvetsov.filestorage.services.ArchiveService;
+import org.shvetsov.filestorage.services.StorageService;
+import org.shvetsov.filestorage.services.TrafficClass;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ArchiveServiceTest {
+    private static final String CLIENT = "client-1";
+
+    @Mock
+    private StorageService storageService;
+
+    private ArchiveProperties properties;
+    private ArchiveService archiveService;
+
+    @BeforeEach
+    void setUp() {
+        properties = new ArchiveProperties();
+        archiveService = new ArchiveService(storageService, properties);
+    }
+
+    @AfterEach
+    void tearDown() {
+        archiveService.shutdown();
+    }
+
+    @Test
+    void writeArchive_ImagesStoredOthersDeflated() throws Exception {
+        // Arrange
+        mockFile("p1/a.jpg", "image/jpeg", "jpeg-bytes".getBytes());
+        mockFile("p1/b.txt", "text/plain", "text".getBytes());
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        // Act
+        archiveService.writeArchive(List.of("p1/a.jpg", "p1/b.txt"), CLIENT, output);
+
+        // Assert
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(output.toByteArray()))) {
+            ZipEntry first = zip.getNextEntry();
+            assertEquals("p1/a.jpg", first.getName());
+            assertEquals(ZipEntry.STORED, first.getMethod());
+            assertArrayEquals("jpeg-bytes".getBytes(), zip.readAllBytes());
+
+            ZipEntry second = zip.getNextEntry();
+            assertEquals("p1/b.txt", second.getName());
+            assertEquals(ZipEntry.DEFLATED, second.getMethod());
+            assertArrayEquals("text".getBytes(), zip.readAllBytes());
+
+            assertNull(zip.getNextEntry());
+        }
+    }
+
+    @Test
+    void writeArchive_LargeFileStreamed() throws Exception {
+        // Arrange
+        properties.setPrefetchMaxSize(DataSize.ofBytes(2));
+        StatObjectResponse metadata = mock(StatObjectResponse.class);
+        when(storageService.fileExists("p1/big.jpg")).thenReturn(true);
+        when(storageService.getFileMetadata("p1/big.jpg")).thenReturn(metadata);
+        when(metadata.contentType()).thenReturn("image/jpeg");
+        when(metadata.size()).thenReturn(9L);
+        when(storageService.getFileAsStream("p1/big.jpg", TrafficClass.BULK, CLIENT))
+                .thenReturn(new ByteArrayInputStream("big-bytes".getBytes()));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        // Act
+        archiveService.writeArchive(List.of("p1/big.jpg"), CLIENT, output);
+
+        // Assert
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(output.toByteArray()))) {
+            assertEquals("p1/big.jpg", zip.getNextEntry().getName());
+            assertArrayEquals("big-bytes".getBytes(), zip.readAllBytes());
+        }
+        verify(storageService, never()).getFileBytes(eq("p1/big.jpg"), any(), any());
+    }
+
+    @Test
+    void writeArchive_MissingFileListedInManifest() throws Exception {
+        // Arrange
+        when(storageService.fileExists("p1/missing.jpg")).thenReturn(false);
+        mockFile("p1/a.jpg", "image/jpeg", "a".getBytes());
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        // Act
+        archiveService.writeArchive(List.of("p1/missing.jpg", "p1/a.jpg"), CLIENT, output);
+
+        // Assert
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(output.toByteArray()))) {
+            assertEquals("p1/a.jpg", zip.getNextEntry().getName());
+            zip.readAllBytes();
+            assertEquals(ArchiveService.MISSING_ENTRY, zip.getNextEntry().getName());
+            assertEquals("p1/missing.jpg\n", new String(zip.readAllBytes()));
+            assertNull(zip.getNextEntry());
+        }
+    }
+
+    @Test
+    void writeArchive_UnsafePathsSanitized() throws Exception {
+        // Arrange
+        mockFile("/../../etc/a.txt", "text/plain", "a".getBytes());
+        mockFile("p1/./../b.txt", "text/plain", "b".getBytes());
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        // Act
+        archiveService.writeArchive(List.of("/../../etc/a.txt", "p1/./../b.txt"), CLIENT, output);
+
+        // Assert
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(output.toByteArray()))) {
+            assertEquals("etc/a.txt", zip.getNextEntry().getName());
+            assertEquals("p1/b.txt", zip.getNextEntry().getName());
+        }
+    }
+
+    @Test
+    void writeArchive_WhenMemoryBudgetExhausted_Streamed() throws Exception {
+        // Arrange
+        properties.setPrefetchMemoryBudget(DataSize.ofBytes(0));
+        archiveService.shutdown();
+        archiveService = new ArchiveService(storageService, properties);
+        StatObjectResponse metadata = mock(StatObjectResponse.class);
+        when(storageService.fileExists("p1/a.jpg")).thenReturn(true);
+        when(storageService.getFileMetadata("p1/a.jpg")).thenReturn(metadata);
+        when(metadata.contentType()).thenReturn("image/jpeg");
+        when(metadata.size()).thenReturn(1L);
+        when(storageService.getFileAsStream("p1/a.jpg", TrafficClass.BULK, CLIENT))
+                .thenReturn(new ByteArrayInputStream("a".getBytes()));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        // Act
+        archiveService.writeArchive(List.of("p1/a.jpg"), CLIENT, output);
+
+        // Assert
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(output.toByteArray()))) {
+            assertEquals("p1/a.jpg", zip.getNextEntry().getName());
+            assertArrayEquals("a".getBytes(), zip.readAllBytes());
+        }
+        verify(storageService, never()).getFileBytes(eq("p1/a.jpg"), any(), any());
+    }
+
+    @Test
+    void resolvePaths_WhenTooMany_ThrowsValidationException() {
+        properties.setMaxEntries(1);
+
+        assertThrows(ValidationException.class,
+                () -> archiveService.resolvePaths(List.of("p1/a.jpg", "p1/b.jpg")));
+    }
+
+    private void mockFile(String path, String contentType, byte[] content) throws Exception {
+        StatObjectResponse metadata = mock(StatObjectResponse.class);
+        when(storageService.fileExists(path)).thenReturn(true);
+        when(storageService.getFileMetadata(path)).thenReturn(metadata);
+        when(metadata.contentType()).thenReturn(contentType);
+        when(metadata.size()).thenReturn((long) content.length);
+        when(storageService.getFileBytes(path, TrafficClass.BULK, CLIENT)).thenReturn(content);
+    }
+}
@@ -0,0 +1,70 @@
+package org.shvetsov.filestorage.service;
+
+import io.minio.BucketExistsArgs;
+import io.minio.MakeBucketArgs;
+import io.minio.MinioClient;
+import org.junit.jupiter.api.Test;
+import org.shvetsov.filestorage.configurations.BucketInitProperties;
+import org.shvetsov.filestorage.services.BucketInitializer;
+import org.shvetsov.filestorage.services.BucketsReadyEvent;
+import org.shvetsov.filestorage.services.ShardRouter;
+import org.shvetsov.filestorage.services.StorageShard;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.context.ApplicationEventPublisher;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class BucketInitializerTest {
+
+    private final MinioClient first = mock(MinioClient.class);
+    private final MinioClient second = mock(MinioClient.class);
+    private final ApplicationEventPublisher events = mock(ApplicationEventPublisher.class);
+    private final BucketInitializer initializer = new BucketInitializer(
+            new ShardRouter(List.of(new StorageShard("a", "bucket-a", first), new StorageShard("b", "bucket-b", second)), 16, false),
+            properties(), events);
+
+    @Test
+    void health_OutOfServiceUntilBucketsChecked() {
+        // Act
+        var health = initializer.health();
+
+        // Assert
+        assertEquals(Status.OUT_OF_SERVICE, health.getStatus());
+        assertEquals(2, ((Map<?, ?>) health.getDetails().get("pending")).size());
+        verifyNoInteractions(first, second);
+    }
+
+    @Test
+    void initialize_RetriesUnavailableShardAndCreatesMissingBucket() throws Exception {
+        // Arrange
+        when(first.bucketExists(any(BucketExistsArgs.class))).thenReturn(true);
+        when(second.bucketExists(any(BucketExistsArgs.class)))
+                .thenThrow(new IOException("connection refused"))
+                .thenReturn(false);
+
+        // Act
+        initializer.initialize();
+
+        // Assert
+        assertTrue(initializer.isReady());
+        assertEquals(Status.UP, initializer.health().getStatus());
+        verify(first, times(1)).bucketExists(any(BucketExistsArgs.class));
+        verify(first, never()).makeBucket(any(MakeBucketArgs.class));
+        verify(second).makeBucket(argThat(args -> args.bucket().equals("bucket-b")));
+        verify(events).publishEvent((Object) argThat((Object event) -> event instanceof BucketsReadyEvent ready && ready.buckets() == 2));
+    }
+
+    private static BucketInitProperties properties() {
+        BucketInitProperties properties = new BucketInitProperties();
+        properties.setRetryBackoff(Duration.ofMillis(10));
+        properties.setMaxRetryBackoff(Duration.ofMillis(20));
+        return properties;
+    }
+}
@@ -0,0 +1,87 @@
+package org.shvetsov.filestorage.service;
+
+import org.junit.jupiter.api.Test;
+import org.shvetsov.filestorage.configurations.BufferPoolProperties;
+import org.shvetsov.filestorage.services.BufferPool;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BufferPoolTest {
+
+    @Test
+    void copy_ReusesReleasedBuffer() throws Exception {
+        // Arrange
+        BufferPool pool = new BufferPool(properties(4));
+        byte[] data = new byte[100_000];
+        data[99_999] = 7;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        // Act
+        pool.copy(new ByteArrayInputStream(data), out);
+        pool.copy(new ByteArrayInputStream(data), OutputStream.nullOutputStream());
+
+        // Assert
+        assertArrayEquals(data, out.toByteArray());
+        assertEquals(1, pool.allocatedCount());
+        assertEquals(1, pool.available());
+    }
+
+    @Test
+    void release_KeepsAtMostMaxPooled() {
+        // Arrange
+        BufferPool pool = new BufferPool(properties(2));
+        byte[][] buffers = {pool.acquire(), pool.acquire(), pool.acquire()};
+
+        // Act
+        for (byte[] buffer : buffers) {
+            pool.release(buffer);
+        }
+        pool.release(new byte[16]);
+
+        // Assert
+        assertEquals(2, pool.available());
+        assertEquals(3, pool.allocatedCount());
+    }
+
+    @Test
+    void copy_AllocatesNothingAfterWarmup() throws Exception {
+        // Arrange
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        BufferPool pool = new BufferPool(properties(4));
+        ByteArrayInputStream source = new ByteArrayInputStream(new byte[1 << 20]);
+        // Обёртка, чтобы копирование шло через read(byte[]), как у тела ответа MinIO
+        InputStream in = new FilterInputStream(source) {
+        };
+        OutputStream out = OutputStream.nullOutputStream();
+        for (int i = 0; i < 200; i++) {
+            source.reset();
+            pool.copy(in, out);
+        }
+
+        // Act
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < 100; i++) {
+            source.reset();
+            pool.copy(in, out);
+        }
+        long perCopy = (threads.getCurrentThreadAllocatedBytes() - before) / 100;
+
+        // Assert
+        assertTrue(perCopy < 1024, "allocated " + perCopy + " bytes per copy");
+    }
+
+    private static BufferPoolProperties properties(int maxPooled) {
+        BufferPoolProperties properties = new BufferPoolProperties();
+        properties.setBufferSize(DataSize.ofKilobytes(64));
+        properties.setMaxPooled(maxPooled);
+        return properties;
+    }
+}
@@ -0,0 +1,137 @@
+package org.shvetsov.filestorage.service;
+
+import io.minio.GetObjectArgs;
+import io.minio.GetObjectResponse;
+import io.minio.ListObjectsArgs;
+import io.minio.MinioClient;
+import io.minio.PutObjectArgs;
+import io.minio.RemoveObjectArgs;
+import io.minio.Result;
+import io.minio.messages.Item;
+import okhttp3.Headers;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.shvetsov.filestorage.configurations.HotKeyProperties;
+import org.shvetsov.filestorage.services.CachePrewarmer;
+import org.shvetsov.filestorage.services.HotKeyTracker;
+import org.shvetsov.filestorage.services.ShardRouter;
+import org.shvetsov.filestorage.services.StorageService;
+import org.shvetsov.filestorage.services.StorageShard;
+import org.springframework.boot.actuate.health.Status;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class CachePrewarmerTest {
+    private static final String HOT_SETS = "system/hot-keys/";
+
+    private final HotKeyProperties properties = new HotKeyProperties();
+    private final HotKeyTracker tracker = new HotKeyTracker(properties);
+    private final StorageService storageService = mock(StorageService.class);
+    private final MinioClient client = mock(MinioClient.class);
+    private final ShardRouter shardRouter = new ShardRouter(List.of(new StorageShard("default", "test-bucket", client)), 128, false);
+    private CachePrewarmer prewarmer = new CachePrewarmer(properties, tracker, storageService, shardRouter);
+
+    @AfterEach
+    void tearDown() {
+        prewarmer.stop();
+    }
+
+    @Test
+    void prewarm_MergesHotSetsOfAllInstances() throws Exception {
+        // Arrange
+        hotSets(List.of(
+                hotSet(HOT_SETS + "one", ZonedDateTime.now(), "p/a.png\np/gone.png\n"),
+                hotSet(HOT_SETS + "two", ZonedDateTime.now(), "p/b.png\np/a.png\n")));
+        when(storageService.prewarm("p/a.png")).thenReturn(true);
+        when(storageService.prewarm("p/b.png")).thenReturn(true);
+
+        // Act
+        int warmed = prewarmer.prewarm();
+
+        // Assert
+        assertEquals(2, warmed);
+        verify(storageService).prewarm("p/a.png");
+        verify(storageService).prewarm("p/b.png");
+        verify(storageService).prewarm("p/gone.png");
+    }
+
+    @Test
+    void prewarm_StaleHotSetIgnoredAndRemoved() throws Exception {
+        // Arrange
+        hotSets(List.of(hotSet(HOT_SETS + "old", ZonedDateTime.now().minusDays(1), "p/a.png\n")));
+
+        // Act
+        int warmed = prewarmer.prewarm();
+
+        // Assert
+        assertEquals(0, warmed);
+        verify(client, never()).getObject(any(GetObjectArgs.class));
+        verify(client).removeObject(argThat((RemoveObjectArgs args) -> args.object().equals(HOT_SETS + "old")));
+        verifyNoInteractions(storageService);
+    }
+
+    @Test
+    void health_OutOfServiceUntilPrewarmFinishes() {
+        assertEquals(Status.OUT_OF_SERVICE, prewarmer.health().getStatus());
+    }
+
+    @Test
+    void publishHotSet_WritesTopPathsToOwnObjectInShard() throws Exception {
+        // Arrange
+        tracker.record("p/a.png", 100);
+        tracker.record("p/a.png", 100);
+        tracker.record("p/b.png", 100);
+
+        // Act
+        prewarmer.publishHotSet();
+
+        // Assert
+        ArgumentCaptor<PutObjectArgs> put = ArgumentCaptor.forClass(PutObjectArgs.class);
+        verify(client).putObject(put.capture());
+        assertTrue(put.getValue().object().startsWith(HOT_SETS));
+        assertEquals("text/plain", put.getValue().contentType());
+        assertEquals("p/a.png\np/b.png\n", new String(put.getValue().stream().readAllBytes(), StandardCharsets.UTF_8));
+        verifyNoInteractions(storageService);
+    }
+
+    @Test
+    void prewarmOnStartup_WhenPrewarmDisabled_StillPublishes() throws Exception {
+        // Arrange
+        properties.setPrewarmEnabled(false);
+        properties.setPublishInterval(Duration.ofMillis(10));
+        prewarmer = new CachePrewarmer(properties, tracker, storageService, shardRouter);
+        tracker.record("p/a.png", 100);
+
+        // Act
+        prewarmer.prewarmOnStartup();
+
+        // Assert
+        assertEquals(Status.UP, prewarmer.health().getStatus());
+        verify(client, timeout(2000).atLeastOnce()).putObject(any(PutObjectArgs.class));
+        verify(client, never()).listObjects(any(ListObjectsArgs.class));
+    }
+
+    private void hotSets(List<Item> items) throws Exception {
+        List<Result<Item>> listing = items.stream().map(Result::new).toList();
+        when(client.listObjects(any(ListObjectsArgs.class))).thenReturn(listing);
+    }
+
+    private Item hotSet(String objectName, ZonedDateTime lastModified, String content) throws Exception {
+        Item item = mock(Item.class);
+        when(item.objectName()).thenReturn(objectName);
+        when(item.lastModified()).thenReturn(lastModified);
+        when(client.getObject(argThat((GetObjectArgs args) -> args != null && args.object().equals(objectName))))
+                .thenAnswer(invocation -> new GetObjectResponse(Headers.of(), "test-bucket", null, objectName,
+                        new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8))));
+        return item;
+    }
+}
@@ -0,0 +1,63 @@
+package org.shvetsov.filestorage.service;
+
+import io.minio.GetObjectArgs;
+import io.minio.GetObjectResponse;
+import io.minio.ListObjectsArgs;
+import io.minio.MinioClient;
+import io.minio.Result;
+import io.minio.messages.Item;
+import okhttp3.Headers;
+import org.junit.jupiter.api.Test;
+import org.shvetsov.filestorage.configurations.ChecksumProperties;
+import org.shvetsov.filestorage.services.ChecksumScrubber;
+import org.shvetsov.filestorage.services.ObjectChecksums;
+import org.shvetsov.filestorage.services.ShardRouter;
+import org.shvetsov.filestorage.services.StorageShard;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class ChecksumScrubberTest {
+    private static final String TEST_SHA256 = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+
+    @Test
+    void scrub_CountsMatchesAndMismatches() throws Exception {
+        // Arrange
+        List<Result<Item>> listing = List.of(
+                new Result<>(item("p/ok.jpg", Map.of("X-Amz-Meta-Sha256", TEST_SHA256))),
+                new Result<>(item("p/corrupt.jpg", Map.of("X-Amz-Meta-Sha256", TEST_SHA256))),
+                new Result<>(item("p/legacy.jpg", null)));
+        MinioClient client = mock(MinioClient.class);
+        when(client.listObjects(any(ListObjectsArgs.class))).thenReturn(listing);
+        when(client.getObject(any(GetObjectArgs.class))).thenAnswer(invocation -> {
+            GetObjectArgs args = invocation.getArgument(0);
+            String body = args.object().equals("p/ok.jpg") ? "test" : "tesT";
+            return new GetObjectResponse(Headers.of(), "test-bucket", null, args.object(),
+                    new ByteArrayInputStream(body.getBytes()));
+        });
+        ShardRouter router = new ShardRouter(List.of(new StorageShard("default", "test-bucket", client)), 128, false);
+        ChecksumScrubber scrubber = new ChecksumScrubber(new ChecksumProperties(), router,
+                new ObjectChecksums(new ChecksumProperties()));
+
+        // Act
+        scrubber.scrub();
+
+        // Assert
+        assertEquals(1, scrubber.verifiedCount());
+        assertEquals(1, scrubber.mismatchCount());
+        verify(client, times(2)).getObject(any(GetObjectArgs.class));
+    }
+
+    private static Item item(String name, Map<String, String> userMetadata) {
+        Item item = mock(Item.class);
+        when(item.objectName()).thenReturn(name);
+        when(item.isDir()).thenReturn(false);
+        when(item.userMetadata()).thenReturn(userMetadata);
+        return item;
+    }
+}
@@ -1,12 +1,24 @@
 package org.shvetsov.filestorage.service;
 
 import io.minio.StatObjectResponse;
+import jakarta.validation.ValidationException;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.shvetsov.filestorage.configurations.IndexSnapshotProperties;
+import org.shvetsov.filestorage.configurations.BatchProperties;
+import org.shvetsov.filestorage.configurations.HotKeyProperties;
+import org.shvetsov.filestorage.configurations.PhotoProperties;
+import org.shvetsov.filestorage.dto.FileInfoBatchItem;
+import org.shvetsov.filestorage.dto.PhotoSummary;
 import org.shvetsov.filestorage.services.FileService;
+import org.shvetsov.filestorage.services.HotKeyTracker;
+import org.shvetsov.filestorage.services.ImageVariantService;
+import org.shvetsov.filestorage.services.PhotoIndex;
+import org.shvetsov.filestorage.services.PhotoIndexSnapshot;
 import org.shvetsov.filestorage.services.StorageService;
 import org.shvetsov.requestApi.ProductPhotoRS;
 import org.shvetsov.responseApi.FileResponse;
@@ -14,24 +26,49 @@ import org.shvetsov.responseApi.FileUploadResponse;
 import org.springframework.core.io.Resource;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
+import java.io.InputStream;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
+import java.util.List;
 import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
 class FileServiceTest {
+    // SOI и APP0: заголовок JPEG без размеров
+    private static final byte[] JPEG_HEADER = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0, 0, 16, 'J', 'F', 'I', 'F', 0, 1};
 
     @Mock
     private StorageService storageService;
 
+    @Spy
+    private BatchProperties batchProperties = new BatchProperties();
+
+    @Spy
+    private PhotoProperties photoProperties = new PhotoProperties();
+
+    @Mock
+    private ImageVariantService imageVariantService;
+
+    @Spy
+    private PhotoIndex photoIndex = new PhotoIndex(null, new PhotoIndexSnapshot(new IndexSnapshotProperties()));
+
+    @Spy
+    private HotKeyTracker hotKeyTracker = new HotKeyTracker(new HotKeyProperties());
+
     @InjectMocks
     private FileService fileService;
 
@@ -41,8 +78,8 @@ class FileServiceTest {
         UUID fileId = UUID.randomUUID();
         // Arrange
         MultipartFile file = mock(MultipartFile.class);
-        when(file.getInputStream()).thenReturn(new ByteArrayInputStream("test".getBytes()));
-        when(file.getSize()).thenReturn(4L);
+        when(file.getInputStream()).thenAnswer(invocation -> new ByteArrayInputStream(JPEG_HEADER));
+        when(file.getSize()).thenReturn((long) JPEG_HEADER.length);
         when(file.getContentType()).thenReturn("image/jpeg"); // ← ИЗМЕНИТЕ НА image/*
         when(file.getOriginalFilename()).thenReturn("test.jpg");
 
@@ -93,4 +130,140 @@ class FileServiceTest {
         // Assert
         verify(storageService).deleteFile("test.txt");
     }
+
+    @Test
+    void getFileInfoBatch_MarksMissingPaths() throws Exception {
+        // Arrange
+        StatObjectResponse metadata = mock(StatObjectResponse.class);
+        when(storageService.fileExists("p1/a.jpg")).thenReturn(true);
+        when(storageService.fileExists("p1/missing.jpg")).thenReturn(false);
+        when(storageService.getFileMetadata("p1/a.jpg")).thenReturn(metadata);
+        when(storageService.getFileUrl("p1/a.jpg", 1)).thenReturn("http://minio/a.jpg");
+        when(metadata.contentType()).thenReturn("image/jpeg");
+        when(metadata.size()).thenReturn(4L);
+        when(metadata.lastModified()).thenReturn(ZonedDateTime.now(ZoneId.of("UTC")));
+
+        // Act
+        List<FileInfoBatchItem> items = fileService.getFileInfoBatch(List.of("p1/a.jpg", "p1/missing.jpg"));
+
+        // Assert
+        assertEquals(2, items.size());
+        assertTrue(items.get(0).found());
+        assertEquals("a.jpg", items.get(0).info().getFileName());
+        assertEquals("http://minio/a.jpg", items.get(0).info().getUrl());
+        assertFalse(items.get(1).found());
+        assertEquals("p1/missing.jpg", items.get(1).path());
+        assertNull(items.get(1).info());
+    }
+
+    @Test
+    void uploadFile_WhenIndexNotReady_CountsPhotosInStorage() throws Exception {
+        // Arrange
+        UUID productId = UUID.randomUUID();
+        photoProperties.setMaxPerProduct(2);
+        MultipartFile file = mock(MultipartFile.class);
+        when(file.getContentType()).thenReturn("image/jpeg");
+        when(file.getSize()).thenReturn(4L);
+        when(file.getOriginalFilename()).thenReturn("c.jpg");
+        when(storageService.listFiles(productId + "/"))
+                .thenReturn(List.of(productId + "/a.jpg", productId + "/b.jpg", productId + "/d.jpg"));
+        when(storageService.generateObjectName(eq(productId), any(), eq("c.jpg")))
+                .thenReturn(productId + "/c.jpg");
+
+        // Act & Assert
+        ValidationException e = assertThrows(ValidationException.class,
+                () -> fileService.uploadProductPhoto(productId, UUID.randomUUID(), file));
+        assertEquals("Product already has 3 photos, limit is 2", e.getMessage());
+        verify(storageService, never()).uploadFile(any(), anyString());
+    }
+
+    @Test
+    void uploadFile_WhenSlotTakenByConcurrentUpload_ThrowsValidation() throws Exception {
+        // Arrange
+        UUID productId = UUID.randomUUID();
+        photoProperties.setMaxPerProduct(1);
+        photoIndex.tryReserve(productId, productId + "/a.jpg", 1, List.of());
+        MultipartFile file = mock(MultipartFile.class);
+        when(file.getContentType()).thenReturn("image/jpeg");
+        when(file.getSize()).thenReturn(4L);
+        when(file.getOriginalFilename()).thenReturn("b.jpg");
+        when(storageService.listFiles(productId + "/")).thenReturn(List.of());
+        when(storageService.generateObjectName(eq(productId), any(), eq("b.jpg")))
+                .thenReturn(productId + "/b.jpg");
+
+        // Act & Assert
+        assertThrows(ValidationException.class, () -> fileService.uploadProductPhoto(productId, UUID.randomUUID(), file));
+        verify(storageService, never()).uploadFile(any(), anyLong(), anyString(), anyString(), any());
+    }
+
+    @Test
+    void listProductPhotos_WhenIndexNotReady_SkipsVariantDirectory() throws Exception {
+        // Arrange
+        UUID productId = UUID.randomUUID();
+        StatObjectResponse metadata = mock(StatObjectResponse.class);
+        when(storageService.listFiles(productId + "/")).thenReturn(List.of(productId + "/a.jpg", productId + "/variants/"));
+        when(storageService.getFileMetadata(productId + "/a.jpg")).thenReturn(metadata);
+
+        // Act
+        List<PhotoSummary> photos = fileService.listProductPhotos(productId);
+
+        // Assert
+        assertEquals(1, photos.size());
+        assertEquals(productId + "/a.jpg", photos.get(0).path());
+        verify(storageService, never()).getFileMetadata(productId + "/variants/");
+    }
+
+    @Test
+    void uploadFile_WhenContentTypeNotAllowed_ThrowsValidation() throws Exception {
+        // Arrange
+        MultipartFile file = mock(MultipartFile.class);
+        when(file.getContentType()).thenReturn("image/gif");
+
+        // Act & Assert
+        assertThrows(ValidationException.class,
+                () -> fileService.uploadProductPhoto(UUID.randomUUID(), UUID.randomUUID(), file));
+        verify(storageService, never()).uploadFile(any(), anyString());
+    }
+
+    @Test
+    void uploadFile_WhenContentIsNotDeclaredImage_ThrowsValidation() throws Exception {
+        // Arrange
+        UUID productId = UUID.randomUUID();
+        MultipartFile file = mock(MultipartFile.class);
+        when(file.getInputStream()).thenAnswer(invocation -> new ByteArrayInputStream("not an image at all".getBytes()));
+        when(file.getSize()).thenReturn(19L);
+        when(file.getContentType()).thenReturn("image/jpeg");
+        when(file.getOriginalFilename()).thenReturn("fake.jpg");
+        when(storageService.listFiles(productId + "/")).thenReturn(List.of());
+        when(storageService.generateObjectName(eq(productId), any(), eq("fake.jpg")))
+                .thenReturn(productId + "/fake.jpg");
+
+        // Act & Assert
+        assertThrows(ValidationException.class, () -> fileService.uploadProductPhoto(productId, UUID.randomUUID(), file));
+        verify(storageService, never()).uploadFile(any(InputStream.class), anyLong(), anyString(), anyString(), any());
+    }
+
+    @Test
+    void uploadFile_ValidImage_PlaceholderUsesHeaderDimensions() throws Exception {
+        // Arrange
+        UUID productId = UUID.randomUUID();
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(120, 40, BufferedImage.TYPE_INT_RGB), "png", png);
+        byte[] bytes = png.toByteArray();
+        MultipartFile file = mock(MultipartFile.class);
+        when(file.getInputStream()).thenAnswer(invocation -> new ByteArrayInputStream(bytes));
+        when(file.getSize()).thenReturn((long) bytes.length);
+        when(file.getContentType()).thenReturn("image/png");
+        when(file.getOriginalFilename()).thenReturn("a.png");
+        when(storageService.listFiles(productId + "/")).thenReturn(List.of());
+        when(storageService.generateObjectName(eq(productId), any(), eq("a.png")))
+                .thenReturn(productId + "/a.png");
+
+        // Act
+        fileService.uploadProductPhoto(productId, UUID.randomUUID(), file);
+
+        // Assert
+        verify(storageService).uploadFile(any(InputStream.class), eq((long) bytes.length), eq("image/png"), eq(productId + "/a.png"),
+                argThat(placeholder -> placeholder != null && placeholder.width() == 120 && placeholder.height() == 40));
+    }
 }
@@ -0,0 +1,72 @@
+package org.shvetsov.filestorage.service;
+
+import org.junit.jupiter.api.Test;
+import org.shvetsov.filestorage.configurations.HotKeyProperties;
+import org.shvetsov.filestorage.dto.HotKey;
+import org.shvetsov.filestorage.services.HotKeyTracker;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HotKeyTrackerTest {
+
+    @Test
+    void top_FindsHotPathsInLongTailWithByteVolumes() {
+        // Arrange
+        HotKeyProperties properties = new HotKeyProperties();
+        properties.setCapacity(10);
+        HotKeyTracker tracker = new HotKeyTracker(properties);
+        Random random = new Random(7);
+
+        // Act
+        for (int i = 0; i < 20_000; i++) {
+            tracker.record("cold/" + random.nextInt(5_000), 100);
+            if (i % 4 == 0) {
+                tracker.record("hot/a", 1_000);
+            }
+            if (i % 10 == 0) {
+                tracker.record("hot/b", 10);
+            }
+        }
+        List<HotKey> top = tracker.top(2);
+
+        // Assert
+        assertEquals(List.of("hot/a", "hot/b"), top.stream().map(HotKey::path).toList());
+        // Count-min не занижает и при такой ширине почти не завышает
+        assertTrue(top.get(0).hits() >= 5_000 && top.get(0).hits() < 5_100, "hits " + top.get(0).hits());
+        assertTrue(top.get(0).bytes() >= 5_000_000L && top.get(0).bytes() < 5_100_000L, "bytes " + top.get(0).bytes());
+        assertTrue(top.get(1).hits() >= 2_000 && top.get(1).hits() < 2_100, "hits " + top.get(1).hits());
+    }
+
+    @Test
+    void decay_HalvesCountsAndForgetsColdPaths() {
+        // Arrange
+        HotKeyTracker tracker = new HotKeyTracker(new HotKeyProperties());
+        for (int i = 0; i < 8; i++) {
+            tracker.record("hot/a", 50);
+        }
+        tracker.record("once/b", 50);
+
+        // Act
+        tracker.decay();
+
+        // Assert
+        assertEquals(List.of(new HotKey("hot/a", 4, 200)), tracker.top(10));
+    }
+
+    @Test
+    void record_Disabled_TracksNothing() {
+        // Arrange
+        HotKeyProperties properties = new HotKeyProperties();
+        properties.setEnabled(false);
+        HotKeyTracker tracker = new HotKeyTracker(properties);
+
+        // Act
+        tracker.record("hot/a", 50);
+
+        // Assert
+        assertTrue(tracker.top(10).isEmpty());
+    }
+}
@@ -0,0 +1,75 @@
+package org.shvetsov.filestorage.service;
+
+import org.junit.jupiter.api.Test;
+import org.shvetsov.filestorage.dto.ImagePlaceholder;
+import org.shvetsov.filestorage.services.ImagePlaceholders;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImagePlaceholdersTest {
+
+    @Test
+    void compute_ReturnsDimensionsColorAndBlurhash() throws Exception {
+        // Arrange
+        BufferedImage image = new BufferedImage(400, 200, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.RED);
+        graphics.fillRect(0, 0, 400, 200);
+        graphics.setColor(Color.BLUE);
+        graphics.fillRect(0, 0, 100, 200);
+        graphics.dispose();
+
+        // Act
+        ImagePlaceholder placeholder = ImagePlaceholders.compute(new ByteArrayInputStream(png(image)), 10000, 10000);
+
+        // Assert
+        assertEquals(400, placeholder.width());
+        assertEquals(200, placeholder.height());
+        assertEquals("#ff0000", placeholder.dominantColor());
+        // размер, максимум, DC и 11 AC-компонент сетки 4x3
+        assertEquals(1 + 1 + 4 + 11 * 2, placeholder.blurhash().length());
+        assertEquals('L', placeholder.blurhash().charAt(0));
+    }
+
+    @Test
+    void compute_TooLarge_ReturnsNull() throws Exception {
+        // Arrange
+        byte[] data = png(new BufferedImage(300, 100, BufferedImage.TYPE_INT_RGB));
+
+        // Act & Assert
+        assertNull(ImagePlaceholders.compute(new ByteArrayInputStream(data), 200, 200));
+    }
+
+    @Test
+    void compute_UnknownFormat_ReturnsNull() throws Exception {
+        // Act & Assert
+        assertNull(ImagePlaceholders.compute(new ByteArrayInputStream("not an image".getBytes()), 10000, 10000));
+    }
+
+    @Test
+    void fromMetadata_ReadsPrefixedKeysWrittenByToMetadata() {
+        // Arrange
+        ImagePlaceholder placeholder = new ImagePlaceholder(640, 480, "#102030", "LEHV6nWB2yk8pyo0adR*.7kCMdnj");
+        Map<String, String> stored = new HashMap<>();
+        ImagePlaceholders.toMetadata(placeholder).forEach((key, value) -> stored.put("X-Amz-Meta-" + key, value));
+
+        // Act & Assert
+        assertEquals(placeholder, ImagePlaceholders.fromMetadata(stored));
+        assertNull(ImagePlaceholders.fromMetadata(Map.of("sha256", "abc")));
+    }
+
+    private static byte[] png(BufferedImage image) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,207 @@
+package org.shvetsov.filestorage.service;
+
+import io.minio.StatObjectResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.shvetsov.filestorage.configurations.VariantProperties;
+import org.shvetsov.filestorage.dto.StoredObject;
+import org.shvetsov.filestorage.services.ImageVariantService;
+import org.shvetsov.filestorage.services.StorageService;
+import org.springframework.http.MediaType;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class ImageVariantServiceTest {
+    private static final String PATH = "p/photo.png";
+
+    private final StorageService storageService = mock(StorageService.class);
+    private final ImageVariantService service = new ImageVariantService(properties(), storageService);
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    void checkEncoders_WhenFormatHasNoEncoder_FailsStartup() {
+        // Arrange
+        VariantProperties properties = properties();
+        properties.setFormats(List.of("image/webp", "image/jpeg"));
+        ImageVariantService withoutEncoder = new ImageVariantService(properties, storageService);
+
+        // Act & Assert
+        IllegalStateException e = assertThrows(IllegalStateException.class, withoutEncoder::checkEncoders);
+        assertTrue(e.getMessage().contains("image/webp"));
+        withoutEncoder.shutdown();
+    }
+
+    @Test
+    void checkEncoders_WhenDisabled_DoesNotRequireEncoders() {
+        // Arrange
+        ImageVariantService disabled = new ImageVariantService(new VariantProperties(), storageService);
+
+        // Act & Assert
+        assertDoesNotThrow(disabled::checkEncoders);
+        disabled.shutdown();
+    }
+
+    @Test
+    void negotiate_PicksFirstFormatClientNamesExplicitly() {
+        // webp не настроен, следующий по компактности — JPEG
+        assertEquals("image/jpeg", service.negotiate("image/png", MediaType.parseMediaTypes("image/webp,image/jpeg,image/*;q=0.8")));
+        assertNull(service.negotiate("image/png", MediaType.parseMediaTypes("*/*,image/jpeg;q=0")));
+        assertNull(service.negotiate("image/jpeg", MediaType.parseMediaTypes("*/*")));
+        assertNull(service.negotiate("image/png", MediaType.parseMediaTypes("image/png")));
+    }
+
+    @Test
+    void negotiate_WildcardOrPreferredOriginal_ServesOriginal() {
+        assertNull(service.negotiate("image/png", MediaType.parseMediaTypes("*/*")));
+        assertNull(service.negotiate("image/png", MediaType.parseMediaTypes("image/webp,image/*")));
+        assertNull(service.negotiate("image/png", MediaType.parseMediaTypes("image/png,image/jpeg;q=0.5")));
+    }
+
+    @Test
+    void resolve_ServesOriginalAndStoresSmallerVariantInBackground() throws Exception {
+        // Arrange
+        byte[] png = png(noise(BufferedImage.TYPE_INT_RGB));
+        StatObjectResponse original = original(png.length);
+        when(storageService.getFileAsStream(PATH)).thenAnswer(invocation -> new ByteArrayInputStream(png));
+        when(storageService.fileExists(startsWith("p/variants/"))).thenReturn(false);
+
+        // Act
+        String key = service.resolve(PATH, original, "image/jpeg");
+
+        // Assert
+        assertNull(key);
+        verify(storageService, timeout(5000)).uploadFile(any(InputStream.class), longThat(size -> size > 0 && size < png.length),
+                eq("image/jpeg"), eq("p/variants/photo.png/etag1.jpg"));
+    }
+
+    @Test
+    void resolve_WhileTranscoding_SchedulesOnce() throws Exception {
+        // Arrange
+        byte[] png = png(noise(BufferedImage.TYPE_INT_RGB));
+        StatObjectResponse original = original(png.length);
+        CountDownLatch release = new CountDownLatch(1);
+        when(storageService.getFileAsStream(PATH)).thenAnswer(invocation -> {
+            release.await();
+            return new ByteArrayInputStream(png);
+        });
+        when(storageService.fileExists(startsWith("p/variants/"))).thenReturn(false);
+
+        // Act
+        assertNull(service.resolve(PATH, original, "image/jpeg"));
+        assertNull(service.resolve(PATH, original, "image/jpeg"));
+        release.countDown();
+
+        // Assert
+        verify(storageService, timeout(5000)).uploadFile(any(InputStream.class), anyLong(), eq("image/jpeg"),
+                eq("p/variants/photo.png/etag1.jpg"));
+        verify(storageService, times(1)).getFileAsStream(PATH);
+    }
+
+    @Test
+    void resolve_WhenTranscodeFails_NoMarkerStored() throws Exception {
+        // Arrange
+        StatObjectResponse original = original(10_000);
+        when(storageService.fileExists(startsWith("p/variants/"))).thenReturn(false);
+        when(storageService.getFileAsStream(PATH)).thenThrow(new IllegalStateException("origin unavailable"));
+
+        // Act
+        assertNull(service.resolve(PATH, original, "image/jpeg"));
+
+        // Assert
+        verify(storageService, timeout(5000)).getFileAsStream(PATH);
+        Thread.sleep(100);
+        verify(storageService, never()).uploadFile(any(InputStream.class), anyLong(), anyString(), anyString());
+    }
+
+    @Test
+    void resolve_TransparentImageToJpeg_StoresMarkerAndServesOriginal() throws Exception {
+        // Arrange
+        byte[] png = png(noise(BufferedImage.TYPE_INT_ARGB));
+        StatObjectResponse original = original(png.length);
+        when(storageService.getFileAsStream(PATH)).thenAnswer(invocation -> new ByteArrayInputStream(png));
+        when(storageService.fileExists(startsWith("p/variants/"))).thenReturn(false);
+        when(storageService.uploadFile(any(InputStream.class), anyLong(), anyString(), anyString()))
+                .thenReturn(new StoredObject("p/variants/photo.png/etag1.jpg", null, null));
+
+        // Act
+        String key = service.resolve(PATH, original, "image/jpeg");
+
+        // Assert
+        assertNull(key);
+        verify(storageService, timeout(5000)).uploadFile(any(InputStream.class), eq(0L), eq("image/jpeg"),
+                eq("p/variants/photo.png/etag1.jpg"));
+    }
+
+    @Test
+    void resolve_ExistingVariant_NotTranscodedAgain() throws Exception {
+        // Arrange
+        StatObjectResponse original = original(10_000);
+        StatObjectResponse variant = mock(StatObjectResponse.class);
+        when(variant.size()).thenReturn(4_000L);
+        when(storageService.fileExists("p/variants/photo.png/etag1.jpg")).thenReturn(true);
+        when(storageService.getFileMetadata("p/variants/photo.png/etag1.jpg")).thenReturn(variant);
+
+        // Act & Assert
+        assertEquals("p/variants/photo.png/etag1.jpg", service.resolve(PATH, original, "image/jpeg"));
+        verify(storageService, never()).getFileAsStream(anyString());
+    }
+
+    @Test
+    void deleteVariants_ListsProductVariantDirectory() throws Exception {
+        // Arrange
+        when(storageService.listFiles("p/variants/photo.png/")).thenReturn(List.of("p/variants/photo.png/etag1.jpg"));
+
+        // Act
+        service.deleteVariants(PATH);
+
+        // Assert
+        verify(storageService).deleteFile("p/variants/photo.png/etag1.jpg");
+    }
+
+    private static VariantProperties properties() {
+        VariantProperties properties = new VariantProperties();
+        properties.setEnabled(true);
+        properties.setFormats(List.of("image/jpeg", "image/png"));
+        return properties;
+    }
+
+    private static StatObjectResponse original(long size) {
+        StatObjectResponse original = mock(StatObjectResponse.class);
+        when(original.etag()).thenReturn("\"etag1\"");
+        when(original.size()).thenReturn(size);
+        return original;
+    }
+
+    // Шум плохо сжимается PNG без потерь, поэтому JPEG заметно меньше
+    private static BufferedImage noise(int type) {
+        BufferedImage image = new BufferedImage(128, 128, type);
+        Random random = new Random(42);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, 0x80000000 | random.nextInt(0x1000000));
+            }
+        }
+        return image;
+    }
+
+    private static byte[] png(BufferedImage image) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,106 @@
+package org.shvetsov.filestorage.service;
+
+import io.minio.StatObjectResponse;
+import org.junit.jupiter.api.Test;
+import org.shvetsov.filestorage.configurations.InvalidationProperties;
+import org.shvetsov.filestorage.configurations.MetadataCacheProperties;
+import org.shvetsov.filestorage.configurations.NegativeCacheProperties;
+import org.shvetsov.filestorage.dto.ImagePlaceholder;
+import org.shvetsov.filestorage.dto.PhotoSummary;
+import org.shvetsov.filestorage.services.Invalidation;
+import org.shvetsov.filestorage.services.InvalidationBus;
+import org.shvetsov.filestorage.services.InvalidationListener;
+import org.shvetsov.filestorage.services.LoopbackInvalidationTransport;
+import org.shvetsov.filestorage.services.MetadataCache;
+import org.shvetsov.filestorage.services.NegativeLookupCache;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class InvalidationBusTest {
+    private static final String PATH = "11111111-1111-1111-1111-111111111111/photo.png";
+
+    private final LoopbackInvalidationTransport transport = new LoopbackInvalidationTransport();
+
+    @Test
+    void flush_CoalescesBurstIntoOneBatchForOtherInstances() {
+        // Arrange
+        List<Invalidation> onSender = new ArrayList<>();
+        List<Invalidation> onPeer = new ArrayList<>();
+        InvalidationBus sender = bus(onSender::add);
+        bus(onPeer::add);
+        PhotoSummary photo = new PhotoSummary(PATH, 10, "image/png", "etag1", new ImagePlaceholder(4, 3, "#102030", "LEHV6n"));
+
+        // Act
+        sender.publish(Invalidation.write(new PhotoSummary(PATH, 5, "image/png", "etag0")));
+        sender.publish(Invalidation.delete(PATH));
+        sender.publish(Invalidation.write(photo));
+        sender.publish(Invalidation.delete("other/key"));
+        sender.flush();
+
+        // Assert
+        assertEquals(List.of(Invalidation.write(photo), Invalidation.delete("other/key")), onPeer);
+        assertTrue(onSender.isEmpty());
+    }
+
+    @Test
+    void publish_FullBatchIsSentWithoutWaitingForInterval() {
+        // Arrange
+        InvalidationProperties properties = properties();
+        properties.setMaxBatch(2);
+        List<Invalidation> onPeer = new ArrayList<>();
+        InvalidationBus sender = bus(properties, invalidation -> { });
+        bus(properties, onPeer::add);
+
+        // Act
+        sender.publish(Invalidation.delete("a"));
+        sender.publish(Invalidation.delete("b"));
+
+        // Assert
+        assertEquals(2, onPeer.size());
+    }
+
+    @Test
+    void receive_RemoteWriteAndDeleteRefreshPeerCaches() throws Exception {
+        // Arrange
+        MetadataCache metadataCache = new MetadataCache(new MetadataCacheProperties());
+        NegativeLookupCache negativeLookupCache = new NegativeLookupCache(new NegativeCacheProperties());
+        metadataCache.put(PATH, mock(StatObjectResponse.class));
+        negativeLookupCache.markMissing(PATH);
+        InvalidationBus sender = bus(invalidation -> { });
+        new InvalidationBus(properties(), transport, List.of(metadataCache, negativeLookupCache)).start();
+
+        // Act
+        sender.publish(Invalidation.write(new PhotoSummary(PATH, 10, "image/png", "etag1")));
+        sender.publish(Invalidation.delete("gone/key"));
+        sender.flush();
+
+        // Assert
+        assertNull(metadataCache.get(PATH));
+        assertFalse(negativeLookupCache.isKnownMissing(PATH));
+        // Удаление с другого экземпляра промах не запоминает: следующий запрос сделает stat
+        assertFalse(negativeLookupCache.isKnownMissing("gone/key"));
+    }
+
+    private InvalidationBus bus(InvalidationListener listener) {
+        return bus(properties(), listener);
+    }
+
+    private InvalidationBus bus(InvalidationProperties properties, InvalidationListener listener) {
+        InvalidationBus bus = new InvalidationBus(properties, transport, List.of(listener));
+        bus.start();
+        return bus;
+    }
+
+    // Интервал заведомо больше теста: пачки уходят только по flush или по заполнению
+    private static InvalidationProperties properties() {
+        InvalidationProperties properties = new InvalidationProperties();
+        properties.setEnabled(true);
+        properties.setFlushInterval(Duration.ofMinutes(10));
+        return properties;
+    }
+}
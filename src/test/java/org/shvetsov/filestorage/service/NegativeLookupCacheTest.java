@@ -0,0 +1,137 @@
+package org.shvetsov.filestorage.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.shvetsov.filestorage.configurations.NegativeCacheProperties;
+import org.shvetsov.filestorage.dto.PhotoSummary;
+import org.shvetsov.filestorage.services.Invalidation;
+import org.shvetsov.filestorage.services.NegativeLookupCache;
+
+import java.time.Duration;
+import java.util.AbstractList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NegativeLookupCacheTest {
+
+    private NegativeCacheProperties properties;
+    private NegativeLookupCache cache;
+
+    @BeforeEach
+    void setUp() {
+        properties = new NegativeCacheProperties();
+        properties.setBloomEnabled(true);
+        cache = new NegativeLookupCache(properties);
+    }
+
+    @Test
+    void markMissing_ThenKnownMissing() {
+        cache.markMissing("p1/a.jpg");
+
+        assertTrue(cache.isKnownMissing("p1/a.jpg"));
+        assertFalse(cache.isKnownMissing("p1/b.jpg"));
+    }
+
+    @Test
+    void onInvalidation_StaleDeleteAfterWrite_MissNotRemembered() {
+        cache.onInvalidation(Invalidation.write(new PhotoSummary("p1/a.jpg", 3, "image/jpeg", "etag1")));
+        cache.onInvalidation(Invalidation.delete("p1/a.jpg"));
+
+        assertFalse(cache.isKnownMissing("p1/a.jpg"));
+    }
+
+    @Test
+    void markMissing_WhenTtlElapsed_NotKnownMissing() {
+        properties.setTtl(Duration.ZERO);
+
+        cache.markMissing("p1/a.jpg");
+
+        assertFalse(cache.isKnownMissing("p1/a.jpg"));
+    }
+
+    @Test
+    void markPresent_ClearsNegativeEntry() {
+        cache.markMissing("p1/a.jpg");
+
+        cache.markPresent("p1/a.jpg");
+
+        assertFalse(cache.isKnownMissing("p1/a.jpg"));
+    }
+
+    @Test
+    void markMissing_WhenUploadDuringLookup_NotRemembered() {
+        long lookupStartedAt = System.nanoTime();
+        cache.markPresent("p1/a.jpg");
+
+        cache.markMissing("p1/a.jpg", lookupStartedAt);
+
+        assertFalse(cache.isKnownMissing("p1/a.jpg"));
+    }
+
+    @Test
+    void markMissing_WhenUploadBeforeLookup_Remembered() {
+        cache.markPresent("p1/a.jpg");
+        long lookupStartedAt = System.nanoTime();
+
+        cache.markMissing("p1/a.jpg", lookupStartedAt);
+
+        assertTrue(cache.isKnownMissing("p1/a.jpg"));
+    }
+
+    @Test
+    void rebuildPrefix_AnswersForWholePrefix() {
+        cache.rebuildPrefix("p1/", List.of("p1/a.jpg", "p1/b.jpg"), System.nanoTime());
+
+        assertFalse(cache.isKnownMissing("p1/a.jpg"));
+        assertFalse(cache.isKnownMissing("p1/b.jpg"));
+        assertTrue(cache.isKnownMissing("p1/missing.jpg"));
+        assertFalse(cache.isKnownMissing("p2/missing.jpg"));
+    }
+
+    @Test
+    void rebuildPrefix_WhenUploadDuringListing_FilterIgnored() {
+        long listingStartedAt = System.nanoTime();
+        cache.markPresent("p1/new.jpg");
+
+        cache.rebuildPrefix("p1/", List.of("p1/a.jpg"), listingStartedAt);
+
+        assertFalse(cache.isKnownMissing("p1/new.jpg"));
+    }
+
+    @Test
+    void rebuildPrefix_WhenUploadDuringBuild_NewFilterContainsIt() {
+        // Загрузка приходит, пока фильтр заполняется листингом
+        List<String> listing = new AbstractList<>() {
+            private boolean uploaded;
+
+            @Override
+            public String get(int index) {
+                if (!uploaded) {
+                    uploaded = true;
+                    cache.markPresent("p1/new.jpg");
+                }
+                return "p1/a.jpg";
+            }
+
+            @Override
+            public int size() {
+                return 1;
+            }
+        };
+
+        cache.rebuildPrefix("p1/", listing, System.nanoTime());
+
+        assertFalse(cache.isKnownMissing("p1/new.jpg"));
+        assertTrue(cache.isKnownMissing("p1/missing.jpg"));
+    }
+
+    @Test
+    void markPresent_DropsPrefixFilter() {
+        cache.rebuildPrefix("p1/", List.of("p1/a.jpg"), System.nanoTime());
+
+        cache.markPresent("p1/new.jpg");
+
+        assertFalse(cache.isKnownMissing("p1/new.jpg"));
+    }
+}
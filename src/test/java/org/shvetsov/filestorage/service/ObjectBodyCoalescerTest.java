@@ -0,0 +1,325 @@
+package org.shvetsov.filestorage.service;
+
+import io.minio.GetObjectResponse;
+import okhttp3.Headers;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.shvetsov.filestorage.configurations.BufferPoolProperties;
+import org.shvetsov.filestorage.configurations.CoalescingProperties;
+import org.shvetsov.filestorage.services.BufferPool;
+import org.shvetsov.filestorage.services.ObjectBodyCoalescer;
+import org.shvetsov.filestorage.services.SingleFlight;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ObjectBodyCoalescerTest {
+
+    @TempDir
+    Path spoolDirectory;
+
+    private ObjectBodyCoalescer coalescer;
+    private BufferPool bufferPool;
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @BeforeEach
+    void setUp() {
+        CoalescingProperties properties = new CoalescingProperties();
+        properties.setInMemoryMaxSize(DataSize.ofBytes(8));
+        properties.setSpoolDirectory(spoolDirectory.toString());
+        bufferPool = new BufferPool(new BufferPoolProperties());
+        coalescer = new ObjectBodyCoalescer(properties, bufferPool);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+        coalescer.shutdown();
+    }
+
+    @Test
+    void singleFlight_ConcurrentCalls_LoadOnce() throws Exception {
+        SingleFlight<String, String> flight = new SingleFlight<>();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+
+        Future<String> leader = executor.submit(() -> flight.execute("key", () -> {
+            loads.incrementAndGet();
+            loading.countDown();
+            release.await();
+            return "value";
+        }));
+        loading.await();
+        Future<String> follower = executor.submit(() -> flight.execute("key", () -> {
+            loads.incrementAndGet();
+            return "other";
+        }));
+        Thread.sleep(100);
+        release.countDown();
+
+        assertEquals("value", leader.get(5, TimeUnit.SECONDS));
+        assertEquals("value", follower.get(5, TimeUnit.SECONDS));
+        assertEquals(1, loads.get());
+        assertEquals(0, flight.inFlightCount());
+    }
+
+    @Test
+    void open_SingleReader_StreamsDirectlyWithoutSpool() throws Exception {
+        byte[] body = new byte[256 * 1024];
+        GetObjectResponse origin = response(new ByteArrayInputStream(body), body.length);
+
+        try (InputStream stream = coalescer.open("p/big.jpg", () -> origin)) {
+            assertSame(origin, stream);
+            assertEquals(0, coalescer.activeSpoolCount());
+            try (var files = Files.list(spoolDirectory)) {
+                assertEquals(0, files.count());
+            }
+            assertArrayEquals(body, stream.readAllBytes());
+        }
+    }
+
+    @Test
+    void open_SmallBody_SharedFromMemory() throws Exception {
+        AtomicInteger gets = new AtomicInteger();
+
+        InputStream[] streams = openWithJoiner("p/a.jpg", () -> response("test".getBytes()), gets);
+
+        for (InputStream stream : streams) {
+            try (stream) {
+                assertArrayEquals("test".getBytes(), stream.readAllBytes());
+            }
+        }
+        assertEquals(1, gets.get());
+        // Тело лежало в буфере пула и вернулось в него после последнего читателя
+        assertEquals(1, bufferPool.allocatedCount());
+        assertEquals(1, bufferPool.available());
+    }
+
+    @Test
+    void open_LargeBody_TeedToConcurrentReaders() throws Exception {
+        byte[] body = new byte[256 * 1024];
+        Arrays.fill(body, (byte) 7);
+        PipedOutputStream origin = new PipedOutputStream();
+        PipedInputStream originBody = new PipedInputStream(origin, 1024);
+        AtomicInteger gets = new AtomicInteger();
+
+        InputStream[] streams = openWithJoiner("p/big.jpg", () -> response(originBody, body.length), gets);
+        executor.submit(() -> {
+            origin.write(body);
+            origin.close();
+            return null;
+        });
+
+        assertArrayEquals(body, streams[0].readAllBytes());
+        assertArrayEquals(body, streams[1].readAllBytes());
+        streams[0].close();
+        streams[1].close();
+
+        assertEquals(1, gets.get());
+        awaitNoSpools();
+        try (var files = Files.list(spoolDirectory)) {
+            assertEquals(0, files.count());
+        }
+        assertEquals(1, bufferPool.available());
+    }
+
+    @Test
+    void open_LargeBody_WhenAllReadersClose_PumpStops() throws Exception {
+        AtomicInteger reads = new AtomicInteger();
+        CountDownLatch originClosed = new CountDownLatch(1);
+        InputStream endless = new InputStream() {
+            @Override
+            public int read() {
+                return 1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                reads.incrementAndGet();
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                Arrays.fill(b, off, off + len, (byte) 1);
+                return len;
+            }
+
+            @Override
+            public void close() {
+                originClosed.countDown();
+            }
+        };
+        AtomicInteger gets = new AtomicInteger();
+
+        InputStream[] streams = openWithJoiner("p/big.jpg", () -> response(endless, 1L << 40), gets);
+        assertEquals(16, streams[0].readNBytes(16).length);
+        assertEquals(16, streams[1].readNBytes(16).length);
+        streams[0].close();
+        streams[1].close();
+
+        assertTrue(originClosed.await(5, TimeUnit.SECONDS));
+        awaitNoSpools();
+        int readsAfterStop = reads.get();
+        Thread.sleep(50);
+        assertEquals(readsAfterStop, reads.get());
+        try (var files = Files.list(spoolDirectory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void open_WhenLeaderFinishesFirst_JoinerDoesNotReload() throws Exception {
+        byte[] small = "test".getBytes();
+        byte[] large = new byte[256 * 1024];
+        Arrays.fill(large, (byte) 3);
+
+        for (int i = 0; i < 20; i++) {
+            for (byte[] body : new byte[][] {small, large}) {
+                AtomicInteger gets = new AtomicInteger();
+                CountDownLatch leading = new CountDownLatch(1);
+                CountDownLatch joined = new CountDownLatch(1);
+                String key = "p/" + i + "-" + body.length + ".jpg";
+
+                // Ведущий вычитывает и закрывает тело сразу, не дожидаясь присоединившегося
+                Future<byte[]> leader = executor.submit(() -> {
+                    try (InputStream stream = coalescer.open(key, () -> {
+                        gets.incrementAndGet();
+                        leading.countDown();
+                        joined.await();
+                        return response(body);
+                    })) {
+                        return stream.readAllBytes();
+                    }
+                });
+                leading.await();
+                Future<byte[]> joiner = executor.submit(() -> {
+                    try (InputStream stream = coalescer.open(key, () -> {
+                        gets.incrementAndGet();
+                        return response(body);
+                    })) {
+                        return stream.readAllBytes();
+                    }
+                });
+                Thread.sleep(20);
+                joined.countDown();
+
+                assertArrayEquals(body, leader.get(5, TimeUnit.SECONDS));
+                assertArrayEquals(body, joiner.get(5, TimeUnit.SECONDS));
+                assertEquals(1, gets.get());
+            }
+        }
+        awaitNoSpools();
+        try (var files = Files.list(spoolDirectory)) {
+            assertEquals(0, files.count());
+        }
+        assertEquals(bufferPool.allocatedCount(), bufferPool.available());
+    }
+
+    @Test
+    void open_LargeBody_WhenOriginFailsUnchecked_ReadersFail() throws Exception {
+        InputStream failing = new InputStream() {
+            @Override
+            public int read() {
+                throw new IllegalStateException("connection pool closed");
+            }
+        };
+
+        InputStream[] streams = openWithJoiner("p/big.jpg", () -> response(failing, 1024), new AtomicInteger());
+
+        for (InputStream stream : streams) {
+            Future<byte[]> read = executor.submit(stream::readAllBytes);
+            Exception e = assertThrows(Exception.class, () -> read.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(IOException.class, e.getCause());
+            stream.close();
+        }
+    }
+
+    @Test
+    void open_LargeBody_NewVersionDoesNotJoinOldSpool() throws Exception {
+        byte[] oldBody = new byte[64];
+        byte[] newBody = new byte[64];
+        Arrays.fill(newBody, (byte) 9);
+        PipedOutputStream origin = new PipedOutputStream();
+        PipedInputStream originBody = new PipedInputStream(origin, 1024);
+        PipedOutputStream newOrigin = new PipedOutputStream();
+        PipedInputStream newOriginBody = new PipedInputStream(newOrigin, 1024);
+        AtomicInteger gets = new AtomicInteger();
+
+        InputStream first = coalescer.open("p/big.jpg", 1, () -> {
+            gets.incrementAndGet();
+            return response(originBody, oldBody.length);
+        });
+        InputStream second = coalescer.open("p/big.jpg", 2, () -> {
+            gets.incrementAndGet();
+            return response(newOriginBody, newBody.length);
+        });
+
+        newOrigin.write(newBody);
+        newOrigin.close();
+        assertArrayEquals(newBody, second.readAllBytes());
+        origin.write(oldBody);
+        origin.close();
+        assertArrayEquals(oldBody, first.readAllBytes());
+        first.close();
+        second.close();
+        assertEquals(2, gets.get());
+    }
+
+    // Открывает объект ведущим и одним присоединившимся, пока ведущий ещё ждёт ответа MinIO
+    private InputStream[] openWithJoiner(String key, Callable<GetObjectResponse> origin, AtomicInteger gets)
+            throws Exception {
+        CountDownLatch leading = new CountDownLatch(1);
+        CountDownLatch joined = new CountDownLatch(1);
+        Future<InputStream> leader = executor.submit(() -> coalescer.open(key, () -> {
+            gets.incrementAndGet();
+            leading.countDown();
+            joined.await();
+            return origin.call();
+        }));
+        leading.await();
+        Future<InputStream> joiner = executor.submit(() -> coalescer.open(key, () -> {
+            gets.incrementAndGet();
+            return origin.call();
+        }));
+        Thread.sleep(100);
+        joined.countDown();
+        return new InputStream[] {leader.get(5, TimeUnit.SECONDS), joiner.get(5, TimeUnit.SECONDS)};
+    }
+
+    private void awaitNoSpools() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (coalescer.activeSpoolCount() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, coalescer.activeSpoolCount());
+    }
+
+    private static GetObjectResponse response(byte[] body) {
+        return response(new ByteArrayInputStream(body), body.length);
+    }
+
+    private static GetObjectResponse response(InputStream body, long length) {
+        return new GetObjectResponse(Headers.of("Content-Length", String.valueOf(length)),
+                "test-bucket", null, "object", body);
+    }
+}
@@ -0,0 +1,212 @@
+package org.shvetsov.filestorage.service;
+
+import io.minio.ListObjectsArgs;
+import io.minio.MinioClient;
+import io.minio.Result;
+import io.minio.StatObjectArgs;
+import io.minio.StatObjectResponse;
+import io.minio.errors.ErrorResponseException;
+import io.minio.messages.ErrorResponse;
+import io.minio.messages.Item;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.shvetsov.filestorage.configurations.IndexSnapshotProperties;
+import org.shvetsov.filestorage.dto.ImagePlaceholder;
+import org.shvetsov.filestorage.dto.PhotoSummary;
+import org.shvetsov.filestorage.services.PhotoIndex;
+import org.shvetsov.filestorage.services.PhotoIndexSnapshot;
+import org.shvetsov.filestorage.services.ShardRouter;
+import org.shvetsov.filestorage.services.StorageShard;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class PhotoIndexTest {
+
+    @Test
+    void rebuild_IndexesProductPhotosFromListing() throws Exception {
+        // Arrange
+        UUID productId = UUID.randomUUID();
+        List<Result<Item>> listing = List.of(
+                new Result<>(item(productId + "/b.png", 20, Map.of("content-type", "image/png"))),
+                new Result<>(item(productId + "/a.jpg", 10, null)),
+                new Result<>(item("misc/readme.txt", 5, null)));
+        MinioClient client = mock(MinioClient.class);
+        when(client.listObjects(any(ListObjectsArgs.class))).thenReturn(listing);
+        ShardRouter router = new ShardRouter(List.of(new StorageShard("default", "test-bucket", client)), 128, false);
+        PhotoIndex index = new PhotoIndex(router, new PhotoIndexSnapshot(new IndexSnapshotProperties()));
+
+        // Act
+        index.rebuild();
+
+        // Assert
+        assertTrue(index.isReady());
+        assertEquals(2, index.count(productId));
+        List<PhotoSummary> photos = index.list(productId);
+        assertEquals(productId + "/a.jpg", photos.get(0).path());
+        assertEquals("image/jpeg", photos.get(0).contentType());
+        assertEquals("image/png", photos.get(1).contentType());
+        assertEquals(20, photos.get(1).size());
+    }
+
+    @Test
+    void tryReserve_ConcurrentUploadsCountedAgainstLimit() {
+        // Arrange
+        UUID productId = UUID.randomUUID();
+        PhotoIndex index = new PhotoIndex(null, new PhotoIndexSnapshot(new IndexSnapshotProperties()));
+        index.put(new PhotoSummary(productId + "/a.jpg", 1, "image/jpeg", null));
+
+        // Act
+        PhotoIndex.Reservation first = index.tryReserve(productId, productId + "/b.jpg", 2);
+        PhotoIndex.Reservation second = index.tryReserve(productId, productId + "/c.jpg", 2);
+        PhotoIndex.Reservation replacing = index.tryReserve(productId, productId + "/a.jpg", 2);
+
+        // Assert
+        assertNotNull(first);
+        assertNull(second);
+        assertNotNull(replacing);
+        first.close();
+        assertNotNull(index.tryReserve(productId, productId + "/c.jpg", 2));
+    }
+
+    @Test
+    void tryReserve_AfterUploadLands_SlotStaysTaken() {
+        // Arrange
+        UUID productId = UUID.randomUUID();
+        PhotoIndex index = new PhotoIndex(null, new PhotoIndexSnapshot(new IndexSnapshotProperties()));
+        PhotoIndex.Reservation slot = index.tryReserve(productId, productId + "/a.jpg", 1, List.of());
+
+        // Act
+        index.put(new PhotoSummary(productId + "/a.jpg", 1, "image/jpeg", null));
+        slot.close();
+        slot.close();
+
+        // Assert
+        assertNull(index.tryReserve(productId, productId + "/b.jpg", 1));
+    }
+
+    @Test
+    void putAndRemove_UpdateProductCount() {
+        // Arrange
+        UUID productId = UUID.randomUUID();
+        PhotoIndex index = new PhotoIndex(null, new PhotoIndexSnapshot(new IndexSnapshotProperties()));
+
+        // Act
+        index.put(new PhotoSummary(productId + "/a.jpg", 1, "image/jpeg", "e1"));
+        index.put(new PhotoSummary(productId + "/a.jpg", 2, "image/jpeg", "e2"));
+        index.put(new PhotoSummary(productId + "/b.jpg", 1, "image/jpeg", "e3"));
+        index.remove(productId + "/b.jpg");
+
+        // Assert
+        assertEquals(1, index.count(productId));
+        assertTrue(index.contains(productId + "/a.jpg"));
+        assertFalse(index.contains(productId + "/b.jpg"));
+        assertEquals("e2", index.list(productId).get(0).etag());
+        assertEquals(0, index.count(UUID.randomUUID()));
+    }
+
+    @Test
+    void loadSnapshot_RestoresIndexWrittenOnShutdown(@TempDir Path directory) throws Exception {
+        // Arrange
+        UUID productId = UUID.randomUUID();
+        IndexSnapshotProperties properties = new IndexSnapshotProperties();
+        properties.setEnabled(true);
+        properties.setPath(directory.resolve("photo-index.snapshot").toString());
+        MinioClient client = mock(MinioClient.class);
+        when(client.listObjects(any(ListObjectsArgs.class))).thenReturn(List.of());
+        ShardRouter router = new ShardRouter(List.of(new StorageShard("default", "test-bucket", client)), 128, false);
+        PhotoIndex before = new PhotoIndex(router, new PhotoIndexSnapshot(properties));
+        before.rebuild();
+        before.put(new PhotoSummary(productId + "/a.jpg", 10, "image/jpeg", "e1",
+                new ImagePlaceholder(800, 600, "#a0b0c0", "LEHV6nWB2yk8pyo0adR*.7kCMdnj")));
+        before.put(new PhotoSummary(productId + "/b.png", 20, null, null));
+        before.saveSnapshot();
+
+        // Act
+        PhotoIndex after = new PhotoIndex(null, new PhotoIndexSnapshot(properties));
+        boolean loaded = after.loadSnapshot();
+
+        // Assert
+        assertTrue(loaded);
+        assertTrue(after.isReady());
+        assertEquals(before.list(productId), after.list(productId));
+    }
+
+    @Test
+    void loadSnapshot_IgnoresCorruptedFile(@TempDir Path directory) throws Exception {
+        // Arrange
+        IndexSnapshotProperties properties = new IndexSnapshotProperties();
+        properties.setEnabled(true);
+        properties.setPath(directory.resolve("photo-index.snapshot").toString());
+        Files.write(Path.of(properties.getPath()), new byte[64]);
+        PhotoIndex index = new PhotoIndex(null, new PhotoIndexSnapshot(properties));
+
+        // Act & Assert
+        assertFalse(index.loadSnapshot());
+        assertFalse(index.isReady());
+    }
+
+    @Test
+    void reconcile_StaleDeleteAfterRewrite_KeepsPhoto() throws Exception {
+        // Arrange
+        String path = UUID.randomUUID() + "/a.jpg";
+        MinioClient client = mock(MinioClient.class);
+        StatObjectResponse metadata = mock(StatObjectResponse.class);
+        when(metadata.size()).thenReturn(7L);
+        when(metadata.contentType()).thenReturn("image/jpeg");
+        when(metadata.etag()).thenReturn("etag2");
+        when(client.statObject(any(StatObjectArgs.class))).thenReturn(metadata);
+        PhotoIndex index = new PhotoIndex(new ShardRouter(List.of(new StorageShard("default", "test-bucket", client)), 128, false),
+                new PhotoIndexSnapshot(new IndexSnapshotProperties()));
+        index.put(new PhotoSummary(path, 5, "image/jpeg", "etag1"));
+
+        // Act: удаление с другого экземпляра пришло после более новой записи
+        index.reconcile(path);
+
+        // Assert
+        assertEquals(new PhotoSummary(path, 7, "image/jpeg", "etag2"), index.get(path));
+    }
+
+    @Test
+    void reconcile_WhenObjectGone_RemovesPhoto() throws Exception {
+        // Arrange
+        String path = UUID.randomUUID() + "/a.jpg";
+        MinioClient client = mock(MinioClient.class);
+        ErrorResponseException missing = noSuchKey();
+        when(client.statObject(any(StatObjectArgs.class))).thenThrow(missing);
+        PhotoIndex index = new PhotoIndex(new ShardRouter(List.of(new StorageShard("default", "test-bucket", client)), 128, false),
+                new PhotoIndexSnapshot(new IndexSnapshotProperties()));
+        index.put(new PhotoSummary(path, 5, "image/jpeg", "etag1"));
+
+        // Act
+        index.reconcile(path);
+
+        // Assert
+        assertNull(index.get(path));
+    }
+
+    private static ErrorResponseException noSuchKey() {
+        ErrorResponseException exception = mock(ErrorResponseException.class);
+        ErrorResponse errorResponse = mock(ErrorResponse.class);
+        when(errorResponse.code()).thenReturn("NoSuchKey");
+        when(exception.errorResponse()).thenReturn(errorResponse);
+        return exception;
+    }
+
+    private static Item item(String name, long size, Map<String, String> userMetadata) {
+        Item item = mock(Item.class);
+        when(item.objectName()).thenReturn(name);
+        when(item.size()).thenReturn(size);
+        when(item.isDir()).thenReturn(false);
+        when(item.userMetadata()).thenReturn(userMetadata);
+        return item;
+    }
+}
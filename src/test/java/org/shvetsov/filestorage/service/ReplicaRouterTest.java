@@ -0,0 +1,75 @@
+package org.shvetsov.filestorage.service;
+
+import io.minio.MinioClient;
+import io.minio.errors.ErrorResponseException;
+import io.minio.messages.ErrorResponse;
+import org.junit.jupiter.api.Test;
+import org.shvetsov.filestorage.services.ReplicaRouter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ReplicaRouterTest {
+
+    private final MinioClient primaryClient = mock(MinioClient.class);
+    private final MinioClient replicaClient = mock(MinioClient.class);
+    private final ReplicaRouter.Endpoint primary = new ReplicaRouter.Endpoint("primary", primaryClient);
+    private final ReplicaRouter.Endpoint replica = new ReplicaRouter.Endpoint("replica", replicaClient);
+    private final ReplicaRouter router = new ReplicaRouter(primary, List.of(replica), 0.5, Duration.ofMinutes(1));
+
+    @Test
+    void read_PrefersLowerLatency() throws Exception {
+        // Прогреваем оценки: основной медленный, реплика быстрая
+        for (int i = 0; i < 20; i++) {
+            router.read(client -> {
+                if (client == primaryClient) {
+                    Thread.sleep(5);
+                }
+                return null;
+            });
+        }
+
+        assertTrue(replica.ewmaMillis() < primary.ewmaMillis());
+        assertTrue(replica.selections() > primary.selections());
+    }
+
+    @Test
+    void read_WhenEndpointFails_FailsOverAndMarksUnhealthy() throws Exception {
+        String result = null;
+        for (int i = 0; i < 5; i++) {
+            result = router.read(client -> {
+                if (client == replicaClient) {
+                    throw new IOException("connection refused");
+                }
+                return "primary";
+            });
+        }
+
+        assertEquals("primary", result);
+        assertFalse(replica.isHealthy());
+        assertEquals(1, replica.failures());
+    }
+
+    @Test
+    void read_WhenReplicaMissesKey_RetriesOnPrimary() throws Exception {
+        ErrorResponseException noSuchKey = mock(ErrorResponseException.class);
+        ErrorResponse errorResponse = mock(ErrorResponse.class);
+        when(errorResponse.code()).thenReturn("NoSuchKey");
+        when(noSuchKey.errorResponse()).thenReturn(errorResponse);
+
+        for (int i = 0; i < 5; i++) {
+            String result = router.read(client -> {
+                if (client == replicaClient) {
+                    throw noSuchKey;
+                }
+                return "primary";
+            });
+            assertEquals("primary", result);
+        }
+    }
+}
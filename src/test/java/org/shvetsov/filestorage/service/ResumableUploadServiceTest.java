@@ -0,0 +1,238 @@
+package org.shvetsov.filestorage.service;
+
+import io.minio.CopyObjectArgs;
+import io.minio.MinioClient;
+import io.minio.ObjectWriteResponse;
+import io.minio.messages.Part;
+import jakarta.validation.ValidationException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.shvetsov.filestorage.configurations.ChecksumProperties;
+import org.shvetsov.filestorage.configurations.PhotoProperties;
+import org.shvetsov.filestorage.configurations.ResumableUploadProperties;
+import org.shvetsov.filestorage.configurations.TrafficProperties;
+import org.shvetsov.filestorage.dto.ResumableUpload;
+import org.shvetsov.filestorage.dto.StoredObject;
+import org.shvetsov.filestorage.services.MultipartClient;
+import org.shvetsov.filestorage.services.ObjectChecksums;
+import org.shvetsov.filestorage.services.ReplicaRouter;
+import org.shvetsov.filestorage.services.ResumableUploadService;
+import org.shvetsov.filestorage.services.ShardRouter;
+import org.shvetsov.filestorage.services.StorageService;
+import org.shvetsov.filestorage.services.StorageShard;
+import org.shvetsov.filestorage.services.TrafficClass;
+import org.shvetsov.filestorage.services.TransferScheduler;
+import org.springframework.util.unit.DataSize;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class ResumableUploadServiceTest {
+    private static final int PART_SIZE = 5 * 1024 * 1024;
+
+    @TempDir
+    Path directory;
+
+    private MultipartClient multipart;
+    private MinioClient client;
+    private StorageService storageService;
+    private ShardRouter shardRouter;
+    private ResumableUploadProperties properties;
+    private PhotoProperties photoProperties;
+    private TransferScheduler transferScheduler;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        multipart = mock(MultipartClient.class);
+        storageService = mock(StorageService.class);
+        client = mock(MinioClient.class);
+        shardRouter = new ShardRouter(List.of(new StorageShard("default", "test-bucket", client,
+                ReplicaRouter.primaryOnly("default", client), multipart)), 128, false);
+        properties = new ResumableUploadProperties();
+        properties.setDirectory(directory.toString());
+        properties.setPartSize(DataSize.ofBytes(PART_SIZE));
+        photoProperties = new PhotoProperties();
+        photoProperties.setMaxFileSizeMb(16);
+        TrafficProperties traffic = new TrafficProperties();
+        traffic.setEnabled(true);
+        transferScheduler = new TransferScheduler(traffic);
+        when(multipart.create("test-bucket", "p/big.jpg", "image/jpeg")).thenReturn("upload-1");
+        when(multipart.uploadPart(eq("test-bucket"), eq("p/big.jpg"), eq("upload-1"), anyInt(), any()))
+                .thenAnswer(invocation -> "etag-" + invocation.getArgument(3));
+    }
+
+    @Test
+    void append_ResumesFromOffsetAfterRestart() throws Exception {
+        // Arrange
+        ResumableUploadService service = start();
+        ResumableUpload upload = service.create("p/big.jpg", "image/jpeg", PART_SIZE + 100);
+
+        // Act
+        service.append(upload.id(), 0, new ByteArrayInputStream(jpeg(PART_SIZE + 40)));
+        service.stop();
+        ResumableUploadService restarted = start();
+
+        // Assert
+        assertEquals(PART_SIZE + 40, restarted.get(upload.id()).offset());
+        verify(multipart).uploadPart(eq("test-bucket"), eq("p/big.jpg"), eq("upload-1"), eq(1), argThat(data -> data.length == PART_SIZE));
+        restarted.stop();
+    }
+
+    @Test
+    void append_WrongOffset_Conflict() throws Exception {
+        // Arrange
+        ResumableUploadService service = start();
+        ResumableUpload upload = service.create("p/big.jpg", "image/jpeg", 100);
+        service.append(upload.id(), 0, new ByteArrayInputStream(new byte[30]));
+
+        // Act & Assert
+        ResumableUploadService.OffsetConflictException conflict = assertThrows(ResumableUploadService.OffsetConflictException.class,
+                () -> service.append(upload.id(), 10, new ByteArrayInputStream(new byte[30])));
+        assertEquals(30, conflict.getOffset());
+        service.stop();
+    }
+
+    @Test
+    void complete_UploadsLastPartAndCompletesMultipart() throws Exception {
+        // Arrange
+        ResumableUploadService service = start();
+        ResumableUpload upload = service.create("p/big.jpg", "image/jpeg", PART_SIZE + 100);
+        service.append(upload.id(), 0, new ByteArrayInputStream(jpeg(PART_SIZE)));
+        service.append(upload.id(), PART_SIZE, new ByteArrayInputStream(new byte[100]));
+
+        // Act
+        service.complete(upload.id());
+
+        // Assert
+        verify(multipart).uploadPart(eq("test-bucket"), eq("p/big.jpg"), eq("upload-1"), eq(2), argThat(data -> data.length == 100));
+        verify(multipart).complete(eq("test-bucket"), eq("p/big.jpg"), eq("upload-1"), argThat((List<Part> parts) ->
+                parts.size() == 2 && parts.get(1).etag().equals("etag-2")));
+        verify(storageService).registerWrite("p/big.jpg", PART_SIZE + 100, "image/jpeg", null, null);
+        assertThrows(FileNotFoundException.class, () -> service.get(upload.id()));
+        service.stop();
+    }
+
+    @Test
+    void cleanupExpired_AbortsAbandonedUpload() throws Exception {
+        // Arrange
+        properties.setExpiry(Duration.ZERO);
+        ResumableUploadService service = start();
+        ResumableUpload upload = service.create("p/big.jpg", "image/jpeg", 100);
+        Thread.sleep(5);
+
+        // Act
+        service.cleanupExpired();
+
+        // Assert
+        verify(multipart).abort("test-bucket", "p/big.jpg", "upload-1");
+        assertThrows(FileNotFoundException.class, () -> service.get(upload.id()));
+        service.stop();
+    }
+
+    @Test
+    void append_WhenContentIsNotDeclaredImage_RejectedBeforeFirstPart() throws Exception {
+        // Arrange
+        ResumableUploadService service = start();
+        ResumableUpload upload = service.create("p/big.jpg", "image/jpeg", PART_SIZE + 100);
+
+        // Act & Assert
+        assertThrows(ValidationException.class,
+                () -> service.append(upload.id(), 0, new ByteArrayInputStream(new byte[PART_SIZE + 40])));
+        verify(multipart, never()).uploadPart(any(), any(), any(), anyInt(), any());
+        verify(multipart).abort("test-bucket", "p/big.jpg", "upload-1");
+        assertThrows(FileNotFoundException.class, () -> service.get(upload.id()));
+        assertEquals(0, transferScheduler.active(TrafficClass.BULK));
+        service.stop();
+    }
+
+    @Test
+    void append_WhenHeaderIsNotDeclaredImage_RejectedBeforeUploadCompletes() throws Exception {
+        // Arrange
+        ResumableUploadService service = start();
+        ResumableUpload upload = service.create("p/big.jpg", "image/jpeg", PART_SIZE + 100);
+
+        // Act & Assert
+        assertThrows(ValidationException.class,
+                () -> service.append(upload.id(), 0, new ByteArrayInputStream(new byte[300 * 1024])));
+        verify(multipart).abort("test-bucket", "p/big.jpg", "upload-1");
+        assertThrows(FileNotFoundException.class, () -> service.get(upload.id()));
+        service.stop();
+    }
+
+    @Test
+    void complete_SinglePart_StoresChecksumAndPlaceholder() throws Exception {
+        // Arrange
+        byte[] image = encodedJpeg();
+        when(multipart.create("test-bucket", "p/small.jpg", "image/jpeg")).thenReturn("upload-2");
+        when(multipart.uploadPart(eq("test-bucket"), eq("p/small.jpg"), eq("upload-2"), eq(1), any())).thenReturn("etag-1");
+        when(multipart.complete(eq("test-bucket"), eq("p/small.jpg"), eq("upload-2"), any()))
+                .thenReturn(new ObjectWriteResponse(null, "test-bucket", null, "p/small.jpg", "multipart-etag", null));
+        ResumableUploadService service = start();
+        ResumableUpload upload = service.create("p/small.jpg", "image/jpeg", image.length);
+        service.append(upload.id(), 0, new ByteArrayInputStream(image));
+
+        // Act
+        StoredObject stored = service.complete(upload.id());
+
+        // Assert
+        String sha256 = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(image));
+        assertEquals(sha256, stored.sha256());
+        ArgumentCaptor<CopyObjectArgs> copy = ArgumentCaptor.forClass(CopyObjectArgs.class);
+        verify(client).copyObject(copy.capture());
+        assertTrue(copy.getValue().userMetadata().values().contains(sha256));
+        assertTrue(copy.getValue().userMetadata().keySet().stream().anyMatch(key -> key.toLowerCase().endsWith("blurhash")));
+        verify(storageService).registerWrite(eq("p/small.jpg"), eq((long) image.length), eq("image/jpeg"), eq("multipart-etag"),
+                argThat(placeholder -> placeholder != null && placeholder.width() == 32 && placeholder.height() == 16));
+        service.stop();
+    }
+
+    @Test
+    void create_WhenLongerThanPhotoLimit_ThrowsValidation() throws Exception {
+        // Arrange
+        ResumableUploadService service = start();
+
+        // Act & Assert
+        assertThrows(ValidationException.class,
+                () -> service.create("p/big.jpg", "image/jpeg", photoProperties.getMaxFileSizeBytes() + 1));
+        verify(multipart, never()).create(any(), any(), any());
+        service.stop();
+    }
+
+    private ResumableUploadService start() throws Exception {
+        ResumableUploadService service = new ResumableUploadService(properties, photoProperties, shardRouter,
+                storageService, transferScheduler, new ObjectChecksums(new ChecksumProperties()));
+        service.start();
+        return service;
+    }
+
+    private static byte[] encodedJpeg() throws Exception {
+        BufferedImage image = new BufferedImage(32, 16, BufferedImage.TYPE_INT_RGB);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", out);
+        return out.toByteArray();
+    }
+
+    // Начало JPEG (SOI и APP0), дальше нули
+    private static byte[] jpeg(int size) {
+        byte[] data = new byte[size];
+        data[0] = (byte) 0xFF;
+        data[1] = (byte) 0xD8;
+        data[2] = (byte) 0xFF;
+        data[3] = (byte) 0xE0;
+        return data;
+    }
+}
@@ -0,0 +1,140 @@
+package org.shvetsov.filestorage.service;
+
+import io.minio.*;
+import io.minio.errors.ErrorResponseException;
+import io.minio.messages.ErrorResponse;
+import io.minio.messages.Item;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.shvetsov.filestorage.dto.RebalanceReport;
+import org.shvetsov.filestorage.services.Invalidation;
+import org.shvetsov.filestorage.services.InvalidationBus;
+import org.shvetsov.filestorage.services.MetadataCache;
+import org.shvetsov.filestorage.services.NegativeLookupCache;
+import org.shvetsov.filestorage.services.ShardRebalancer;
+import org.shvetsov.filestorage.services.ShardRouter;
+import org.shvetsov.filestorage.services.StorageShard;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ShardRebalancerTest {
+
+    @Mock
+    private MinioClient sourceClient;
+
+    @Mock
+    private MinioClient targetClient;
+
+    @Mock
+    private MetadataCache metadataCache;
+
+    @Mock
+    private NegativeLookupCache negativeLookupCache;
+
+    @Mock
+    private InvalidationBus invalidationBus;
+
+    private ShardRebalancer rebalancer;
+    private String objectName;
+
+    @BeforeEach
+    void setUp() {
+        StorageShard source = new StorageShard("shard-0", "bucket-0", sourceClient);
+        StorageShard target = new StorageShard("shard-1", "bucket-1", targetClient);
+        ShardRouter router = new ShardRouter(List.of(source, target), 128, true);
+        do {
+            objectName = UUID.randomUUID() + "/a.jpg";
+        } while (!router.route(objectName).name().equals("shard-1"));
+        rebalancer = new ShardRebalancer(router, metadataCache, negativeLookupCache, invalidationBus);
+    }
+
+    @Test
+    void start_WhenTargetAlreadyHasObject_SkipsCopyAndRemovesSource() throws Exception {
+        // Arrange
+        listed(objectName);
+        StatObjectResponse sourceMetadata = metadata("e1");
+        StatObjectResponse targetMetadata = metadata("e2");
+        when(sourceClient.statObject(any(StatObjectArgs.class))).thenReturn(sourceMetadata);
+        when(targetClient.statObject(any(StatObjectArgs.class))).thenReturn(targetMetadata);
+
+        // Act
+        RebalanceReport report = await(rebalancer.start(false));
+
+        // Assert
+        assertEquals(1, report.moved());
+        verify(sourceClient, never()).getObject(any(GetObjectArgs.class));
+        verify(targetClient, never()).putObject(any(PutObjectArgs.class));
+        verify(sourceClient).removeObject(any(RemoveObjectArgs.class));
+        verify(metadataCache).invalidate(objectName);
+        verify(negativeLookupCache).markPresent(objectName);
+        verify(invalidationBus).publish(argThat(invalidation ->
+                invalidation.kind() == Invalidation.Kind.WRITE && "e2".equals(invalidation.photo().etag())));
+    }
+
+    @Test
+    void start_WhenSourceChangedDuringCopy_SourceKept() throws Exception {
+        // Arrange
+        listed(objectName);
+        StatObjectResponse before = metadata("e1");
+        StatObjectResponse after = metadata("e3");
+        ErrorResponseException missing = noSuchKey();
+        when(sourceClient.statObject(any(StatObjectArgs.class))).thenReturn(before, after);
+        when(targetClient.statObject(any(StatObjectArgs.class))).thenThrow(missing);
+        when(sourceClient.getObject(any(GetObjectArgs.class))).thenReturn(mock(GetObjectResponse.class));
+
+        // Act
+        RebalanceReport report = await(rebalancer.start(false));
+
+        // Assert
+        assertEquals(0, report.moved());
+        assertEquals(1, report.skipped());
+        verify(targetClient).putObject(any(PutObjectArgs.class));
+        verify(sourceClient, never()).removeObject(any(RemoveObjectArgs.class));
+    }
+
+    private void listed(String name) {
+        Item item = mock(Item.class);
+        when(item.isDir()).thenReturn(false);
+        when(item.objectName()).thenReturn(name);
+        when(sourceClient.listObjects(any(ListObjectsArgs.class))).thenReturn(List.of(new Result<>(item)));
+        when(targetClient.listObjects(any(ListObjectsArgs.class))).thenReturn(List.of());
+    }
+
+    private static StatObjectResponse metadata(String etag) {
+        StatObjectResponse metadata = mock(StatObjectResponse.class);
+        lenient().when(metadata.etag()).thenReturn(etag);
+        lenient().when(metadata.size()).thenReturn(4L);
+        lenient().when(metadata.contentType()).thenReturn("image/jpeg");
+        lenient().when(metadata.userMetadata()).thenReturn(Map.of());
+        return metadata;
+    }
+
+    private static ErrorResponseException noSuchKey() {
+        ErrorResponseException exception = mock(ErrorResponseException.class);
+        ErrorResponse errorResponse = mock(ErrorResponse.class);
+        when(errorResponse.code()).thenReturn("NoSuchKey");
+        when(exception.errorResponse()).thenReturn(errorResponse);
+        return exception;
+    }
+
+    private RebalanceReport await(RebalanceReport started) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        RebalanceReport report = started;
+        while (report.running() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+            report = rebalancer.report();
+        }
+        return rebalancer.report();
+    }
+}
@@ -0,0 +1,88 @@
+package org.shvetsov.filestorage.service;
+
+import io.minio.MinioClient;
+import org.junit.jupiter.api.Test;
+import org.shvetsov.filestorage.services.ShardRouter;
+import org.shvetsov.filestorage.services.StorageShard;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class ShardRouterTest {
+
+    @Test
+    void route_AllPhotosOfProductOnSameShard() {
+        ShardRouter router = new ShardRouter(shards(4), 128, false);
+        UUID productId = UUID.randomUUID();
+
+        StorageShard first = router.route(productId + "/" + UUID.randomUUID() + ".jpg");
+        StorageShard second = router.route(productId + "/" + UUID.randomUUID() + ".png");
+
+        assertSame(first, second);
+        assertSame(first, router.routeKey(productId.toString()));
+        assertEquals(List.of(first), router.shardsForPrefix(productId + "/"));
+    }
+
+    @Test
+    void route_KeysSpreadAcrossShards() {
+        ShardRouter router = new ShardRouter(shards(4), 128, false);
+        Map<String, Integer> counts = new HashMap<>();
+
+        for (int i = 0; i < 10_000; i++) {
+            counts.merge(router.routeKey(UUID.randomUUID().toString()).name(), 1, Integer::sum);
+        }
+
+        assertEquals(4, counts.size());
+        counts.values().forEach(count -> assertTrue(count > 1_500, "unbalanced: " + counts));
+    }
+
+    @Test
+    void route_AddingShardMovesOnlyItsShare() {
+        List<StorageShard> shards = shards(5);
+        ShardRouter before = new ShardRouter(shards.subList(0, 4), 128, false);
+        ShardRouter after = new ShardRouter(shards, 128, false);
+        int moved = 0;
+
+        for (int i = 0; i < 10_000; i++) {
+            String key = UUID.randomUUID().toString();
+            String from = before.routeKey(key).name();
+            String to = after.routeKey(key).name();
+            if (!from.equals(to)) {
+                moved++;
+                assertEquals("shard-4", to);
+            }
+        }
+
+        assertTrue(moved > 1_000 && moved < 3_000, "moved: " + moved);
+    }
+
+    @Test
+    void constructor_DuplicateShardName_Rejected() {
+        List<StorageShard> shards = List.of(
+                new StorageShard("shard-0", "bucket-0", mock(MinioClient.class)),
+                new StorageShard("shard-0", "bucket-1", mock(MinioClient.class)));
+
+        assertThrows(IllegalArgumentException.class, () -> new ShardRouter(shards, 128, false));
+    }
+
+    @Test
+    void constructor_NullShardName_Rejected() {
+        List<StorageShard> shards = List.of(new StorageShard(null, "bucket-0", mock(MinioClient.class)));
+
+        assertThrows(IllegalArgumentException.class, () -> new ShardRouter(shards, 128, false));
+    }
+
+    private static List<StorageShard> shards(int count) {
+        List<StorageShard> shards = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            shards.add(new StorageShard("shard-" + i, "bucket-" + i, mock(MinioClient.class)));
+        }
+        return shards;
+    }
+}
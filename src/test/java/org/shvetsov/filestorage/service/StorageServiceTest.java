@@ -6,19 +6,48 @@ import io.minio.messages.ErrorResponse;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.shvetsov.filestorage.configurations.StorageProperties;
+import org.mockito.stubbing.Answer;
+import org.shvetsov.filestorage.configurations.BufferPoolProperties;
+import org.shvetsov.filestorage.configurations.ChecksumProperties;
+import org.shvetsov.filestorage.configurations.CoalescingProperties;
+import org.shvetsov.filestorage.configurations.IndexSnapshotProperties;
+import org.shvetsov.filestorage.configurations.InvalidationProperties;
+import org.shvetsov.filestorage.configurations.MetadataCacheProperties;
+import org.shvetsov.filestorage.configurations.NegativeCacheProperties;
+import org.shvetsov.filestorage.configurations.TrafficProperties;
+import org.shvetsov.filestorage.configurations.WriteBehindProperties;
+import org.shvetsov.filestorage.dto.StoredObject;
+import org.shvetsov.filestorage.services.BufferPool;
+import org.shvetsov.filestorage.services.InvalidationBus;
+import org.shvetsov.filestorage.services.LoopbackInvalidationTransport;
+import org.shvetsov.filestorage.services.MetadataCache;
+import org.shvetsov.filestorage.services.NegativeLookupCache;
+import org.shvetsov.filestorage.services.ObjectBodyCoalescer;
+import org.shvetsov.filestorage.services.ObjectChecksums;
+import org.shvetsov.filestorage.services.PhotoIndex;
+import org.shvetsov.filestorage.services.PhotoIndexSnapshot;
+import org.shvetsov.filestorage.services.ShardRouter;
 import org.shvetsov.filestorage.services.StorageService;
+import org.shvetsov.filestorage.services.StorageShard;
+import org.shvetsov.filestorage.services.TransferScheduler;
+import org.shvetsov.filestorage.services.WriteBehindJournal;
 import org.shvetsov.storage.StorageException;
 import org.springframework.core.io.Resource;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -28,14 +57,42 @@ class StorageServiceTest {
     private MinioClient minioClient;
 
     @Mock
-    private StorageProperties storageProperties;
+    private ShardRouter shardRouter;
+
+    @Spy
+    private NegativeLookupCache negativeLookupCache = new NegativeLookupCache(new NegativeCacheProperties());
+
+    @Spy
+    private ObjectBodyCoalescer objectBodyCoalescer = new ObjectBodyCoalescer(new CoalescingProperties(),
+            new BufferPool(new BufferPoolProperties()));
+
+    private final MetadataCacheProperties metadataCacheProperties = new MetadataCacheProperties();
+
+    @Spy
+    private MetadataCache metadataCache = new MetadataCache(metadataCacheProperties);
+
+    @Spy
+    private WriteBehindJournal writeBehindJournal = new WriteBehindJournal(new WriteBehindProperties());
+
+    @Spy
+    private PhotoIndex photoIndex = new PhotoIndex(null, new PhotoIndexSnapshot(new IndexSnapshotProperties()));
+
+    @Spy
+    private ObjectChecksums objectChecksums = new ObjectChecksums(new ChecksumProperties());
+
+    @Spy
+    private TransferScheduler transferScheduler = new TransferScheduler(new TrafficProperties());
+
+    @Spy
+    private InvalidationBus invalidationBus = new InvalidationBus(new InvalidationProperties(),
+            new LoopbackInvalidationTransport(), List.of());
 
     @InjectMocks
     private StorageService storageService;
 
     @BeforeEach
     void setUp() {
-        when(storageProperties.getBucket()).thenReturn("test-bucket");
+        when(shardRouter.route(anyString())).thenReturn(new StorageShard("default", "test-bucket", minioClient));
     }
 
     @Test
@@ -101,6 +158,149 @@ class StorageServiceTest {
         assertFalse(exists);
     }
 
+    @Test
+    void getFileMetadata_AfterFileExists_ServedFromCache() throws Exception {
+        // Arrange
+        StatObjectResponse metadata = mock(StatObjectResponse.class);
+        when(minioClient.statObject(any(StatObjectArgs.class))).thenReturn(metadata);
+
+        // Act
+        storageService.fileExists("test.txt");
+        StatObjectResponse result = storageService.getFileMetadata("test.txt");
+
+        // Assert
+        assertSame(metadata, result);
+        verify(minioClient, times(1)).statObject(any(StatObjectArgs.class));
+    }
+
+    @Test
+    void prewarm_HotPathStaysCachedAfterRegularTtl() throws Exception {
+        // Arrange
+        metadataCacheProperties.setTtl(Duration.ofMillis(1));
+        when(minioClient.statObject(any(StatObjectArgs.class))).thenReturn(mock(StatObjectResponse.class));
+
+        // Act
+        boolean warmed = storageService.prewarm("hot.txt");
+        storageService.getFileMetadata("cold.txt");
+        Thread.sleep(20);
+        storageService.getFileMetadata("hot.txt");
+        storageService.getFileMetadata("cold.txt");
+
+        // Assert
+        assertTrue(warmed);
+        verify(minioClient, times(1)).statObject(argThat((StatObjectArgs args) -> args.object().equals("hot.txt")));
+        verify(minioClient, times(2)).statObject(argThat((StatObjectArgs args) -> args.object().equals("cold.txt")));
+    }
+
+    @Test
+    void getFileMetadata_UploadDuringStat_StaleResultNotCached() throws Exception {
+        // Arrange
+        StatObjectResponse stale = mock(StatObjectResponse.class);
+        StatObjectResponse fresh = mock(StatObjectResponse.class);
+        when(minioClient.statObject(any(StatObjectArgs.class)))
+                .thenAnswer(invocation -> {
+                    // Загрузка завершается, пока stat ещё в пути
+                    storageService.registerWrite("test.txt", 4, "text/plain", "etag2");
+                    return stale;
+                })
+                .thenReturn(fresh);
+
+        // Act
+        StatObjectResponse first = storageService.getFileMetadata("test.txt");
+        StatObjectResponse second = storageService.getFileMetadata("test.txt");
+
+        // Assert
+        assertSame(fresh, first);
+        assertSame(fresh, second);
+        verify(minioClient, times(2)).statObject(any(StatObjectArgs.class));
+    }
+
+    @Test
+    void fileExists_UploadDuringStat_MissNotCached() throws Exception {
+        // Arrange
+        ErrorResponseException errorResponseException = mock(ErrorResponseException.class);
+        ErrorResponse errorResponse = mock(ErrorResponse.class);
+        when(errorResponse.code()).thenReturn("NoSuchKey");
+        when(errorResponseException.errorResponse()).thenReturn(errorResponse);
+        Answer<StatObjectResponse> missDuringUpload = invocation -> {
+            // Загрузка завершается, пока stat ещё в пути, и так оба раза
+            storageService.registerWrite("test.txt", 4, "text/plain", "etag2");
+            throw errorResponseException;
+        };
+        when(minioClient.statObject(any(StatObjectArgs.class)))
+                .thenAnswer(missDuringUpload)
+                .thenAnswer(missDuringUpload)
+                .thenReturn(mock(StatObjectResponse.class));
+
+        // Act
+        boolean first = storageService.fileExists("test.txt");
+        boolean second = storageService.fileExists("test.txt");
+
+        // Assert
+        assertFalse(first);
+        assertTrue(second);
+        verify(minioClient, times(3)).statObject(any(StatObjectArgs.class));
+    }
+
+    @Test
+    void fileExists_WhenFileNotExists_SecondLookupSkipsStat() throws Exception {
+        // Arrange
+        ErrorResponseException errorResponseException = mock(ErrorResponseException.class);
+        ErrorResponse errorResponse = mock(ErrorResponse.class);
+
+        when(errorResponse.code()).thenReturn("NoSuchKey");
+        when(errorResponseException.errorResponse()).thenReturn(errorResponse);
+
+        when(minioClient.statObject(any(StatObjectArgs.class)))
+                .thenThrow(errorResponseException);
+
+        // Act
+        storageService.fileExists("test.txt");
+        boolean exists = storageService.fileExists("test.txt");
+
+        // Assert
+        assertFalse(exists);
+        verify(minioClient, times(1)).statObject(any(StatObjectArgs.class));
+    }
+
+    @Test
+    void uploadFile_ClearsNegativeEntry() throws Exception {
+        // Arrange
+        negativeLookupCache.markMissing("test.txt");
+        MultipartFile file = mock(MultipartFile.class);
+        when(file.getInputStream()).thenReturn(new ByteArrayInputStream("test".getBytes()));
+        when(file.getSize()).thenReturn(4L);
+        when(file.getContentType()).thenReturn("text/plain");
+        when(minioClient.statObject(any(StatObjectArgs.class)))
+                .thenReturn(mock(StatObjectResponse.class));
+
+        // Act
+        storageService.uploadFile(file, "test.txt");
+
+        // Assert
+        assertTrue(storageService.fileExists("test.txt"));
+    }
+
+    @Test
+    void uploadFile_StoresSha256ComputedWhileStreaming() throws Exception {
+        // Arrange
+        when(minioClient.putObject(any(PutObjectArgs.class))).thenAnswer(invocation -> {
+            invocation.<PutObjectArgs>getArgument(0).stream().transferTo(OutputStream.nullOutputStream());
+            return null;
+        });
+        String expected = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+
+        // Act
+        StoredObject stored = storageService.uploadFile(new ByteArrayInputStream("test".getBytes()), 4, "text/plain", "test.txt");
+
+        // Assert
+        assertEquals(expected, stored.sha256());
+        ArgumentCaptor<CopyObjectArgs> copy = ArgumentCaptor.forClass(CopyObjectArgs.class);
+        verify(minioClient).copyObject(copy.capture());
+        assertEquals("test.txt", copy.getValue().source().object());
+        assertTrue(copy.getValue().userMetadata().values().contains(expected));
+    }
+
     @Test
     void fileExists_WhenOtherError_ThrowsException() throws Exception {
         // Arrange
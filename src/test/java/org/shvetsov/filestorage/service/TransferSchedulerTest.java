@@ -0,0 +1,135 @@
+package org.shvetsov.filestorage.service;
+
+import org.junit.jupiter.api.Test;
+import org.shvetsov.filestorage.configurations.TrafficProperties;
+import org.shvetsov.filestorage.services.TrafficClass;
+import org.shvetsov.filestorage.services.TransferScheduler;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransferSchedulerTest {
+
+    @Test
+    void acquire_SplitsSlotsBetweenClassesByWeight() throws Exception {
+        // Arrange
+        TrafficProperties properties = properties();
+        properties.getInteractive().setWeight(3);
+        properties.getBulk().setWeight(1);
+        TransferScheduler scheduler = new TransferScheduler(properties);
+        TransferScheduler.Permit holder = scheduler.acquire(TrafficClass.BULK);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            threads.add(start(scheduler, TrafficClass.INTERACTIVE, null, order));
+            threads.add(start(scheduler, TrafficClass.BULK, null, order));
+        }
+        awaitQueued(scheduler, 8);
+
+        // Act
+        holder.release();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // Assert
+        assertEquals(3, Collections.frequency(order.subList(0, 4), TrafficClass.INTERACTIVE.name()));
+        assertEquals(0, scheduler.active(TrafficClass.INTERACTIVE) + scheduler.active(TrafficClass.BULK));
+    }
+
+    @Test
+    void acquire_AlternatesClientsInsideClass() throws Exception {
+        // Arrange
+        TransferScheduler scheduler = new TransferScheduler(properties());
+        TransferScheduler.Permit holder = scheduler.acquire(TrafficClass.BULK);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            threads.add(start(scheduler, TrafficClass.BULK, "importer", order));
+        }
+        awaitQueued(scheduler, 4);
+        for (int i = 0; i < 2; i++) {
+            threads.add(start(scheduler, TrafficClass.BULK, "shop", order));
+        }
+        awaitQueued(scheduler, 6);
+
+        // Act
+        holder.release();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // Assert
+        assertEquals(2, Collections.frequency(order.subList(0, 4), "shop"));
+    }
+
+    @Test
+    void acquire_QueueTimeout_ThrowsBusy() {
+        // Arrange
+        TrafficProperties properties = properties();
+        properties.setQueueTimeout(Duration.ofMillis(50));
+        TransferScheduler scheduler = new TransferScheduler(properties);
+        scheduler.acquire(TrafficClass.BULK);
+
+        // Act & Assert
+        assertThrows(TransferScheduler.BusyException.class, () -> scheduler.acquire(TrafficClass.INTERACTIVE));
+        assertEquals(0, scheduler.queued(TrafficClass.INTERACTIVE));
+    }
+
+    @Test
+    void track_CountsBytesAndReleasesOnClose() throws Exception {
+        // Arrange
+        TransferScheduler scheduler = new TransferScheduler(properties());
+        TransferScheduler.Permit permit = scheduler.acquire(TrafficClass.INTERACTIVE);
+
+        // Act
+        try (InputStream stream = scheduler.track(permit, new ByteArrayInputStream(new byte[1000]))) {
+            stream.readAllBytes();
+        }
+
+        // Assert
+        assertEquals(1000, scheduler.transferredBytes(TrafficClass.INTERACTIVE));
+        assertEquals(0, scheduler.active(TrafficClass.INTERACTIVE));
+        scheduler.acquire(TrafficClass.BULK).release();
+    }
+
+    private static TrafficProperties properties() {
+        TrafficProperties properties = new TrafficProperties();
+        properties.setEnabled(true);
+        properties.setMaxConcurrent(1);
+        properties.getBulk().setBandwidth(DataSize.ofBytes(0));
+        return properties;
+    }
+
+    // Каждый поток берёт слот, записывает себя в порядок выдачи и сразу освобождает слот
+    private static Thread start(TransferScheduler scheduler, TrafficClass trafficClass, String client, List<String> order) {
+        return Thread.ofPlatform().start(() -> {
+            if (client != null) {
+                MockHttpServletRequest request = new MockHttpServletRequest();
+                request.addHeader("X-Api-Key", client);
+                RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+            }
+            TransferScheduler.Permit permit = scheduler.acquire(trafficClass);
+            order.add(client != null ? client : trafficClass.name());
+            permit.release();
+        });
+    }
+
+    private static void awaitQueued(TransferScheduler scheduler, int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (scheduler.queued(TrafficClass.INTERACTIVE) + scheduler.queued(TrafficClass.BULK) < expected) {
+            assertTrue(System.nanoTime() < deadline, "waiters did not queue up");
+            Thread.sleep(5);
+        }
+    }
+}
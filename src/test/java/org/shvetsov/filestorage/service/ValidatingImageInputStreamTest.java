@@ -0,0 +1,122 @@
+package org.shvetsov.filestorage.service;
+
+import org.junit.jupiter.api.Test;
+import org.shvetsov.filestorage.configurations.PhotoProperties;
+import org.shvetsov.filestorage.services.ValidatingImageInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ValidatingImageInputStreamTest {
+
+    @Test
+    void read_PngWithinLimits_ReadsDimensionsFromHeader() throws IOException {
+        // Arrange
+        ValidatingImageInputStream stream = open(png(640, 480, 1000), "image/png", new PhotoProperties());
+
+        // Act
+        stream.transferTo(OutputStream.nullOutputStream());
+
+        // Assert
+        assertEquals("image/png", stream.detectedType());
+        assertEquals(640, stream.width());
+        assertEquals(480, stream.height());
+    }
+
+    @Test
+    void read_JpegAfterExifSegment_ReadsDimensionsFromFrameHeader() throws IOException {
+        // Arrange
+        ByteBuffer jpeg = ByteBuffer.allocate(2 + 4 + 3000 + 11 + 100);
+        jpeg.put(new byte[]{(byte) 0xFF, (byte) 0xD8});
+        jpeg.put(new byte[]{(byte) 0xFF, (byte) 0xE1}).putShort((short) 3002).put(new byte[3000]);
+        jpeg.put(new byte[]{(byte) 0xFF, (byte) 0xC0}).putShort((short) 17).put((byte) 8)
+                .putShort((short) 1080).putShort((short) 1920);
+        ValidatingImageInputStream stream = open(jpeg.array(), "image/jpeg", new PhotoProperties());
+
+        // Act
+        stream.transferTo(OutputStream.nullOutputStream());
+
+        // Assert
+        assertEquals(1920, stream.width());
+        assertEquals(1080, stream.height());
+    }
+
+    @Test
+    void read_ContentDoesNotMatchDeclaredType_FailsOnFirstBlock() {
+        // Arrange
+        byte[] body = new byte[1024 * 1024];
+        System.arraycopy(png(10, 10, 0), 0, body, 0, 33);
+        CountingStream source = new CountingStream(body);
+        InputStream stream = new ValidatingImageInputStream(source, "image/jpeg", new PhotoProperties());
+
+        // Act & Assert
+        assertThrows(ValidatingImageInputStream.RejectedException.class,
+                () -> stream.transferTo(OutputStream.nullOutputStream()));
+        assertTrue(source.read < body.length);
+    }
+
+    @Test
+    void read_DimensionsOverLimit_Rejected() {
+        // Arrange
+        PhotoProperties properties = new PhotoProperties();
+        properties.setMaxWidth(1000);
+        InputStream stream = open(png(4000, 100, 0), "image/png", properties);
+
+        // Act & Assert
+        assertThrows(ValidatingImageInputStream.RejectedException.class,
+                () -> stream.transferTo(OutputStream.nullOutputStream()));
+    }
+
+    @Test
+    void read_BodyOverSizeLimit_Rejected() {
+        // Arrange
+        PhotoProperties properties = new PhotoProperties();
+        properties.setMaxFileSizeMb(1);
+        InputStream stream = open(png(10, 10, 2 * 1024 * 1024), "image/png", properties);
+
+        // Act & Assert
+        assertThrows(ValidatingImageInputStream.RejectedException.class,
+                () -> stream.transferTo(OutputStream.nullOutputStream()));
+    }
+
+    @Test
+    void read_NotAnImage_Rejected() {
+        // Arrange
+        InputStream stream = open("test".getBytes(), "image/jpeg", new PhotoProperties());
+
+        // Act & Assert
+        assertThrows(ValidatingImageInputStream.RejectedException.class,
+                () -> stream.transferTo(OutputStream.nullOutputStream()));
+    }
+
+    private static ValidatingImageInputStream open(byte[] body, String declaredType, PhotoProperties properties) {
+        return new ValidatingImageInputStream(new ByteArrayInputStream(body), declaredType, properties);
+    }
+
+    private static byte[] png(int width, int height, int padding) {
+        ByteBuffer png = ByteBuffer.allocate(33 + padding);
+        png.put(new byte[]{(byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A});
+        png.putInt(13).put("IHDR".getBytes()).putInt(width).putInt(height);
+        return png.array();
+    }
+
+    private static final class CountingStream extends ByteArrayInputStream {
+        private int read;
+
+        private CountingStream(byte[] body) {
+            super(body);
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            int count = super.read(b, off, Math.min(len, 8192));
+            read += Math.max(count, 0);
+            return count;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package org.shvetsov.filestorage.service;
+
+import io.minio.MinioClient;
+import io.minio.ObjectWriteResponse;
+import io.minio.PutObjectArgs;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.shvetsov.filestorage.configurations.ChecksumProperties;
+import org.shvetsov.filestorage.configurations.IndexSnapshotProperties;
+import org.shvetsov.filestorage.configurations.MetadataCacheProperties;
+import org.shvetsov.filestorage.configurations.TrafficProperties;
+import org.shvetsov.filestorage.configurations.WriteBehindProperties;
+import org.shvetsov.filestorage.dto.ImagePlaceholder;
+import org.shvetsov.filestorage.dto.PhotoSummary;
+import org.shvetsov.filestorage.services.Invalidation;
+import org.shvetsov.filestorage.services.InvalidationBus;
+import org.shvetsov.filestorage.services.MetadataCache;
+import org.shvetsov.filestorage.services.ObjectChecksums;
+import org.shvetsov.filestorage.services.PhotoIndex;
+import org.shvetsov.filestorage.services.PhotoIndexSnapshot;
+import org.shvetsov.filestorage.services.ShardRouter;
+import org.shvetsov.filestorage.services.StorageShard;
+import org.shvetsov.filestorage.services.TrafficClass;
+import org.shvetsov.filestorage.services.TransferScheduler;
+import org.shvetsov.filestorage.services.WriteBehindFlusher;
+import org.shvetsov.filestorage.services.WriteBehindJournal;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class WriteBehindFlusherTest {
+
+    @TempDir
+    Path directory;
+
+    private final MinioClient minioClient = mock(MinioClient.class);
+    private final InvalidationBus invalidationBus = mock(InvalidationBus.class);
+    private final PhotoIndex photoIndex = new PhotoIndex(null, new PhotoIndexSnapshot(new IndexSnapshotProperties()));
+    private TransferScheduler transferScheduler;
+    private WriteBehindJournal journal;
+    private WriteBehindFlusher flusher;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        WriteBehindProperties properties = new WriteBehindProperties();
+        properties.setEnabled(true);
+        properties.setDirectory(directory.toString());
+        journal = new WriteBehindJournal(properties);
+        journal.open();
+        ChecksumProperties checksums = new ChecksumProperties();
+        checksums.setEnabled(false);
+        TrafficProperties traffic = new TrafficProperties();
+        traffic.setEnabled(true);
+        transferScheduler = new TransferScheduler(traffic);
+        ShardRouter router = new ShardRouter(List.of(new StorageShard("shard-0", "bucket", minioClient)), 1, false);
+        flusher = new WriteBehindFlusher(journal, properties, router, new MetadataCache(new MetadataCacheProperties()),
+                new ObjectChecksums(checksums), photoIndex, invalidationBus, transferScheduler);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        flusher.stop();
+        journal.close();
+    }
+
+    @Test
+    void flush_WhenObjectLands_PublishesWriteWithPlaceholder() throws Exception {
+        // Arrange
+        String path = UUID.randomUUID() + "/a.jpg";
+        ImagePlaceholder placeholder = new ImagePlaceholder(4, 3, "#102030", "LEHV6n");
+        photoIndex.put(new PhotoSummary(path, 3, "image/jpeg", null, placeholder));
+        journal.append(path, "image/jpeg", 3, new ByteArrayInputStream("abc".getBytes()));
+        ObjectWriteResponse response = mock(ObjectWriteResponse.class);
+        when(response.etag()).thenReturn("etag-1");
+        when(minioClient.putObject(any(PutObjectArgs.class))).thenReturn(response);
+
+        // Act
+        flusher.flush();
+
+        // Assert
+        assertNull(journal.get(path));
+        PhotoSummary landed = new PhotoSummary(path, 3, "image/jpeg", "etag-1", placeholder);
+        verify(invalidationBus).publish(Invalidation.write(landed));
+        assertEquals(landed, photoIndex.get(path));
+    }
+
+    @Test
+    void flush_UploadsThroughBulkSlot() throws Exception {
+        // Arrange
+        journal.append("p1/a.txt", "text/plain", 3, new ByteArrayInputStream("abc".getBytes()));
+        when(minioClient.putObject(any(PutObjectArgs.class))).thenAnswer(invocation -> {
+            assertEquals(1, transferScheduler.active(TrafficClass.BULK));
+            invocation.<PutObjectArgs>getArgument(0).stream().readAllBytes();
+            return mock(ObjectWriteResponse.class);
+        });
+
+        // Act
+        flusher.flush();
+
+        // Assert
+        assertNull(journal.get("p1/a.txt"));
+        assertEquals(3, transferScheduler.transferredBytes(TrafficClass.BULK));
+        assertEquals(0, transferScheduler.active(TrafficClass.BULK));
+    }
+
+    @Test
+    void flush_WhenUploadFails_NothingPublished() throws Exception {
+        // Arrange
+        journal.append("p1/a.txt", "text/plain", 3, new ByteArrayInputStream("abc".getBytes()));
+        when(minioClient.putObject(any(PutObjectArgs.class))).thenThrow(new IllegalStateException("down"));
+
+        // Act
+        flusher.flush();
+
+        // Assert
+        assertNotNull(journal.get("p1/a.txt"));
+        verify(invalidationBus, never()).publish(any());
+    }
+}
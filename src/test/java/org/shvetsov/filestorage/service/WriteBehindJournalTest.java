@@ -0,0 +1,277 @@
+package org.shvetsov.filestorage.service;
+
+import io.minio.StatObjectResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.shvetsov.filestorage.configurations.WriteBehindProperties;
+import org.shvetsov.filestorage.services.WriteBehindJournal;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteBehindJournalTest {
+
+    @TempDir
+    Path directory;
+
+    private WriteBehindProperties properties;
+    private WriteBehindJournal journal;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        properties = new WriteBehindProperties();
+        properties.setEnabled(true);
+        properties.setDirectory(directory.toString());
+        journal = reopen();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        journal.close();
+    }
+
+    @Test
+    void append_BodyAndMetadataReadableBeforeFlush() throws Exception {
+        // Act
+        WriteBehindJournal.PendingEntry entry = append("p1/a.jpg", "jpeg-bytes");
+
+        // Assert
+        assertSame(entry, journal.get("p1/a.jpg"));
+        try (InputStream body = journal.openBody(entry)) {
+            assertArrayEquals("jpeg-bytes".getBytes(), body.readAllBytes());
+        }
+        StatObjectResponse metadata = journal.metadata(entry);
+        assertEquals("image/jpeg", metadata.contentType());
+        assertEquals(10, metadata.size());
+        assertNotNull(metadata.lastModified());
+    }
+
+    @Test
+    void replay_RestoresOnlyUnflushedEntries() throws Exception {
+        // Arrange
+        WriteBehindJournal.PendingEntry flushed = append("p1/a.jpg", "aaa");
+        append("p1/b.jpg", "bbb");
+        append("p1/c.jpg", "ccc");
+        journal.markFlushed(flushed);
+        journal.discard("p1/c.jpg");
+        journal.close();
+
+        // Act
+        journal = reopen();
+
+        // Assert
+        assertNull(journal.get("p1/a.jpg"));
+        assertNull(journal.get("p1/c.jpg"));
+        WriteBehindJournal.PendingEntry pending = journal.get("p1/b.jpg");
+        assertNotNull(pending);
+        try (InputStream body = journal.openBody(pending)) {
+            assertArrayEquals("bbb".getBytes(), body.readAllBytes());
+        }
+    }
+
+    @Test
+    void replay_KeepsLatestVersionOfObject() throws Exception {
+        // Arrange
+        append("p1/a.jpg", "old");
+        append("p1/a.jpg", "new");
+        journal.close();
+
+        // Act
+        journal = reopen();
+
+        // Assert
+        assertEquals(1, journal.pendingEntries().size());
+        try (InputStream body = journal.openBody(journal.get("p1/a.jpg"))) {
+            assertArrayEquals("new".getBytes(), body.readAllBytes());
+        }
+    }
+
+    @Test
+    void replay_WhenLatestVersionFlushed_OlderVersionNotRestored() throws Exception {
+        // Arrange
+        append("p1/a.jpg", "v1");
+        WriteBehindJournal.PendingEntry latest = append("p1/a.jpg", "v2");
+        journal.markFlushed(latest);
+        journal.close();
+
+        // Act
+        journal = reopen();
+
+        // Assert
+        assertNull(journal.get("p1/a.jpg"));
+        assertTrue(journal.pendingEntries().isEmpty());
+    }
+
+    @Test
+    void replay_WhenDiscardedAfterOverwrite_NoVersionRestored() throws Exception {
+        // Arrange
+        append("p1/a.jpg", "v1");
+        append("p1/a.jpg", "v2");
+        journal.discard("p1/a.jpg");
+        journal.close();
+
+        // Act
+        journal = reopen();
+
+        // Assert
+        assertNull(journal.get("p1/a.jpg"));
+        assertTrue(journal.pendingEntries().isEmpty());
+    }
+
+    @Test
+    void append_SlowBodyDoesNotBlockOtherAppends() throws Exception {
+        // Arrange
+        PipedOutputStream slowClient = new PipedOutputStream();
+        CountDownLatch reading = new CountDownLatch(1);
+        InputStream slowBody = new FilterInputStream(new PipedInputStream(slowClient)) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                reading.countDown();
+                return super.read(b, off, len);
+            }
+        };
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<WriteBehindJournal.PendingEntry> slow = executor.submit(
+                    () -> journal.append("p1/slow.jpg", "image/jpeg", 4, slowBody));
+            assertTrue(reading.await(5, TimeUnit.SECONDS));
+
+            // Act
+            WriteBehindJournal.PendingEntry fast = assertTimeoutPreemptively(Duration.ofSeconds(5),
+                    () -> append("p1/fast.jpg", "fast"));
+            slowClient.write("slow".getBytes());
+            slowClient.close();
+
+            // Assert
+            assertNotNull(journal.get("p1/fast.jpg"));
+            assertTrue(slow.get(5, TimeUnit.SECONDS).sequence() > fast.sequence());
+            try (InputStream body = journal.openBody(journal.get("p1/slow.jpg"))) {
+                assertArrayEquals("slow".getBytes(), body.readAllBytes());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void replay_TruncatesTornTail() throws Exception {
+        // Arrange
+        append("p1/a.jpg", "aaa");
+        journal.close();
+        Path file = directory.resolve("journal.log");
+        long validSize = Files.size(file);
+        Files.write(file, new byte[]{0x57, 0x42, 0x4A, 0x31, 1, 0, 0}, StandardOpenOption.APPEND);
+
+        // Act
+        journal = reopen();
+
+        // Assert
+        assertNotNull(journal.get("p1/a.jpg"));
+        assertEquals(validSize, Files.size(file));
+        append("p1/b.jpg", "bbb");
+        journal.close();
+        journal = reopen();
+        assertEquals(2, journal.pendingEntries().size());
+    }
+
+    @Test
+    void append_WhenBodyShorterThanDeclared_Rejected() throws Exception {
+        assertThrows(EOFException.class, () -> journal.append("p1/a.jpg", "image/jpeg", 10,
+                new ByteArrayInputStream("abc".getBytes())));
+
+        assertNull(journal.get("p1/a.jpg"));
+        journal.close();
+        journal = reopen();
+        assertTrue(journal.pendingEntries().isEmpty());
+    }
+
+    @Test
+    void markFlushed_CompactsIdleJournal() throws Exception {
+        // Arrange
+        properties.setCompactThreshold(DataSize.ofBytes(1));
+        WriteBehindJournal.PendingEntry entry = append("p1/a.jpg", "aaa");
+
+        // Act
+        assertTrue(journal.markFlushed(entry));
+
+        // Assert
+        assertEquals(0, Files.size(directory.resolve("journal.log")));
+        assertNull(journal.openBody(entry));
+    }
+
+    @Test
+    void markFlushed_CompactsJournalWithPendingUploads() throws Exception {
+        // Arrange
+        properties.setCompactThreshold(DataSize.ofBytes(1));
+        WriteBehindJournal.PendingEntry flushed = append("p1/a.jpg", "a".repeat(1024));
+        WriteBehindJournal.PendingEntry pending = append("p1/b.jpg", "bbb");
+        long sizeBefore = journal.size();
+
+        // Act
+        assertTrue(journal.markFlushed(flushed));
+
+        // Assert
+        long compactedSize = Files.size(directory.resolve("journal.log"));
+        assertTrue(compactedSize < sizeBefore - 1024);
+        assertEquals(compactedSize, journal.size());
+        assertFalse(Files.exists(directory.resolve("journal.log.compact")));
+        assertSame(pending, journal.get("p1/b.jpg"));
+        try (InputStream body = journal.openBody(pending)) {
+            assertArrayEquals("bbb".getBytes(), body.readAllBytes());
+        }
+
+        journal.close();
+        journal = reopen();
+        WriteBehindJournal.PendingEntry replayed = journal.get("p1/b.jpg");
+        assertEquals(pending.sequence(), replayed.sequence());
+        try (InputStream body = journal.openBody(replayed)) {
+            assertArrayEquals("bbb".getBytes(), body.readAllBytes());
+        }
+        assertNull(journal.get("p1/a.jpg"));
+    }
+
+    @Test
+    void markFlushed_WhenMostlyLive_DoesNotRewriteJournal() throws Exception {
+        // Arrange
+        properties.setCompactThreshold(DataSize.ofBytes(1));
+        WriteBehindJournal.PendingEntry flushed = append("p1/a.jpg", "a");
+        append("p1/b.jpg", "b".repeat(1024));
+        long sizeBefore = journal.size();
+
+        // Act
+        journal.markFlushed(flushed);
+
+        // Assert
+        assertTrue(journal.size() > sizeBefore);
+    }
+
+    private WriteBehindJournal.PendingEntry append(String objectName, String body) throws Exception {
+        byte[] bytes = body.getBytes();
+        return journal.append(objectName, "image/jpeg", bytes.length, new ByteArrayInputStream(bytes));
+    }
+
+    private WriteBehindJournal reopen() throws Exception {
+        WriteBehindJournal reopened = new WriteBehindJournal(properties);
+        reopened.open();
+        return reopened;
+    }
+}